@@ -0,0 +1,55 @@
+package com.dksd.dvim.buffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Typing a run of chars into a line and backspacing over them again. Run with -prof gc,
+ * gc.alloc.rate.norm should be close to zero bytes per char once the line is in the gap buffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TypingBenchmark {
+
+    private static final int RUN = 100;
+    private static final String[] KEYS = {"a", "b", "c", " ", "d", "e", "f", ";"};
+    private Buf buf;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        buf = new Buf("bench", null, 0, null, new HashSet<>(Set.of(BufferMode.ALLOW_UNDO)));
+        buf.addRows(List.of("    for (int i = 0; i < size; i++) {", "        total += values[i];", "    }"));
+        buf.addToRow(1);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2 * RUN)
+    public void typeAndBackspace() {
+        for (int i = 0; i < RUN; i++) {
+            buf.insertIntoLine(KEYS[i & 7]);
+        }
+        for (int i = 0; i < RUN; i++) {
+            buf.addToCol(-1);
+            buf.deleteInLine(1);
+        }
+    }
+}
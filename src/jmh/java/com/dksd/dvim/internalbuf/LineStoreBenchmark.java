@@ -0,0 +1,57 @@
+package com.dksd.dvim.internalbuf;
+
+import com.dksd.dvim.buffer.BufferMode;
+import com.dksd.dvim.view.Line;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads a million short lines into a line store. Run with -prof gc to compare what each store
+ * allocates per line, NORMAL is the list of Line objects and COMPACT the packed arenas.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class LineStoreBenchmark {
+
+    @Param({"1000000"})
+    public int lineCount;
+
+    @Param({"NORMAL", "COMPACT"})
+    public BufferMode mode;
+
+    private List<Line> lines;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        lines = new ArrayList<>(lineCount);
+        for (int i = 0; i < lineCount; i++) {
+            lines.add(Line.of("    private final int field" + i + " = " + (i % 997) + ";", null));
+        }
+    }
+
+    @Benchmark
+    public InternalBuf load() {
+        InternalBuf buf = InternalBufFactory.create(Set.of(mode));
+        buf.insertAll(0, lines);
+        return buf;
+    }
+}
@@ -0,0 +1,70 @@
+package com.dksd.dvim.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Open time of a large file against the number of cores used to find the line ends.
+ * parallelism=1 is the single threaded baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LineIndexerBenchmark {
+
+    @Param({"512"})
+    public int fileSizeMb;
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    private Path file;
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("line-indexer", ".log");
+        long target = fileSizeMb * 1024L * 1024L;
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            long written = 0;
+            for (int i = 0; written < target; i++) {
+                String line = "2024-01-01T00:00:00 INFO request " + i + " took " + (i % 997) + "ms\n";
+                writer.write(line);
+                written += line.length();
+            }
+        }
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pool.shutdown();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public long[] index() throws IOException {
+        return LineIndexer.index(file, pool);
+    }
+}
@@ -0,0 +1,66 @@
+package com.dksd.dvim.view;
+
+import com.dksd.dvim.buffer.Buf;
+import com.dksd.dvim.buffer.BufferMode;
+import com.dksd.dvim.higlight.JavaSyntaxHighlighter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A frame for a buffer whose cursor moved but whose rows didn't change. Run with -prof gc,
+ * gc.alloc.rate.norm should be zero bytes per frame for both.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DisplayBenchmark {
+
+    private static final int SCREEN_WIDTH = 120;
+    private static final int SCREEN_HEIGHT = 60;
+    private final JavaSyntaxHighlighter syntaxHighlighter = new JavaSyntaxHighlighter();
+    private final boolean[] dirtyRows = new boolean[SCREEN_HEIGHT];
+    private Buf buf;
+    private BufRegion region;
+    private int step;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        buf = new Buf("bench", null, 0, new ScrollView(100, 100),
+                new HashSet<>(Set.of(BufferMode.ALLOW_UNDO, BufferMode.LEFT_BORDER)));
+        for (int i = 0; i < 2_000; i++) {
+            buf.addRow("    int value" + i + " = compute(" + i + ") + other;");
+        }
+        buf.setScrollView(0, SCREEN_HEIGHT - 10, 0, SCREEN_WIDTH);
+        buf.addToRow(5);
+        region = new BufRegion(false);
+        region.rasterize(buf, syntaxHighlighter, SCREEN_WIDTH, SCREEN_HEIGHT, dirtyRows);
+    }
+
+    @Benchmark
+    public List<DispObj> linesToDisplay() {
+        return buf.getLinesToDisplay();
+    }
+
+    @Benchmark
+    public int cursorMoveFrame() {
+        buf.addToRow((step++ & 1) == 0 ? 1 : -1);
+        return region.rasterize(buf, syntaxHighlighter, SCREEN_WIDTH, SCREEN_HEIGHT, dirtyRows);
+    }
+}
@@ -75,6 +75,7 @@ public class Main {
             vKeyMaps.loadKeys(ve, trieMapManager);
             screen.getTerminal().addResizeListener((terminal1, newSize) -> {
                 ve.getView().fitScrollView(newSize.getColumns(), newSize.getRows());
+                ve.requestFrame();
             });
 
             do {
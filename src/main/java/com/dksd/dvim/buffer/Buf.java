@@ -1,17 +1,37 @@
 package com.dksd.dvim.buffer;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
+import com.dksd.dvim.diff.GutterDiff;
+import com.dksd.dvim.diff.LineDiff;
 import com.dksd.dvim.engine.VimEng;
+import com.dksd.dvim.internalbuf.BufSnapshot;
+import com.dksd.dvim.internalbuf.EditOp;
 import com.dksd.dvim.internalbuf.InternalBuf;
 import com.dksd.dvim.internalbuf.InternalBufFactory;
+import com.dksd.dvim.internalbuf.LineChange;
+import com.dksd.dvim.internalbuf.LineRope;
+import com.dksd.dvim.internalbuf.MappedInternalBuf;
+import com.dksd.dvim.internalbuf.MultiUndoInternalBuf;
+import com.dksd.dvim.internalbuf.SwapJournal;
+import com.dksd.dvim.internalbuf.UndoJournal;
+import com.dksd.dvim.search.BufSearch;
+import com.dksd.dvim.utils.ContentHash;
+import com.dksd.dvim.utils.FileSaver;
 import com.dksd.dvim.utils.LinesHelper;
+import com.dksd.dvim.utils.PathHelper;
 import com.dksd.dvim.view.DispObj;
+import com.dksd.dvim.view.DisplayRows;
 import com.dksd.dvim.event.EventType;
 import com.dksd.dvim.event.VimEvent;
 import com.dksd.dvim.view.Line;
@@ -23,13 +43,39 @@ public class Buf {
 
     private Logger logger = LoggerFactory.getLogger(Buf.class);
     public static final int GUTTER_SIZE = 5;
+    public static final int LOAD_BATCH_SIZE = 10_000;
+    private static final Line NO_LINE = new Line("", null);
     private final String name;
     private String filename;
     private final int bufNo;
     private final ScrollView scrollView;
-    private final InternalBuf lines;
+    private volatile InternalBuf lines;
     private final Set<BufferMode> bufferModes;
     private final AtomicInteger row = new AtomicInteger(0), col = new AtomicInteger(0);
+    private final AtomicLong loadGeneration = new AtomicLong();
+    //Cursor moves, typing, modes and swapped in lines, the rest of the version comes from what the buf holds.
+    private final AtomicLong modCount = new AtomicLong();
+    //Filled in again each frame, only the renderer reads them.
+    private final DisplayRows displayRows = new DisplayRows();
+    private final DispObj displayCursor = new DispObj();
+    //The row being typed into as it stands, copied out of the gap buffer so drawing doesn't commit it.
+    private char[] typedChars = new char[64];
+    private int typedLength;
+    private int typedRow = -1;
+    private Line typedLine;
+    //The line being typed into, guarded by its own monitor.
+    private final LineGapBuffer typing = new LineGapBuffer();
+    private boolean typingEventPending = false;
+    //Search and the gutter diff call back into the buf, so they are made on first use rather than while it is built.
+    private final Object helpersLock = new Object();
+    private volatile BufSearch search;
+    private volatile GutterDiff gutterDiff;
+    private volatile SwapJournal swap;
+    private volatile SwapJournal.Recovery recovery;
+    //Content hash of the file as last loaded or saved, 0 until there is one.
+    private volatile long savedHash = 0;
+    //The file as it was when loaded or saved, a watch event for a file that still looks like this is our own write.
+    private volatile FileSaver.Stamp savedStamp;
 
     public Buf(String name, String filename, int bufNo, ScrollView scrollView) {
         this(name, filename, bufNo, scrollView, new HashSet<>());
@@ -48,12 +94,50 @@ public class Buf {
         return scrollView;
     }
 
+    /**
+     * Goes up on every edit, cursor move, typed character, layout change and new gutter marker, so a
+     * renderer that drew this version has nothing to redraw.
+     */
+    public long getVersion() {
+        GutterDiff diff = gutterDiff;
+        return modCount.get() + lines.getVersion() + ((diff != null) ? diff.getVersion() : 0)
+                + ((scrollView != null) ? scrollView.getVersion() : 0);
+    }
+
+    private void touch() {
+        modCount.incrementAndGet();
+    }
+
+    private void moveCursor(AtomicInteger coord, int value) {
+        if (coord.getAndSet(value) != value) {
+            touch();
+        }
+    }
+
+    /**
+     * Carries the old lines' version over so the buf's version keeps going up with the new ones, and
+     * drops what search worked out for the old lines.
+     */
+    private void swapLines(InternalBuf next) {
+        InternalBuf old = lines;
+        lines = next;
+        modCount.addAndGet(old.getVersion() + 1);
+        BufSearch current = search;
+        if (current != null) {
+            current.linesReplaced();
+        }
+    }
+
     public int getRow() {
         return row.get();
     }
 
     private void setRow(int row) {
-        this.row.set(Math.min(row, this.lines.size() - 1));
+        int newRow = Math.min(row, this.lines.size() - 1);
+        if (newRow != this.row.get()) {
+            commitTyping();
+        }
+        moveCursor(this.row, newRow);
     }
 
     public int getCol() {
@@ -64,15 +148,15 @@ public class Buf {
     //How it gets to the screen is a different question.
     private void setCol(int col) {
         if (col < 0) {
-            this.col.set(0);
+            moveCursor(this.col, 0);
             return;
         }
-        int ll = getCurrentLine().getContent().length();
+        int ll = currentLineLength();
         if (col > ll) {
-            this.col.set(ll);
+            moveCursor(this.col, ll);
             return;
         }
-        this.col.set(col);
+        moveCursor(this.col, col);
     }
 
     public void insertIntoLine(String str) {
@@ -83,13 +167,12 @@ public class Buf {
             }
             int row = getRow();
             int col = getCol();
-            Line line = lines.get(row);
-            StringBuilder sb = new StringBuilder(line.getContent());
-            sb.insert(col, str);
-            lines.set(row, Line.of(line.getLineNumber(), sb.toString(), line.getIndicatorStr()));
-            setCol(col + str.length());
-            VimEng.events.add(new VimEvent(null, bufNo, EventType.BUF_CHANGE_INSERT, "" + line.getLineNumber()));
-            //System.out.println("Buf event: " + event);
+            synchronized (typing) {
+                loadTyping(row);
+                typing.insert(col, str);
+                moveCursor(this.col, col + str.length());
+                postTypingEvent(EventType.BUF_CHANGE_INSERT, row);
+            }
         } catch (Exception ep) {
             ep.printStackTrace();
             System.err.println("Error when inserting into line: " + this);
@@ -104,6 +187,43 @@ public class Buf {
         }
     }
 
+    /**
+     * Puts the cursor at row and col, both clamped to what is in the buffer.
+     */
+    public void moveTo(int row, int col) {
+        setRow(Math.max(0, row));
+        setCol(col);
+    }
+
+    public GutterDiff getGutterDiff() {
+        GutterDiff diff = gutterDiff;
+        if (diff == null) {
+            synchronized (helpersLock) {
+                if (gutterDiff == null) {
+                    //Reads the lines as committed, typing shows up once its line is put back, which posts a change.
+                    gutterDiff = new GutterDiff(() -> lines.snapshot(), () ->
+                            VimEng.events.add(new VimEvent(null, getBufNo(), EventType.GUTTER_CHANGE, "")));
+                }
+                diff = gutterDiff;
+            }
+        }
+        return diff;
+    }
+
+    public BufSearch getSearch() {
+        BufSearch current = search;
+        if (current == null) {
+            synchronized (helpersLock) {
+                if (search == null) {
+                    search = new BufSearch(this::snapshot, results ->
+                            VimEng.events.add(new VimEvent(null, getBufNo(), EventType.SEARCH_COUNT, "" + results.count())));
+                }
+                current = search;
+            }
+        }
+        return current;
+    }
+
     public void addToCol(int colDelta) {
         int col = getCol();
         setCol(col + colDelta);
@@ -111,7 +231,7 @@ public class Buf {
 
     public void deleteLine(int row) {
         if (!isEmpty()) {
-            lines.remove(row);
+            flushed().remove(row);
             VimEng.events.add(new VimEvent(null, bufNo, EventType.BUF_CHANGE_REMOVE, "" + row));
         }
         if (row >= lines.size()) {
@@ -123,26 +243,108 @@ public class Buf {
     public void deleteInLine(int numChars) {
         int row = getRow();
         int col = getCol();
-        Line line = lines.get(row);
-        try {
-            if (line != null && !line.isEmpty() && col + numChars <= line.length()) {
-                String lStr = line.getContent().substring(0, col) + line.getContent().substring(col + numChars);
-                line.setContent(lStr);
-                VimEng.events.add(new VimEvent(null, bufNo, EventType.BUF_CHANGE_REMOVE, lStr));
-                lines.set(row, line);
+        if (row >= lines.size()) {
+            return;
+        }
+        synchronized (typing) {
+            loadTyping(row);
+            if (col + numChars <= typing.length()) {
+                typing.delete(col, numChars);
+                touch();
+                postTypingEvent(EventType.BUF_CHANGE_REMOVE, row);
             }
-        } catch (Exception ep) {
-            ep.printStackTrace();
-            System.err.println("Line: " + line + " col: " + col);
         }
     }
 
     public Line getLine(int row) {
-        return lines.get(row);
+        return flushed().get(row);
+    }
+
+    /**
+     * Moves the gap buffer onto row, putting back whatever line it held before.
+     */
+    private void loadTyping(int row) {
+        if (typing.getRow() != row) {
+            commitTyping();
+            typing.load(row, lines.get(row));
+        }
+    }
+
+    /**
+     * Posts one change event for a run of typing, the next is only posted once someone has
+     * read the buffer and so committed the line.
+     */
+    private void postTypingEvent(EventType eventType, int row) {
+        if (!typingEventPending) {
+            typingEventPending = true;
+            VimEng.events.add(new VimEvent(null, bufNo, eventType, "" + row));
+        }
+    }
+
+    /**
+     * Puts the line being typed into back into the buffer as a single set, if anything was typed.
+     */
+    private void commitTyping() {
+        synchronized (typing) {
+            if (typing.isChanged()) {
+                int typedRow = typing.getRow();
+                Line line = typing.toLine();
+                if (typedRow < lines.size()) {
+                    lines.set(typedRow, line);
+                    VimEng.events.add(new VimEvent(null, bufNo, EventType.BUF_CHANGE, typedRow + ":" + (typedRow + 1)));
+                }
+            } else {
+                typing.discard();
+            }
+            typingEventPending = false;
+        }
+    }
+
+    /**
+     * The committed lines, with the row being typed into copied out alongside them. Drawing reads
+     * this so that a frame doesn't put the line back, which would cost a Line and an undo step per key.
+     */
+    private BufSnapshot displaySnapshot() {
+        synchronized (typing) {
+            typedRow = typing.getRow();
+            if (typing.isLoaded()) {
+                typedLength = typing.length();
+                if (typedChars.length < typedLength) {
+                    typedChars = new char[typedLength * 2];
+                }
+                typing.getChars(typedChars);
+                typedLine = typing.getOriginal();
+            }
+            return lines.snapshot();
+        }
+    }
+
+    private int displayLength(BufSnapshot snapshot, int row) {
+        return (row == typedRow) ? typedLength : snapshot.get(row).length();
+    }
+
+    /**
+     * The lines with any typing committed, use this rather than the field for anything that reads
+     * content or changes rows.
+     */
+    private InternalBuf flushed() {
+        commitTyping();
+        return lines;
+    }
+
+    private int currentLineLength() {
+        synchronized (typing) {
+            if (typing.getRow() == getRow()) {
+                return typing.length();
+            }
+        }
+        Line line = lines.get(getRow());
+        return (line == null) ? 0 : line.length();
     }
 
     public void addBufferMode(BufferMode bufferMode) {
         bufferModes.add(bufferMode);
+        touch();
     }
 
     @Override
@@ -166,14 +368,59 @@ public class Buf {
     }
 
     public void addRow(String str) {
-        int size = lines.size();
-        lines.set(size, new Line(size, str, null));
+        InternalBuf target = flushed();
+        target.set(target.size(), new Line(str, null));
         setCol(str.length());
         VimEng.events.add(new VimEvent(null, bufNo, EventType.BUF_CHANGE_ADD, str));
     }
 
+    /**
+     * Adds the rows in one go, with one change event and one undo step for all of them.
+     */
+    public void addRows(List<String> strs) {
+        if (strs.isEmpty()) {
+            return;
+        }
+        edit(tx -> {
+            for (String str : strs) {
+                tx.append(str);
+            }
+        });
+        setCol(strs.getLast().length());
+    }
+
+    /**
+     * Inserts the rows before row, like a line wise paste.
+     */
+    public void insertLines(int row, List<String> strs) {
+        edit(tx -> {
+            for (int i = 0; i < strs.size(); i++) {
+                tx.insert(row + i, strs.get(i));
+            }
+        });
+    }
+
+    /**
+     * Applies all the mutations made in body as a single undo step and posts one
+     * BUF_CHANGE event whose value is the "from:to" range of rows that were affected.
+     */
+    public void edit(Consumer<BufTransaction> body) {
+        InternalBuf target = flushed();
+        BufTransaction tx = new BufTransaction(target);
+        target.beginEdit();
+        try {
+            body.accept(tx);
+        } finally {
+            target.endEdit();
+        }
+        if (tx.isChanged()) {
+            clampCursor();
+            VimEng.events.add(new VimEvent(null, bufNo, EventType.BUF_CHANGE, tx.getFromRow() + ":" + tx.getToRow()));
+        }
+    }
+
     public List<Line> getLinesDangerous() {
-        return lines.getAll();
+        return flushed().getAll();
     }
 
     public String getName() {
@@ -185,11 +432,251 @@ public class Buf {
     }
 
     public void setLines(List<Line> keptLines, int insertAfter) {
-        //TODO
-        this.lines.setAll(keptLines);
-        row.set(0);
-        col.set(0);
-        VimEng.events.add(new VimEvent(null, bufNo, EventType.BUF_CHANGE_ADD, "" + insertAfter));
+        //TODO insertAfter
+        moveCursor(row, 0);
+        moveCursor(col, 0);
+        edit(tx -> tx.setAll(keptLines));
+    }
+
+    /**
+     * Loads the file, memory mapping it read only when it is too big for the heap.
+     * Otherwise the first screen of lines is shown as soon as it is decoded and the rest
+     * streams in on a virtual thread, the cursor can move through whatever has arrived.
+     */
+    public void loadFile(Path path) throws IOException {
+        long generation = loadGeneration.incrementAndGet();
+        commitTyping();
+        closeFile();
+        this.filename = path.toString();
+        moveCursor(row, 0);
+        moveCursor(col, 0);
+        if (InternalBufFactory.isMapped(bufferModes, path)) {
+            swapLines(InternalBufFactory.create(bufferModes, path));
+            VimEng.events.add(new VimEvent(null, bufNo, EventType.BUF_CHANGE_ADD, "0"));
+            VimEng.events.add(new VimEvent(null, bufNo, EventType.BUF_LOAD_PROGRESS, path.getFileName() + " is read only"));
+            if (lines instanceof MappedInternalBuf mapped) {
+                //Big read only files are what the trigram index is for, it is built once the lines are known.
+                mapped.whenIndexed().thenRun(getSearch()::enableIndex);
+            }
+            return;
+        }
+        InternalBuf target = InternalBufFactory.create(bufferModes, Files.size(path));
+        swapLines(target);
+        int firstScreen = (scrollView == null) ? LOAD_BATCH_SIZE : Math.max(1, scrollView.getHeight());
+        Thread.ofVirtual().name("load-" + path.getFileName()).start(() -> {
+            try {
+                FileSaver.Stamp stamp = FileSaver.Stamp.of(path);
+                //What was decoded, the buf may also hold edits made while the rest was loading.
+                List<Line> fileLines = new ArrayList<>();
+                PathHelper.readFileInBatches(path, firstScreen, LOAD_BATCH_SIZE, (batch, loaded, total) -> {
+                    if (generation != loadGeneration.get() || target != lines) {
+                        return false;//superseded by another load
+                    }
+                    target.appendLoaded(batch);
+                    fileLines.addAll(batch);
+                    VimEng.events.add(new VimEvent(null, bufNo, EventType.BUF_LOAD_PROGRESS,
+                            path.getFileName() + " " + (100L * loaded / total) + "%"));
+                    return true;
+                });
+                if (generation == loadGeneration.get() && target == lines) {
+                    long fileHash = ContentHash.of(fileLines);
+                    BufSnapshot loadedSnapshot = target.snapshot();
+                    long bufHash = ContentHash.of(loadedSnapshot.lines());
+                    boolean edited = bufHash != fileHash;
+                    //The journal has to start from what the buf holds, edits made while loading start it over.
+                    attachJournal(target, path, bufHash);
+                    attachSwap(target, path, edited ? LineRope.EMPTY.with(fileLines) : loadedSnapshot.lines(), fileHash);
+                    savedHash = fileHash;
+                    savedStamp = stamp;
+                    VimEng.events.add(new VimEvent(null, bufNo, EventType.FILE_OPENED, path.toString()));
+                    if (bufferModes.contains(BufferMode.TRIGRAM_INDEX) || fileLines.size() >= BufSearch.INDEX_MIN_LINES) {
+                        getSearch().enableIndex();
+                    }
+                }
+            } catch (Exception e) {
+                logger.error("Failed to load file: " + path, e);
+                VimEng.events.add(new VimEvent(null, bufNo, EventType.BUF_LOAD_PROGRESS,
+                        path.getFileName() + " failed: " + e.getMessage()));
+            }
+        });
+    }
+
+    /**
+     * Picks up the undo history of earlier sessions, failing to do so only costs the history.
+     */
+    private void attachJournal(InternalBuf target, Path path, long contentHash) {
+        if (!(target instanceof MultiUndoInternalBuf undoBuf)) {
+            return;
+        }
+        try {
+            undoBuf.setJournal(UndoJournal.open(path, contentHash));
+        } catch (IOException e) {
+            logger.warn("Failed to open undo journal for " + path, e);
+        }
+    }
+
+    /**
+     * Starts the swap file against the lines as they are on disk, first picking up any changes a
+     * crashed session left in the old one.
+     */
+    private void attachSwap(InternalBuf target, Path path, List<Line> onDisk, long contentHash) {
+        if (!(onDisk instanceof LineRope saved) || !(target.snapshot().lines() instanceof LineRope)) {
+            return;
+        }
+        getGutterDiff().setBase(saved);
+        try {
+            SwapJournal.Recovery found = SwapJournal.recover(path, contentHash);
+            swap = SwapJournal.open(path, saved, contentHash, target::snapshot);
+            if (found != null) {
+                recovery = found;
+                VimEng.events.add(new VimEvent(null, bufNo, EventType.BUF_LOAD_PROGRESS, path.getFileName()
+                        + " has unsaved changes from a crash, :recover to restore them or :discard to drop them"));
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to open swap file for " + path, e);
+        }
+    }
+
+    /**
+     * Makes the changes a crashed session left behind as one edit, false if there weren't any.
+     */
+    public boolean recover() {
+        SwapJournal.Recovery found = recovery;
+        if (found == null) {
+            return false;
+        }
+        recovery = null;
+        edit(tx -> {
+            for (LineChange change : found.changes()) {
+                tx.replaceRange(change.row(), change.row() + change.removed(), change.insertedLines());
+            }
+        });
+        retire(found);
+        return true;
+    }
+
+    /**
+     * Drops the changes a crashed session left behind for good, false if there weren't any.
+     */
+    public boolean discardRecovery() {
+        SwapJournal.Recovery found = recovery;
+        if (found == null) {
+            return false;
+        }
+        recovery = null;
+        retire(found);
+        return true;
+    }
+
+    private void retire(SwapJournal.Recovery found) {
+        SwapJournal current = swap;
+        try {
+            if (current != null) {
+                current.retire(found);
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to delete swap file " + found.swapPath(), e);
+        }
+    }
+
+    /**
+     * Lets go of the file the buf had open, its journals and, through a FILE_CLOSED event, its watch.
+     */
+    private void closeFile() {
+        closeJournals();
+        if (savedHash != 0) {
+            VimEng.events.add(new VimEvent(null, bufNo, EventType.FILE_CLOSED, filename));
+        }
+        savedHash = 0;
+        savedStamp = null;
+    }
+
+    private void closeJournals() {
+        if (lines instanceof MultiUndoInternalBuf undoBuf) {
+            undoBuf.setJournal(null);
+        }
+        SwapJournal current = swap;
+        swap = null;
+        recovery = null;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    /**
+     * Brings the buffer in line with its file after another program rewrote it, as one undoable edit that
+     * only touches the hunks that differ, so everything else keeps its lines and the cursor keeps its place.
+     * A buffer with unsaved changes of its own is left alone. Returns whether anything was changed.
+     * The file is only read when its size or modified time differ from what was loaded or saved.
+     */
+    public boolean reloadFromDisk() throws IOException {
+        if (filename == null || savedHash == 0) {
+            return false;
+        }
+        Path path = Path.of(filename);
+        FileSaver.Stamp stamp = FileSaver.Stamp.of(path);
+        if (stamp == null || stamp.equals(savedStamp)) {
+            return false;//gone, or our own save
+        }
+        List<Line> onDisk = PathHelper.readFile(path);
+        long diskHash = ContentHash.of(onDisk);
+        if (diskHash == savedHash) {
+            savedStamp = stamp;
+            return false;//touched without changing
+        }
+        BufSnapshot current = snapshot();
+        if (ContentHash.of(current.lines()) != savedHash) {
+            VimEng.events.add(new VimEvent(null, bufNo, EventType.BUF_LOAD_PROGRESS,
+                    path.getFileName() + " changed on disk, not reloaded over unsaved changes"));
+            return false;
+        }
+        List<LineChange> changes = LineDiff.diff(EditOp.contents(current.lines()), EditOp.contents(onDisk));
+        if (snapshot().version() != current.version()) {
+            return false;//edited while diffing, the next change event will try again
+        }
+        int cursorRow = getRow();
+        edit(tx -> {
+            for (LineChange change : changes) {
+                tx.replaceRange(change.row(), change.row() + change.removed(), change.insertedLines());
+            }
+        });
+        setRow(Math.max(0, shiftRow(cursorRow, changes)));
+        markSaved(snapshot().lines(), diskHash, stamp);
+        return true;
+    }
+
+    /**
+     * Where row ends up after the changes, a row inside a changed hunk stays within what replaced it.
+     */
+    static int shiftRow(int row, List<LineChange> changes) {
+        for (LineChange change : changes) {
+            if (row >= change.row() + change.removed()) {
+                row += change.inserted().size() - change.removed();
+            } else if (row >= change.row()) {
+                row = Math.min(row, change.row() + Math.max(0, change.inserted().size() - 1));
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Called once saved has been written out as the file, so the journals know the contents with this hash are on disk.
+     *
+     * @param stamp the file right after it was written
+     */
+    public void markSaved(List<Line> saved, long contentHash, FileSaver.Stamp stamp) {
+        savedHash = contentHash;
+        savedStamp = stamp;
+        if (lines instanceof MultiUndoInternalBuf undoBuf) {
+            undoBuf.checkpoint(contentHash);
+        }
+        if (saved instanceof LineRope rope) {
+            getGutterDiff().setBase(rope);
+            SwapJournal current = swap;
+            if (current != null) {
+                current.markSaved(rope, contentHash);
+            }
+        }
     }
 
     public String getFilename() {
@@ -215,8 +702,8 @@ public class Buf {
         int row = getRow();
         Line line = getCurrentLine();
         String restOfline = getStrAfter(line.getContent(), col);
-        line.setContent(line.getContent().substring(0, col));
-        lines.insert(row + 1, new Line(row + 1, restOfline, null));
+        flushed().set(row, Line.of(line.getContent().substring(0, col), line.getIndicatorStr()));
+        lines.insert(row + 1, new Line(restOfline, null));
         incrRow();
         setCol(0);
     }
@@ -260,57 +747,82 @@ public class Buf {
         getScrollView().setRightBufs(bufs);
     }
 
-    private int getVirtualRow(int row, int height) {
-        if (lines.size() == 0) {
+    private int getVirtualRow(BufSnapshot snapshot, int row, int height) {
+        if (snapshot.isEmpty()) {
             return 0;
         }
         int fivePToBottom = (int) (height * 0.05);
-        int stRow = Math.min(row + fivePToBottom, lines.size()) - height;
+        int stRow = Math.min(row + fivePToBottom, snapshot.size()) - height;
         stRow = Math.max(0, stRow);
         return stRow;
     }
 
-    private int getVirtualCol(int row, int col, int width) {
-        if (lines.size() == 0 || row >= lines.size()) {
+    private int getVirtualCol(BufSnapshot snapshot, int row, int col, int width) {
+        if (snapshot.isEmpty() || row >= snapshot.size()) {
             return 0;
         }
 
         int fivePToRight = (int) (width * 0.05);
-        int stCol = Math.min(col + fivePToRight, lines.get(row).getContent().length()) - width;
+        int stCol = Math.min(col + fivePToRight, displayLength(snapshot, row)) - width;
         stCol = Math.max(0, stCol);
         return stCol;
     }
 
+    /**
+     * The lines at the current version, safe to read from any thread without locking.
+     */
+    public BufSnapshot snapshot() {
+        return flushed().snapshot();
+    }
+
+    /**
+     * The rows on screen as slices of their lines. The list and its DispObjs are reused by the next call,
+     * so a frame allocates nothing for rows that are already showing.
+     */
     public List<DispObj> getLinesToDisplay() {
-        List<DispObj> dispObjs = new ArrayList<>(300);
+        BufSnapshot snapshot = displaySnapshot();
+        displayRows.clear();
         int leftBorderWidth = getBorderWidths(BufferMode.LEFT_BORDER);
         int topBorderWidth = getBorderWidths(BufferMode.TOP_BORDER);
         int width = getScrollView().getWidth() - getGutterSize() - leftBorderWidth;
         int height = getScrollView().getHeight();
         if (height > 1) height -= topBorderWidth;
 
-        int stRow = getVirtualRow(getRow(), height);
-        int stCol = getVirtualCol(getRow(), getCol(), width);
-
-        for (int rowDataIndex = stRow; rowDataIndex < stRow + height && rowDataIndex < lines.size(); rowDataIndex++) {
-
-            Line lineStr = lines.get(rowDataIndex);
-            String str = lineStr.getContent();
-
-            String croppedLine = "";
-            try {
-                croppedLine = str.substring(stCol, Math.min(str.length(), stCol + width));
+        int stRow = getVirtualRow(snapshot, getRow(), height);
+        int stCol = getVirtualCol(snapshot, getRow(), getCol(), width);
+
+        for (int rowDataIndex = stRow; rowDataIndex < stRow + height && rowDataIndex < snapshot.size(); rowDataIndex++) {
+            int length = displayLength(snapshot, rowDataIndex);
+            int start = Math.min(stCol, length);
+            int end = Math.max(start, Math.min(length, stCol + width));
+            DispObj dispObj = displayRows.next();
+            if (rowDataIndex == typedRow) {
+                dispObj.set(getOnScreenRow(rowDataIndex - stRow, topBorderWidth),
+                        getOnScreenCol(0, leftBorderWidth),
+                        rowDataIndex,
+                        typedLine, typedChars, start, end);
+            } else {
+                dispObj.set(getOnScreenRow(rowDataIndex - stRow, topBorderWidth),
+                        getOnScreenCol(0, leftBorderWidth),
+                        rowDataIndex,
+                        snapshot.get(rowDataIndex), start, end);
             }
-            catch (Exception ep) {
-                ep.printStackTrace();
-                //System.out.println("str to try crop: " + str);
-            }
-            dispObjs.add(
-                    new DispObj(getOnScreenRow(rowDataIndex - stRow, topBorderWidth),
-                            getOnScreenCol(0, leftBorderWidth),
-                            new Line(rowDataIndex, croppedLine, lineStr.getIndicatorStr())));
         }
-        return dispObjs;
+        return displayRows;
+    }
+
+    /**
+     * A memory mapped file, nothing typed into it would stick.
+     */
+    public boolean isReadOnly() {
+        return lines instanceof MappedInternalBuf;
+    }
+
+    /**
+     * Only the undo tree store keeps history, in the others undo and redo do nothing.
+     */
+    public boolean hasUndo() {
+        return lines instanceof MultiUndoInternalBuf;
     }
 
     public boolean containsBufferMode(BufferMode bufferMode) {
@@ -330,17 +842,44 @@ public class Buf {
     }
 
     public DispObj getDisplayCursor() {
-        int pRow = getRow() - getVirtualRow(getRow(), getScrollView().getHeight()) + scrollView.getRowStart() + 1;
-        int pCol = getCol() - getVirtualCol(getRow(), getCol(), getScrollView().getWidth()) + scrollView.getColStart() + getGutterSize() + 1;
+        BufSnapshot snapshot = displaySnapshot();
+        int pRow = getRow() - getVirtualRow(snapshot, getRow(), getScrollView().getHeight()) + scrollView.getRowStart() + 1;
+        int pCol = getCol() - getVirtualCol(snapshot, getRow(), getCol(), getScrollView().getWidth()) + scrollView.getColStart() + getGutterSize() + 1;
 
         pCol = Math.min(pCol, getScrollView().getWidth() + scrollView.getColStart() - 1);
         pRow = Math.min(pRow, getScrollView().getHeight() + scrollView.getRowStart() - 1);
 
-        return new DispObj(pRow, pCol, new Line(0, "", null));
+        return displayCursor.set(pRow, pCol, -1, NO_LINE, 0, 0);
     }
 
     public void undo() {
-        lines.undo();
+        flushed().undo();
+        clampCursor();
+    }
+
+    public void redo() {
+        flushed().redo();
+        clampCursor();
+    }
+
+    public void travel(int steps) {
+        flushed().travel(steps);
+        clampCursor();
+    }
+
+    public void travelTime(long deltaMillis) {
+        flushed().travelTime(deltaMillis);
+        clampCursor();
+    }
+
+    private void clampCursor() {
+        if (isEmpty()) {
+            moveCursor(row, 0);
+            moveCursor(col, 0);
+            return;
+        }
+        setRow(getRow());
+        setCol(getCol());
     }
 
     public Line getCurrentLine() {
@@ -352,9 +891,11 @@ public class Buf {
     }
 
     public void reset() {
-        lines.clear();
-        row.set(0);
-        col.set(0);
+        commitTyping();
+        closeFile();
+        swapLines(InternalBufFactory.create(bufferModes));
+        moveCursor(row, 0);
+        moveCursor(col, 0);
         VimEng.events.clear();
     }
 
@@ -366,14 +907,42 @@ public class Buf {
         scrollView.setColEnd((screenWidth / 2) + (newWidth / 2));
     }
 
+    /**
+     * Replaces everything from startRow to the end of the buffer, padding with blank rows
+     * if the buffer is shorter than that. The cursor is left where it is.
+     */
+    public void replaceLinesFrom(int startRow, List<Line> newLines) {
+        edit(tx -> {
+            while (tx.size() < startRow) {
+                tx.append("");
+            }
+            tx.replaceRange(startRow, tx.size(), newLines);
+        });
+    }
+
+    /**
+     * Removes rows [startRow, endRow), an endRow of -1 removes to the end of the buffer.
+     */
     public void removeLines(int startRow, int endRow) {
-        for (int i = startRow; i < endRow; i++) {
-            lines.remove(i);
-        }
+        edit(tx -> tx.removeRange(startRow, (endRow < 0) ? tx.size() : endRow));
     }
 
     public void setLine(int row, String line) {
-        lines.set(row, new Line(row, line, null));
+        flushed().set(row, new Line(line, null));
+    }
+
+    /**
+     * Swaps in a copy of the row with a new indicator rather than changing the Line in place,
+     * which would also change it in snapshots that are still being read.
+     */
+    public void setIndicator(int row, String indicatorStr) {
+        Line line = flushed().get(row);
+        if (line == null) {
+            return;
+        }
+        Line marked = Line.of(line.getContent(), indicatorStr);
+        marked.setGhostContent(line.getGhostContent());
+        lines.set(row, marked);
     }
 
     public void setFilename(String filename) {
@@ -0,0 +1,322 @@
+package com.dksd.dvim.buffer;
+
+import com.dksd.dvim.utils.ContentHash;
+import com.dksd.dvim.utils.FileSaver;
+import com.dksd.dvim.utils.PathHelper;
+import com.dksd.dvim.view.Line;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Keeps track of any number of file buffers while only holding the lines of the ones in use. Registering a file
+ * just records its path, the lines are read the first time the buffer is asked for. Once the resident buffers
+ * go over the heap budget the least recently used are evicted: unchanged ones just let go of their lines,
+ * changed ones are written to a cache file under ~/.cache/dvim/bufcache first and read back from it next time.
+ * A buffer that has been handed out is pinned and never evicted until it is released, so no one is left
+ * editing a Buf the manager has let go of. Each session caches into a directory named by its pid, the ones
+ * left behind by sessions that are no longer running are deleted when a manager starts.
+ */
+public class BufManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(BufManager.class);
+    public static final long HEAP_BUDGET_BYTES = Long.getLong("dvim.bufBudgetBytes", 64L * 1024 * 1024);
+    public static final Path DEFAULT_CACHE_DIR = Path.of(System.getProperty("user.home"), ".cache", "dvim", "bufcache");
+    private static final long LINE_OVERHEAD_BYTES = 64;
+    private final long budgetBytes;
+    private final Path cacheDir;
+    private final Path sessionDir;
+    private final List<Path> paths = new ArrayList<>();
+    private final Map<Path, Entry> entries = new HashMap<>();
+    //Access ordered, so iteration starts at the least recently used.
+    private final LinkedHashMap<Path, Entry> resident = new LinkedHashMap<>(16, 0.75f, true);
+    private long residentBytes = 0;
+    private int currentIndex = -1;
+
+    private static final class Entry {
+
+        private final Path path;
+        private final int bufNo;
+        private Buf buf;
+        private long bytes;
+        //Hash of what the buf was read from, the file or its cache file.
+        private long loadedHash;
+        //Hash of the file itself as last read or written.
+        private long fileHash;
+        private Path cached;
+        private int pins;
+
+        private Entry(Path path, int bufNo) {
+            this.path = path;
+            this.bufNo = bufNo;
+        }
+    }
+
+    public BufManager() {
+        this(HEAP_BUDGET_BYTES, DEFAULT_CACHE_DIR);
+    }
+
+    public BufManager(long budgetBytes, Path cacheDir) {
+        this.budgetBytes = budgetBytes;
+        this.cacheDir = cacheDir;
+        this.sessionDir = cacheDir.resolve(Long.toString(ProcessHandle.current().pid()));
+        cleanCache();
+    }
+
+    /**
+     * Adds the file without reading it.
+     */
+    public synchronized void register(Path path) {
+        Path key = path.toAbsolutePath().normalize();
+        if (!entries.containsKey(key)) {
+            entries.put(key, new Entry(key, paths.size()));
+            paths.add(key);
+        }
+    }
+
+    public synchronized List<Path> getPaths() {
+        return List.copyOf(paths);
+    }
+
+    public synchronized int size() {
+        return paths.size();
+    }
+
+    public synchronized boolean isResident(Path path) {
+        Entry entry = entries.get(path.toAbsolutePath().normalize());
+        return entry != null && entry.buf != null;
+    }
+
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    /**
+     * The buffer for a registered file, read in if it isn't resident. Null if the file was never registered.
+     * It stays pinned on the heap until {@link #release(Path)} is called as often as it was handed out.
+     */
+    public synchronized Buf get(Path path) {
+        Entry entry = entries.get(path.toAbsolutePath().normalize());
+        if (entry == null) {
+            return null;
+        }
+        entry.pins++;
+        if (entry.buf == null) {
+            load(entry);
+        }
+        resident.get(entry.path);//marks it most recently used
+        return entry.buf;
+    }
+
+    /**
+     * Done with a buffer from {@link #get(Path)}, it can be evicted again once no one else holds it.
+     */
+    public synchronized void release(Path path) {
+        Entry entry = entries.get(path.toAbsolutePath().normalize());
+        if (entry != null && entry.pins > 0) {
+            entry.pins--;
+            evict(null);
+        }
+    }
+
+    /**
+     * The buffer being cycled through, pinned until next or prev moves off it.
+     */
+    public synchronized Buf current() {
+        if (paths.isEmpty()) {
+            return null;
+        }
+        if (currentIndex == -1) {
+            currentIndex = 0;
+            return get(paths.get(currentIndex));
+        }
+        //Pinned since it became current, so still resident.
+        Entry entry = resident.get(paths.get(currentIndex));
+        return entry.buf;
+    }
+
+    /**
+     * The path of the buffer being cycled through, null before {@link #current()} is first called.
+     */
+    public synchronized Path getCurrentPath() {
+        return (currentIndex == -1) ? null : paths.get(currentIndex);
+    }
+
+    public synchronized Buf next() {
+        if (paths.isEmpty()) {
+            return null;
+        }
+        return moveTo((currentIndex + 1) % paths.size());
+    }
+
+    public synchronized Buf prev() {
+        if (paths.isEmpty()) {
+            return null;
+        }
+        return moveTo((Math.max(currentIndex, 0) - 1 + paths.size()) % paths.size());
+    }
+
+    private Buf moveTo(int index) {
+        Path previous = (currentIndex == -1) ? null : paths.get(currentIndex);
+        currentIndex = index;
+        Buf buf = get(paths.get(index));
+        if (previous != null) {
+            release(previous);
+        }
+        return buf;
+    }
+
+    /**
+     * Writes every buffer with changes back to its file, resident or cached, and drops the cache files.
+     */
+    public synchronized void saveAll() throws IOException {
+        for (Entry entry : entries.values()) {
+            List<Line> lines = (entry.buf != null) ? entry.buf.getLinesDangerous()
+                    : (entry.cached != null) ? PathHelper.readFile(entry.cached) : null;
+            if (lines == null) {
+                continue;
+            }
+            long hash = ContentHash.of(lines);
+            if (hash != entry.fileHash) {
+                FileSaver.write(entry.path, lines);
+                entry.fileHash = hash;
+            }
+            entry.loadedHash = hash;
+            dropCached(entry);
+        }
+    }
+
+    /**
+     * Deletes this session's cache files, changes that weren't saved with {@link #saveAll()} go with them.
+     */
+    public synchronized void close() {
+        for (Entry entry : entries.values()) {
+            dropCached(entry);
+        }
+        deleteDir(sessionDir);
+    }
+
+    private void load(Entry entry) {
+        List<Line> lines = PathHelper.readFile((entry.cached != null) ? entry.cached : entry.path);
+        Buf buf = new Buf(entry.path.toString(), entry.path.toString(), entry.bufNo, null);
+        buf.setLines(lines, 0);
+        entry.buf = buf;
+        entry.bytes = estimateBytes(lines);
+        entry.loadedHash = ContentHash.of(lines);
+        if (entry.cached == null) {
+            entry.fileHash = entry.loadedHash;
+        }
+        resident.put(entry.path, entry);
+        residentBytes += entry.bytes;
+        evict(entry);
+    }
+
+    /**
+     * Evicts least recently used buffers until under budget, never keep itself or anything still handed out.
+     */
+    private void evict(Entry keep) {
+        Iterator<Entry> lru = resident.values().iterator();
+        while (residentBytes > budgetBytes && lru.hasNext()) {
+            Entry entry = lru.next();
+            if (entry == keep || entry.pins > 0) {
+                continue;
+            }
+            try {
+                spill(entry);
+            } catch (IOException e) {
+                logger.error("Failed to cache " + entry.path + ", keeping it on the heap", e);
+                continue;
+            }
+            lru.remove();
+            residentBytes -= entry.bytes;
+            entry.buf = null;
+        }
+    }
+
+    /**
+     * Writes the lines to the cache file if they changed since they were read, so they can be let go of.
+     */
+    private void spill(Entry entry) throws IOException {
+        List<Line> lines = entry.buf.getLinesDangerous();
+        if (ContentHash.of(lines) == entry.loadedHash) {
+            return;//the file or cache file it was read from still holds it
+        }
+        Files.createDirectories(sessionDir);
+        Path cached = sessionDir.resolve(entry.path.getFileName() + "-" + PathHelper.cacheKey(entry.path) + ".buf");
+        FileSaver.write(cached, lines);
+        entry.cached = cached;
+    }
+
+    private void dropCached(Entry entry) {
+        if (entry.cached == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(entry.cached);
+            entry.cached = null;
+        } catch (IOException e) {
+            logger.warn("Failed to delete cache file " + entry.cached, e);
+        }
+    }
+
+    /**
+     * Deletes the cache directories of sessions that are no longer running, and cache files from before
+     * there were session directories.
+     */
+    private void cleanCache() {
+        if (!Files.isDirectory(cacheDir)) {
+            return;
+        }
+        try (Stream<Path> cached = Files.list(cacheDir)) {
+            for (Path path : cached.toList()) {
+                if (Files.isDirectory(path) && !isRunning(path.getFileName().toString())) {
+                    deleteDir(path);
+                } else if (path.getFileName().toString().endsWith(".buf")) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to clean " + cacheDir, e);
+        }
+    }
+
+    private static boolean isRunning(String pid) {
+        try {
+            return ProcessHandle.of(Long.parseLong(pid)).map(ProcessHandle::isAlive).orElse(false);
+        } catch (NumberFormatException e) {
+            return true;//not one of ours, leave it be
+        }
+    }
+
+    private static void deleteDir(Path dir) {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to delete " + dir, e);
+        }
+    }
+
+    private static long estimateBytes(List<Line> lines) {
+        long bytes = 0;
+        for (Line line : lines) {
+            bytes += LINE_OVERHEAD_BYTES + line.length();
+        }
+        return bytes;
+    }
+}
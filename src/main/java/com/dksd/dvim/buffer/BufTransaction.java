@@ -0,0 +1,119 @@
+package com.dksd.dvim.buffer;
+
+import com.dksd.dvim.internalbuf.InternalBuf;
+import com.dksd.dvim.view.Line;
+
+import java.util.List;
+
+/**
+ * The mutations made inside {@link Buf#edit}. Tracks the rows it touched so the buffer
+ * can post a single change event for the lot once the transaction is done.
+ */
+public class BufTransaction {
+
+    private final InternalBuf lines;
+    private int fromRow = Integer.MAX_VALUE;
+    private int toRow = -1;
+    private boolean shifted = false;
+
+    BufTransaction(InternalBuf lines) {
+        this.lines = lines;
+    }
+
+    public int size() {
+        return lines.size();
+    }
+
+    public Line get(int row) {
+        return lines.get(row);
+    }
+
+    public void set(int row, String content) {
+        Line old = lines.get(row);
+        set(row, Line.of(content, (old == null) ? null : old.getIndicatorStr()));
+    }
+
+    public void set(int row, Line line) {
+        if (row == lines.size()) {
+            insert(row, line);
+            return;
+        }
+        lines.set(row, line);
+        touched(row, row + 1);
+    }
+
+    public void insert(int row, String content) {
+        insert(row, Line.of(content, null));
+    }
+
+    public void insert(int row, Line line) {
+        lines.insert(row, line);
+        touched(row, row + 1);
+        shifted = true;
+    }
+
+    public void append(String content) {
+        insert(lines.size(), content);
+    }
+
+    public void remove(int row) {
+        lines.remove(row);
+        touched(row, row);
+        shifted = true;
+    }
+
+    public void insertAll(int row, List<Line> newLines) {
+        lines.insertAll(row, newLines);
+        touched(row, row + newLines.size());
+        shifted = true;
+    }
+
+    /**
+     * Removes rows [from, to), to is clamped to the size of the buffer.
+     */
+    public void removeRange(int from, int to) {
+        int end = Math.min(to, lines.size());
+        if (from >= end) {
+            return;
+        }
+        lines.removeRange(from, end);
+        touched(from, from);
+        shifted = true;
+    }
+
+    /**
+     * Replaces rows [from, to) with newLines, to is clamped to the size of the buffer.
+     */
+    public void replaceRange(int from, int to, List<Line> newLines) {
+        int end = Math.min(to, lines.size());
+        lines.replaceRange(from, end, newLines);
+        touched(from, from + newLines.size());
+        shifted |= end - from != newLines.size();
+    }
+
+    public void setAll(List<Line> newLines) {
+        lines.setAll(newLines);
+        touched(0, newLines.size());
+        shifted = true;
+    }
+
+    boolean isChanged() {
+        return toRow >= 0;
+    }
+
+    int getFromRow() {
+        return fromRow;
+    }
+
+    /**
+     * Rows after an insert or remove have all moved, so the range runs to the end of the buffer.
+     */
+    int getToRow() {
+        return shifted ? lines.size() : toRow;
+    }
+
+    private void touched(int from, int to) {
+        fromRow = Math.min(fromRow, from);
+        toRow = Math.max(toRow, to);
+    }
+}
@@ -16,5 +16,8 @@ public enum BufferMode {
     TOP_BORDER,
     RIGHT_BORDER,
     BOT_BORDER,
-    POP_OVER, NO_GUTTER, SINGLE_LINE, ALLOW_UNDO, NORMAL
+    POP_OVER, NO_GUTTER, SINGLE_LINE, ALLOW_UNDO, NORMAL,
+    PIECE_TABLE,
+    COMPACT,
+    TRIGRAM_INDEX
 }
@@ -0,0 +1,129 @@
+package com.dksd.dvim.buffer;
+
+import com.dksd.dvim.view.Line;
+
+/**
+ * The line being typed into, held as chars with a gap at the cursor. Inserting or deleting at the gap
+ * only moves chars when the cursor jumps, and nothing is allocated unless the line outgrows the array.
+ * The text goes back into the buffer as a new Line when {@link #toLine()} is called.
+ */
+class LineGapBuffer {
+
+    private static final int MIN_CAPACITY = 64;
+    private char[] chars = new char[MIN_CAPACITY];
+    private int gapStart = 0;
+    private int gapEnd = MIN_CAPACITY;
+    private int row = -1;
+    private Line original;
+    private boolean changed;
+
+    void load(int row, Line line) {
+        this.row = row;
+        this.original = line;
+        String content = line.getContent();
+        if (content.length() > chars.length) {
+            chars = new char[content.length() * 2];
+        }
+        content.getChars(0, content.length(), chars, 0);
+        gapStart = content.length();
+        gapEnd = chars.length;
+        changed = false;
+    }
+
+    boolean isLoaded() {
+        return row >= 0;
+    }
+
+    /**
+     * Whether anything was typed or deleted since the line was loaded.
+     */
+    boolean isChanged() {
+        return isLoaded() && changed;
+    }
+
+    int getRow() {
+        return row;
+    }
+
+    int length() {
+        return chars.length - (gapEnd - gapStart);
+    }
+
+    void insert(int col, CharSequence str) {
+        ensureCapacity(length() + str.length());
+        moveGap(col);
+        changed |= str.length() > 0;
+        for (int i = 0; i < str.length(); i++) {
+            chars[gapStart++] = str.charAt(i);
+        }
+    }
+
+    /**
+     * Deletes count chars from col onwards.
+     */
+    void delete(int col, int count) {
+        moveGap(col);
+        changed |= count > 0;
+        gapEnd += count;
+    }
+
+    /**
+     * Copies the line as it is now into dest, which has to hold at least {@link #length()} chars.
+     * The buffer stays loaded.
+     */
+    void getChars(char[] dest) {
+        System.arraycopy(chars, 0, dest, 0, gapStart);
+        System.arraycopy(chars, gapEnd, dest, gapStart, chars.length - gapEnd);
+    }
+
+    /**
+     * The line that was loaded, for its indicator and ghost text.
+     */
+    Line getOriginal() {
+        return original;
+    }
+
+    /**
+     * The line as it is now, keeping the indicator and ghost text of the line that was loaded.
+     * The buffer is left unloaded.
+     */
+    Line toLine() {
+        moveGap(length());
+        Line line = Line.of(new String(chars, 0, gapStart), original.getIndicatorStr());
+        line.setGhostContent(original.getGhostContent());
+        row = -1;
+        original = null;
+        return line;
+    }
+
+    void discard() {
+        row = -1;
+        original = null;
+    }
+
+    private void moveGap(int col) {
+        if (col < gapStart) {
+            int count = gapStart - col;
+            System.arraycopy(chars, col, chars, gapEnd - count, count);
+            gapStart -= count;
+            gapEnd -= count;
+        } else if (col > gapStart) {
+            int count = col - gapStart;
+            System.arraycopy(chars, gapEnd, chars, gapStart, count);
+            gapStart += count;
+            gapEnd += count;
+        }
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= chars.length) {
+            return;
+        }
+        int tail = chars.length - gapEnd;
+        char[] grown = new char[Math.max(needed, chars.length * 2)];
+        System.arraycopy(chars, 0, grown, 0, gapStart);
+        System.arraycopy(chars, gapEnd, grown, grown.length - tail, tail);
+        gapEnd = grown.length - tail;
+        chars = grown;
+    }
+}
@@ -82,7 +82,7 @@ public class TabCompletion {
                 List<Line> suggestedLines = new ArrayList<>(10);
                 for (int i = 0; i < foundNodes.size(); i++) {
                     TrieNode tn = foundNodes.get(i);
-                    suggestedLines.add(new Line(i, tn.getContent(), null));
+                    suggestedLines.add(new Line(tn.getContent(), null));
                 }
                 tabBuf.setLines(suggestedLines, 15);
             }
@@ -24,6 +24,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.stream.IntStream;
 
 /**
  * Telescope – a tiny, self‑contained UI that shows a list of options,
@@ -71,8 +72,12 @@ public final class Telescope<T> {
     private Buf resultsBuf;
     private int inputBufNo;
     private List<Result> results;
+    //Version of the input buf the results were matched at, several events can arrive for the same edit.
+    private long matchedVersion = -1;
+    //Index into options of each row of the results buf.
+    private volatile int[] resultOptionIndexes = new int[0];
     private final List<VimListener> teleListenersToTrack = new CopyOnWriteArrayList<>();
-    private final static List<EventType> bufChanges = List.of(EventType.BUF_CHANGE_ADD, EventType.BUF_CHANGE_REMOVE, EventType.BUF_CHANGE_INSERT);
+    private final static List<EventType> bufChanges = List.of(EventType.BUF_CHANGE_ADD, EventType.BUF_CHANGE_REMOVE, EventType.BUF_CHANGE_INSERT, EventType.BUF_CHANGE);
 
     public Telescope(VimEng vimEng) {
         this.vimEng = vimEng;
@@ -112,6 +117,7 @@ public final class Telescope<T> {
         initViewsAndBuffers();
 
         // 2️⃣  Populate the results buffer with the raw options
+        resultOptionIndexes = IntStream.range(0, optionStrs.size()).toArray();
         resultsBuf.setLines(Line.convert(optionStrs), 0);
         moveArrowInResults(resultsBuf, 0, ROW_INDICATOR);
         
@@ -145,6 +151,7 @@ public final class Telescope<T> {
 
         inputBuf   = telescopeView.getBuffer(inputBufNo);
         resultsBuf = telescopeView.getMainBuffer();
+        matchedVersion = -1;
 
         // 3️⃣  Initialise UI state (arrow on first line, focus input)
         telescopeView.setActiveBuf(inputBufNo);
@@ -180,8 +187,7 @@ public final class Telescope<T> {
                     moveArrowInResults(resultsBuf, -1, ROW_INDICATOR);
                     if (options.getFirst() instanceof Path) {
                         List<Line> fileContents = PathHelper.readFile(Path.of(getResultsBuf().getCurrentLine().getContent()));
-                        inputBuf.removeLines(15, -1);
-                        inputBuf.setLines(fileContents, 15);
+                        inputBuf.replaceLinesFrom(15, fileContents);
                     }
                     return null;
                 },
@@ -193,8 +199,7 @@ public final class Telescope<T> {
                     moveArrowInResults(resultsBuf, 1, ROW_INDICATOR);
                     if (options.getFirst() instanceof Path) {
                         List<Line> fileContents = PathHelper.readFile(Path.of(getResultsBuf().getCurrentLine().getContent()));
-                        inputBuf.removeLines(15, -1);
-                        inputBuf.setLines(fileContents, 15);
+                        inputBuf.replaceLinesFrom(15, fileContents);
                     }
                     return null;
                 }, true);
@@ -235,9 +240,9 @@ public final class Telescope<T> {
                                           int rowDelta,
                                           String rowIndicator) {
         if (resultsBuf.getCurrentLine() != null) {
-            resultsBuf.getCurrentLine().setIndicatorStr(null);
+            resultsBuf.setIndicator(resultsBuf.getRow(), null);
             resultsBuf.addToRow(rowDelta);
-            resultsBuf.getCurrentLine().setIndicatorStr(rowIndicator);
+            resultsBuf.setIndicator(resultsBuf.getRow(), rowIndicator);
         }
     }
 
@@ -247,13 +252,21 @@ public final class Telescope<T> {
                                               FuzzyMatcherV1 fuzzyMatcher,
                                               Buf results) {
         if (vimEvent.getBufNo() == inputBufNo && isBufChangeEvent(vimEvent)) {
+            long version = input.getVersion();
+            if (version == matchedVersion && this.results != null) {
+                return this.results;
+            }
+            matchedVersion = version;
             String currLine = input.getLine(input.getRow()).getContent();
             System.out.println("Received buf change event for buf: " + inputBufNo + " value " + currLine);
             List<Result> keptLines = fuzzyMatcher.match(currLine);
             List<Line> keptLinesForBuf = new ArrayList<>(keptLines.size());
-            for (Result keptLine : keptLines) {
-                keptLinesForBuf.add(Line.of(keptLine.getItemIndex(), keptLine.getText(), null));
+            int[] optionIndexes = new int[keptLines.size()];
+            for (int i = 0; i < keptLines.size(); i++) {
+                keptLinesForBuf.add(Line.of(keptLines.get(i).getText(), null));
+                optionIndexes[i] = keptLines.get(i).getItemIndex();
             }
+            resultOptionIndexes = optionIndexes;
             results.setLines(keptLinesForBuf, 0);
             moveArrowInResults(resultsBuf, 0, ROW_INDICATOR);
             return keptLines;
@@ -308,6 +321,15 @@ public final class Telescope<T> {
         this.optionToStrFunc = optionToStrFunc;
     }
 
+    /**
+     * Index into the options of the selected result, or -1 if there isn't one.
+     */
+    public int getSelectedOptionIndex() {
+        int[] optionIndexes = resultOptionIndexes;
+        int row = getResultsBuf().getRow();
+        return (row < optionIndexes.length) ? optionIndexes[row] : -1;
+    }
+
     public Line getEitherResult() {
         Line selected = getResultsBuf().getCurrentLine();
         selected = (!selected.isEmpty()) ? selected : getInputBuf().getCurrentLine();
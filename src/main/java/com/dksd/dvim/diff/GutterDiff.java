@@ -0,0 +1,181 @@
+package com.dksd.dvim.diff;
+
+import com.dksd.dvim.internalbuf.BufSnapshot;
+import com.dksd.dvim.internalbuf.EditOp;
+import com.dksd.dvim.internalbuf.LineChange;
+import com.dksd.dvim.internalbuf.LineRope;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Added, changed and deleted markers for the gutter, from diffing a buffer against the contents it was loaded
+ * or last saved with. Only the regions where the two ropes no longer share chunks ({@link LineRope#changesSince})
+ * are diffed, each with {@link LineDiff#histogram}, so a keystroke in a big file diffs a line or two.
+ * Updates run on a virtual thread {@link #DEBOUNCE_MS} after the last change and swap the markers in whole,
+ * the renderer only reads them.
+ */
+public class GutterDiff {
+
+    public static final long DEBOUNCE_MS = Long.getLong("dvim.gutterDiffDebounceMs", 50);
+    //So a key held down still sees the markers move every few debounces.
+    private static final int MAX_DEBOUNCES = 4;
+    private static final Marks NO_MARKS = new Marks(new int[0], new int[0], new Mark[0]);
+    private final Supplier<BufSnapshot> snapshots;
+    private final Runnable onUpdate;
+    private volatile LineRope base;
+    private volatile Marks marks = NO_MARKS;
+    private volatile long version = 0;
+    private final AtomicBoolean updating = new AtomicBoolean();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    public enum Mark {
+        ADDED('+'), CHANGED('~'), DELETED('_');
+
+        private final char symbol;
+
+        Mark(char symbol) {
+            this.symbol = symbol;
+        }
+
+        public char getSymbol() {
+            return symbol;
+        }
+    }
+
+    //Rows [starts[i], ends[i]) carry kinds[i], sorted and not overlapping.
+    private record Marks(int[] starts, int[] ends, Mark[] kinds) {
+    }
+
+    public GutterDiff(Supplier<BufSnapshot> snapshots) {
+        this(snapshots, () -> {
+            //noop
+        });
+    }
+
+    /**
+     * @param onUpdate told each time the markers are replaced, on the updating thread
+     */
+    public GutterDiff(Supplier<BufSnapshot> snapshots, Runnable onUpdate) {
+        this.snapshots = snapshots;
+        this.onUpdate = onUpdate;
+    }
+
+    /**
+     * The contents markers are relative to, what is on disk.
+     */
+    public void setBase(LineRope base) {
+        this.base = base;
+        bufferChanged();
+    }
+
+    /**
+     * The marker for row, or null if it is the same as on disk.
+     */
+    public Mark markAt(int row) {
+        Marks current = marks;
+        int found = Arrays.binarySearch(current.starts(), row);
+        int index = (found >= 0) ? found : -found - 2;
+        return (index >= 0 && row < current.ends()[index]) ? current.kinds()[index] : null;
+    }
+
+    /**
+     * Goes up each time the markers are replaced, so the renderer can tell they haven't moved without reading them.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Called when the buffer changes, calls while an update is waiting or running fold into one more.
+     */
+    public void bufferChanged() {
+        if (base == null) {
+            return;
+        }
+        dirty.set(true);
+        if (!updating.compareAndSet(false, true)) {
+            return;
+        }
+        Thread.ofVirtual().name("gutter-diff").start(() -> {
+            try {
+                while (dirty.get()) {
+                    //Wait for typing to pause, every change in the meantime is picked up by the one update.
+                    int debounces = 0;
+                    do {
+                        dirty.set(false);
+                        LockSupport.parkNanos(DEBOUNCE_MS * 1_000_000);
+                    } while (dirty.get() && ++debounces < MAX_DEBOUNCES);
+                    update();
+                }
+            } finally {
+                updating.set(false);
+            }
+            if (dirty.get()) {
+                bufferChanged();
+            }
+        });
+    }
+
+    void update() {
+        LineRope from = base;
+        if (from == null || !(snapshots.get().lines() instanceof LineRope rope)) {
+            return;
+        }
+        MarksBuilder builder = new MarksBuilder();
+        int shift = 0;
+        for (LineChange region : rope.changesSince(from)) {
+            int oldRow = region.row() - shift;
+            List<String> removed = EditOp.contents(from.subList(oldRow, oldRow + region.removed()));
+            for (LineChange hunk : LineDiff.histogram(removed, region.inserted())) {
+                int row = region.row() + hunk.row();
+                int added = hunk.inserted().size();
+                if (hunk.removed() == 0) {
+                    builder.add(row, row + added, Mark.ADDED);
+                } else if (added == 0) {
+                    //Marked on the line that took their place, or the last line if they were at the end.
+                    int at = Math.max(0, Math.min(row, rope.size() - 1));
+                    builder.add(at, at + 1, Mark.DELETED);
+                } else {
+                    builder.add(row, row + added, Mark.CHANGED);
+                }
+            }
+            shift += region.inserted().size() - region.removed();
+        }
+        marks = builder.build();
+        version++;//only ever the one update running
+        onUpdate.run();
+    }
+
+    private static final class MarksBuilder {
+
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private Mark[] kinds = new Mark[16];
+        private int count = 0;
+
+        void add(int start, int end, Mark kind) {
+            if (count > 0 && start < ends[count - 1]) {
+                start = ends[count - 1];//a deletion marker landing on a line already marked
+                if (start >= end) {
+                    return;
+                }
+            }
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+                kinds = Arrays.copyOf(kinds, count * 2);
+            }
+            starts[count] = start;
+            ends[count] = end;
+            kinds[count++] = kind;
+        }
+
+        Marks build() {
+            return new Marks(Arrays.copyOf(starts, count), Arrays.copyOf(ends, count), Arrays.copyOf(kinds, count));
+        }
+    }
+}
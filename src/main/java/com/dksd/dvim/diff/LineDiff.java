@@ -0,0 +1,228 @@
+package com.dksd.dvim.diff;
+
+import com.dksd.dvim.internalbuf.LineChange;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Line diffs, with Myers' O(ND) algorithm or the histogram diff git uses. The common head and tail are trimmed
+ * first and the rest of the lines are numbered by content so the search only compares ints. The result is the
+ * hunks that turn before into after, as {@link LineChange}s made one after the other from the top.
+ * Past {@link #MAX_EDIT_DISTANCE} Myers gives up and everything between the head and tail is one hunk.
+ */
+public final class LineDiff {
+
+    public static final int MAX_EDIT_DISTANCE = Integer.getInteger("dvim.diffMaxEdits", 1000);
+    //Lines more common than this on the old side aren't worth splitting a histogram diff on.
+    private static final int MAX_OCCURRENCES = 64;
+
+    private LineDiff() {
+    }
+
+    /**
+     * A shortest edit script.
+     */
+    public static List<LineChange> diff(List<String> before, List<String> after) {
+        return diff(before, after, false);
+    }
+
+    /**
+     * Splits on the line that occurs least often and works outwards from there, so hunks follow the
+     * lines that are unique to the code, like braces not being matched up across functions.
+     */
+    public static List<LineChange> histogram(List<String> before, List<String> after) {
+        return diff(before, after, true);
+    }
+
+    private static List<LineChange> diff(List<String> before, List<String> after, boolean histogram) {
+        int head = 0;
+        int limit = Math.min(before.size(), after.size());
+        while (head < limit && before.get(head).equals(after.get(head))) {
+            head++;
+        }
+        int beforeEnd = before.size();
+        int afterEnd = after.size();
+        while (beforeEnd > head && afterEnd > head && before.get(beforeEnd - 1).equals(after.get(afterEnd - 1))) {
+            beforeEnd--;
+            afterEnd--;
+        }
+        Map<String, Integer> ids = new HashMap<>();
+        int[] a = number(before.subList(head, beforeEnd), ids);
+        int[] b = number(after.subList(head, afterEnd), ids);
+        int[] matches = histogram ? histogram(a, b) : myers(a, b);
+        List<LineChange> changes = new ArrayList<>();
+        if (matches == null) {
+            addChange(changes, after, head, a.length, head, afterEnd);
+            return changes;
+        }
+        //matches holds the matched (x, y) pairs in order, hunks are the gaps between them.
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i <= matches.length; i += 2) {
+            int matchX = (i < matches.length) ? matches[i] : a.length;
+            int matchY = (i < matches.length) ? matches[i + 1] : b.length;
+            if (matchX > x || matchY > y) {
+                addChange(changes, after, head + y, matchX - x, head + y, head + matchY);
+            }
+            x = matchX + 1;
+            y = matchY + 1;
+        }
+        return changes;
+    }
+
+    private static void addChange(List<LineChange> changes, List<String> after, int row, int removed, int from, int to) {
+        if (removed > 0 || to > from) {
+            changes.add(new LineChange(row, removed, List.copyOf(after.subList(from, to))));
+        }
+    }
+
+    private static int[] number(List<String> lines, Map<String, Integer> ids) {
+        int[] numbered = new int[lines.size()];
+        for (int i = 0; i < numbered.length; i++) {
+            numbered[i] = ids.computeIfAbsent(lines.get(i), line -> ids.size());
+        }
+        return numbered;
+    }
+
+    /**
+     * The matched line pairs of a shortest edit script as x0, y0, x1, y1... or null if it needs more
+     * than {@link #MAX_EDIT_DISTANCE} edits. Only the band of diagonals reached at each step is kept
+     * for the walk back, so memory goes with the square of the edit distance rather than the file.
+     */
+    private static int[] myers(int[] a, int[] b) {
+        int n = a.length;
+        int m = b.length;
+        int maxD = Math.min(n + m, MAX_EDIT_DISTANCE);
+        int offset = maxD + 1;
+        int[] v = new int[2 * maxD + 3];
+        List<int[]> trace = new ArrayList<>();
+        for (int d = 0; d <= maxD; d++) {
+            trace.add(Arrays.copyOfRange(v, offset - d, offset + d + 1));
+            for (int k = -d; k <= d; k += 2) {
+                int x = (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1]))
+                        ? v[offset + k + 1] : v[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[x] == b[y]) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    return walkBack(trace, n, m);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Matched pairs like {@link #myers}, worked through with a stack of regions rather than recursion so a
+     * file of unique lines can't run out of stack. A region with nothing rare enough to split on goes to Myers.
+     */
+    private static int[] histogram(int[] a, int[] b) {
+        long[] matches = new long[16];
+        int count = 0;
+        ArrayDeque<int[]> regions = new ArrayDeque<>();
+        regions.push(new int[]{0, a.length, 0, b.length});
+        while (!regions.isEmpty()) {
+            int[] region = regions.pop();
+            int aLo = region[0];
+            int aHi = region[1];
+            int bLo = region[2];
+            int bHi = region[3];
+            if (aLo == aHi || bLo == bHi) {
+                continue;
+            }
+            Map<Integer, Integer> occurrences = new HashMap<>();
+            for (int i = aLo; i < aHi; i++) {
+                occurrences.merge(a[i], 1, Integer::sum);
+            }
+            int split = -1;
+            int fewest = MAX_OCCURRENCES + 1;
+            for (int j = bLo; j < bHi; j++) {
+                Integer seen = occurrences.get(b[j]);
+                if (seen != null && seen < fewest) {
+                    fewest = seen;
+                    split = j;
+                }
+            }
+            if (split < 0) {
+                int[] fallback = myers(Arrays.copyOfRange(a, aLo, aHi), Arrays.copyOfRange(b, bLo, bHi));
+                if (fallback != null) {
+                    for (int i = 0; i < fallback.length; i += 2) {
+                        if (count == matches.length) {
+                            matches = Arrays.copyOf(matches, count * 2);
+                        }
+                        matches[count++] = ((long) (aLo + fallback[i]) << 32) | (bLo + fallback[i + 1]);
+                    }
+                }
+                continue;
+            }
+            int start = aLo;
+            while (a[start] != b[split]) {
+                start++;
+            }
+            //Grow the match both ways while the lines keep agreeing.
+            int matchStart = split;
+            while (start > aLo && matchStart > bLo && a[start - 1] == b[matchStart - 1]) {
+                start--;
+                matchStart--;
+            }
+            int end = start;
+            int matchEnd = matchStart;
+            while (end < aHi && matchEnd < bHi && a[end] == b[matchEnd]) {
+                if (count == matches.length) {
+                    matches = Arrays.copyOf(matches, count * 2);
+                }
+                matches[count++] = ((long) end++ << 32) | matchEnd++;
+            }
+            regions.push(new int[]{aLo, start, bLo, matchStart});
+            regions.push(new int[]{end, aHi, matchEnd, bHi});
+        }
+        //Regions never overlap, so sorted on the old side the pairs are in order on the new side too.
+        Arrays.sort(matches, 0, count);
+        int[] ordered = new int[count * 2];
+        for (int i = 0; i < count; i++) {
+            ordered[i * 2] = (int) (matches[i] >>> 32);
+            ordered[i * 2 + 1] = (int) matches[i];
+        }
+        return ordered;
+    }
+
+    private static int[] walkBack(List<int[]> trace, int n, int m) {
+        int[] matches = new int[2 * Math.min(n, m)];
+        int count = 0;
+        int x = n;
+        int y = m;
+        for (int d = trace.size() - 1; d >= 0; d--) {
+            int[] band = trace.get(d);
+            int k = x - y;
+            int prevX = 0;
+            int prevY = 0;
+            if (d > 0) {
+                int prevK = (k == -d || (k != d && band[k - 1 + d] < band[k + 1 + d])) ? k + 1 : k - 1;
+                prevX = band[prevK + d];
+                prevY = prevX - prevK;
+            }
+            //Back down the snake, every step of it is a matched line.
+            while (x > prevX && y > prevY) {
+                x--;
+                y--;
+                matches[count++] = y;
+                matches[count++] = x;
+            }
+            x = prevX;
+            y = prevY;
+        }
+        int[] ordered = new int[count];
+        for (int i = 0; i < count; i++) {
+            ordered[i] = matches[count - 1 - i];
+        }
+        return ordered;
+    }
+}
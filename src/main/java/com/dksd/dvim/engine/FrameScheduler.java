@@ -0,0 +1,84 @@
+package com.dksd.dvim.engine;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * Draws a frame when something asks for one rather than on a timer. Requests that arrive while a frame is
+ * waiting or being drawn fold into one more frame, and frames are at least 1/{@link #MAX_FPS} of a second
+ * apart. A request after a quiet spell is drawn straight away and with nothing asked for no thread is running.
+ */
+public class FrameScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(FrameScheduler.class);
+    public static final long MAX_FPS = Long.getLong("dvim.maxFps", 120);
+    private final Runnable frame;
+    private final long frameNanos;
+    private final LongSupplier nanoClock;
+    private final AtomicBoolean drawing = new AtomicBoolean();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final AtomicLong frames = new AtomicLong();
+    private volatile long lastFrameAt;
+
+    public FrameScheduler(Runnable frame) {
+        this(frame, MAX_FPS);
+    }
+
+    public FrameScheduler(Runnable frame, long maxFps) {
+        this(frame, maxFps, System::nanoTime);
+    }
+
+    /**
+     * @param nanoClock what frames are spaced by, System.nanoTime outside of tests
+     */
+    public FrameScheduler(Runnable frame, long maxFps, LongSupplier nanoClock) {
+        this.frame = frame;
+        this.frameNanos = 1_000_000_000L / Math.max(1, maxFps);
+        this.nanoClock = nanoClock;
+        this.lastFrameAt = nanoClock.getAsLong() - frameNanos;
+    }
+
+    /**
+     * Called after anything that changes what is on screen: edits, cursor moves, mode changes, popups.
+     */
+    public void requestFrame() {
+        dirty.set(true);
+        if (!drawing.compareAndSet(false, true)) {
+            return;
+        }
+        Thread.ofVirtual().name("frame").start(() -> {
+            try {
+                while (dirty.get()) {
+                    long wait = lastFrameAt + frameNanos - nanoClock.getAsLong();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                        continue;
+                    }
+                    //Cleared before drawing so a change made during the frame gets one of its own.
+                    dirty.set(false);
+                    try {
+                        frame.run();
+                    } catch (RuntimeException e) {
+                        logger.error("Frame failed", e);
+                    }
+                    lastFrameAt = nanoClock.getAsLong();
+                    frames.incrementAndGet();
+                }
+            } finally {
+                drawing.set(false);
+            }
+            if (dirty.get()) {
+                requestFrame();
+            }
+        });
+    }
+
+    public long getFrameCount() {
+        return frames.get();
+    }
+}
@@ -1,14 +1,19 @@
 package com.dksd.dvim.engine;
 
 import com.dksd.dvim.buffer.Buf;
+import com.dksd.dvim.complete.Telescope;
 import com.dksd.dvim.event.EventType;
 import com.dksd.dvim.event.VimEvent;
 import com.dksd.dvim.event.VimListener;
 import com.dksd.dvim.mapping.KeyMappingMatcher;
 import com.dksd.dvim.mapping.trie.TrieMapManager;
-import com.dksd.dvim.utils.PathHelper;
+import com.dksd.dvim.search.Match;
+import com.dksd.dvim.search.SearchPattern;
+import com.dksd.dvim.utils.FileSaver;
+import com.dksd.dvim.utils.FileWatcher;
 import com.dksd.dvim.utils.SFormatter;
 import com.dksd.dvim.view.Line;
+import com.dksd.dvim.view.Renderer;
 import com.dksd.dvim.view.View;
 import com.dksd.dvim.view.VimMode;
 import com.googlecode.lanterna.input.KeyStroke;
@@ -16,6 +21,7 @@ import com.googlecode.lanterna.screen.TerminalScreen;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -26,12 +32,11 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.regex.PatternSyntaxException;
 
 public class VimEng {
     private Logger logger = LoggerFactory.getLogger(VimEng.class);
@@ -43,9 +48,15 @@ public class VimEng {
     public static final BlockingQueue<VimEvent> events = new LinkedBlockingQueue<>();
     private final List<VimListener> eventListeners = new CopyOnWriteArrayList<>();
     private final CopyOnWriteArrayList<Consumer<VimEng>> backgroundTasks = new CopyOnWriteArrayList<>();
+    private final CopyOnWriteArrayList<Consumer<VimEng>> saveAllTasks = new CopyOnWriteArrayList<>();
+    private final CopyOnWriteArrayList<Consumer<VimEng>> stopTasks = new CopyOnWriteArrayList<>();
     private final ExecutorService threadPool;
-    private final ScheduledExecutorService newScheduledThread = Executors.newSingleThreadScheduledExecutor();
+    private final FileSaver fileSaver = new FileSaver();
+    private FileWatcher fileWatcher;
+    //Made in init, nothing is drawn before then.
+    private volatile FrameScheduler frameScheduler;
     private TerminalScreen terminalScreen;
+    private Renderer renderer;
     private KeyMappingMatcher keyMappingMatcher;
     public static AtomicReference<String> errorMsg = new AtomicReference<>();
 
@@ -56,25 +67,64 @@ public class VimEng {
     }
 
     public void init(TrieMapManager trieMapManager) {
-        views.put(START_VIEW, new View(START_VIEW, terminalScreen));
-        views.put(TELESCOPE_VIEW, new View(TELESCOPE_VIEW, terminalScreen));
-        keyMappingMatcher = new KeyMappingMatcher(trieMapManager);
-        addBackgroundTask(ve -> ve.getView().draw(terminalScreen));
-        newScheduledThread.scheduleWithFixedDelay(() -> {
+        frameScheduler = new FrameScheduler(() -> {
             for (Consumer<VimEng> backgroundTask : backgroundTasks) {
                 backgroundTask.accept(this);
             }
-        }, 10, 20, TimeUnit.MILLISECONDS);
+        });
+        views.put(START_VIEW, new View(START_VIEW, terminalScreen));
+        views.put(TELESCOPE_VIEW, new View(TELESCOPE_VIEW, terminalScreen));
+        keyMappingMatcher = new KeyMappingMatcher(trieMapManager);
+        renderer = new Renderer(terminalScreen);
+        addBackgroundTask(ve -> ve.getView().draw(renderer, terminalScreen));
+        requestFrame();
         addListener(vimEvent -> {
             Buf statusBuf = getView().getBufferByName(View.STATUS_BUFFER);
             String ans = "";
             System.out.println("Received event " + vimEvent);
             if (vimEvent.getEventType().equals(EventType.KEY_PRESS)) {
-                ans = SFormatter.format("MODE: {{status}} Keys: {{keys}}", vimMode.get().toString(), vimEvent.getValue());
-                statusBuf.setLines(List.of(Line.of(0, ans, null)), 0);
+                ans = SFormatter.format("MODE: {{status}} Keys: {{keys}}", modeStatus(), vimEvent.getValue());
+                statusBuf.setLines(List.of(Line.of(ans, null)), 0);
             } else if (vimEvent.getEventType().equals(EventType.MODE_CHANGE)) {
-                ans = SFormatter.format("MODE: {{status}}", vimMode.get().toString());
-                statusBuf.setLines(List.of(Line.of(0, ans, null)), 0);
+                ans = SFormatter.format("MODE: {{status}}", modeStatus());
+                statusBuf.setLines(List.of(Line.of(ans, null)), 0);
+            } else if (vimEvent.getEventType().equals(EventType.BUF_LOAD_PROGRESS)) {
+                ans = SFormatter.format("MODE: {{status}} Loading: {{keys}}", modeStatus(), vimEvent.getValue());
+                statusBuf.setLines(List.of(Line.of(ans, null)), 0);
+            } else if (vimEvent.getEventType().equals(EventType.BUF_SAVED)) {
+                ans = SFormatter.format("MODE: {{status}} {{keys}}", modeStatus(), vimEvent.getValue());
+                statusBuf.setLines(List.of(Line.of(ans, null)), 0);
+            } else if (vimEvent.getEventType().equals(EventType.SEARCH_COUNT)) {
+                ans = SFormatter.format("MODE: {{status}} Matches: {{keys}}", modeStatus(), vimEvent.getValue());
+                statusBuf.setLines(List.of(Line.of(ans, null)), 0);
+            }
+        });
+        try {
+            fileWatcher = new FileWatcher(this::fileChanged);
+        } catch (IOException e) {
+            logger.warn("Not watching files for outside changes", e);
+        }
+        addListener(vimEvent -> {
+            if (vimEvent.getEventType().equals(EventType.FILE_OPENED) && fileWatcher != null) {
+                try {
+                    fileWatcher.watch(Path.of(vimEvent.getValue()));
+                } catch (IOException e) {
+                    logger.warn("Failed to watch " + vimEvent.getValue(), e);
+                }
+            } else if (vimEvent.getEventType().equals(EventType.FILE_CLOSED) && fileWatcher != null) {
+                fileWatcher.unwatch(Path.of(vimEvent.getValue()));
+            }
+        });
+        addListener(vimEvent -> {
+            if (Telescope.isBufChangeEvent(vimEvent)) {
+                //Bufs are numbered per view, an extra pass over an unchanged index costs next to nothing.
+                for (View view : views.values()) {
+                    Buf buf = view.getBuffer(vimEvent.getBufNo());
+                    if (buf != null) {
+                        buf.getSearch().bufferChanged();
+                        buf.getGutterDiff().bufferChanged();
+                    }
+                }
             }
         });
         threadPool.execute(() -> {
@@ -87,6 +137,8 @@ public class VimEng {
                     for (VimListener eventListener : eventListeners) {
                         eventListener.handle(event);
                     }
+                    //Every event is something that may have changed the screen, a burst of them is one frame.
+                    requestFrame();
                 } catch (InterruptedException e) {
                     //NOOP
                 }
@@ -107,6 +159,20 @@ public class VimEng {
         backgroundTasks.add(task);
     }
 
+    /**
+     * Runs on :wall, after the active buffer is written, for anything else holding changes to save.
+     */
+    public void addSaveAllTask(Consumer<VimEng> task) {
+        saveAllTasks.add(task);
+    }
+
+    /**
+     * Runs on :quit before the process exits.
+     */
+    public void addStopTask(Consumer<VimEng> task) {
+        stopTasks.add(task);
+    }
+
     public View getView() {
         return getView(activeView.get());
     }
@@ -120,11 +186,21 @@ public class VimEng {
     }
 
     public void stop() {
+        runTasks(stopTasks);
         threadPool.shutdownNow();
-        newScheduledThread.shutdownNow();
         System.exit(0);
     }
 
+    private void runTasks(List<Consumer<VimEng>> tasks) {
+        for (Consumer<VimEng> task : tasks) {
+            try {
+                task.accept(this);
+            } catch (RuntimeException e) {
+                logger.error("Task failed", e);
+            }
+        }
+    }
+
     public void splitToNextLine() {
         getView().getActiveBuf().splitToNextLine();
     }
@@ -132,11 +208,40 @@ public class VimEng {
     public void setView(View view) {
         views.putIfAbsent(view.getName(), view);
         activeView.set(view.getName());
+        requestFrame();
     }
 
     public void executeFunction(Buf activeBuf, String functionToExec) {
         try {
             List<String> params = getParams(functionToExec);
+            if (functionToExec.startsWith("recover")) {
+                if (!activeBuf.recover()) {
+                    popupErrorMessage("Nothing to recover", 3, TimeUnit.SECONDS);
+                }
+                return;
+            }
+            if (functionToExec.startsWith("discard")) {
+                if (!activeBuf.discardRecovery()) {
+                    popupErrorMessage("Nothing to discard", 3, TimeUnit.SECONDS);
+                }
+                return;
+            }
+            if (functionToExec.startsWith("quit")) {
+                stop();
+                return;
+            }
+            if (functionToExec.startsWith("wall")) {
+                if (activeBuf.getFilename() != null && !activeBuf.isEmpty()) {
+                    save(activeBuf, new ArrayList<>(List.of(activeBuf.getFilename())));
+                }
+                runTasks(saveAllTasks);
+                return;
+            }
+            if (functionToExec.startsWith("earlier") || functionToExec.startsWith("later")) {
+                int direction = functionToExec.startsWith("earlier") ? -1 : 1;
+                undoTravel(activeBuf, direction, params.isEmpty() ? "1" : params.getFirst());
+                return;
+            }
             if (params.isEmpty()) {
                 if (activeBuf.getFilename() == null || activeBuf.isEmpty()) {
                     popupErrorMessage("No filename supplied for new buffer!", 10, TimeUnit.SECONDS);
@@ -145,16 +250,89 @@ public class VimEng {
                 params.add(activeBuf.getFilename());
             }
             if (functionToExec.startsWith("w")) {
-                PathHelper.writeFile(params, activeBuf.getLinesDangerous());
-                System.out.println("Wrote file: " + params);
-            } else if ("r".equals(functionToExec)) {
-                activeBuf.setLines(PathHelper.readFile(Path.of(params.getFirst())), 0);
+                save(activeBuf, params);
+            } else if (functionToExec.startsWith("r")) {
+                activeBuf.loadFile(Path.of(params.getFirst()));
             }
         } catch (Exception ep) {
             ep.printStackTrace();
         }
     }
 
+    /**
+     * Another program changed a file, every buffer open on it takes the change.
+     */
+    private void fileChanged(Path path) {
+        for (View view : views.values()) {
+            for (Buf buf : view.getBuffers()) {
+                if (buf.getFilename() != null && Path.of(buf.getFilename()).toAbsolutePath().normalize().equals(path)) {
+                    try {
+                        buf.reloadFromDisk();
+                    } catch (IOException | RuntimeException e) {
+                        logger.error("Failed to reload " + path, e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves from a snapshot on background threads so typing carries on while a big file is written out.
+     */
+    private void save(Buf activeBuf, List<String> filenames) {
+        List<Line> lines = activeBuf.snapshot().stableLines();
+        for (String filename : filenames) {
+            boolean ownFile = filename.equals(activeBuf.getFilename());
+            fileSaver.save(Path.of(filename), lines).whenComplete((result, e) -> {
+                if (e != null) {
+                    logger.error("Failed to write file: " + filename, e);
+                    events.add(new VimEvent(null, activeBuf.getBufNo(), EventType.BUF_SAVED, filename + " failed: " + e.getMessage()));
+                    return;
+                }
+                if (ownFile) {
+                    activeBuf.markSaved(lines, result.contentHash(), result.stamp());
+                }
+                events.add(new VimEvent(null, activeBuf.getBufNo(), EventType.BUF_SAVED,
+                        (result.written() ? "Wrote " : "Unchanged ") + filename));
+            });
+        }
+    }
+
+    /**
+     * Like vim's :earlier and :later, a plain count steps through undo states and
+     * a count with an s, m, h or d suffix jumps by that much time.
+     */
+    private void undoTravel(Buf activeBuf, int direction, String amount) {
+        if (!hasUndo(activeBuf)) {
+            return;
+        }
+        char unit = amount.charAt(amount.length() - 1);
+        if (Character.isDigit(unit)) {
+            activeBuf.travel(direction * Integer.parseInt(amount));
+            return;
+        }
+        long count = Long.parseLong(amount.substring(0, amount.length() - 1));
+        TimeUnit timeUnit = switch (unit) {
+            case 's' -> TimeUnit.SECONDS;
+            case 'm' -> TimeUnit.MINUTES;
+            case 'h' -> TimeUnit.HOURS;
+            case 'd' -> TimeUnit.DAYS;
+            default -> throw new IllegalArgumentException("Unknown time unit: " + amount);
+        };
+        activeBuf.travelTime(direction * timeUnit.toMillis(count));
+    }
+
+    /**
+     * Says so rather than letting undo quietly do nothing in a buf that keeps no history.
+     */
+    private boolean hasUndo(Buf buf) {
+        if (buf.hasUndo()) {
+            return true;
+        }
+        popupErrorMessage("Undo is not available in this buffer", 3, TimeUnit.SECONDS);
+        return false;
+    }
+
     private void popupErrorMessage(String errorMsg, int seconds, TimeUnit timeUnit) {
         getView().popupErrorMessage(errorMsg, seconds, timeUnit);
     }
@@ -187,6 +365,14 @@ public class VimEng {
 //        getView().getBuffer(getView().getActiveBufNo()).setRow(row);
 //    }
 
+    /**
+     * The mode for the status line, marked when the active buf can't be edited.
+     */
+    private String modeStatus() {
+        Buf activeBuf = getActiveBuf();
+        return vimMode.get() + ((activeBuf != null && activeBuf.isReadOnly()) ? " [RO]" : "");
+    }
+
     public VimMode getVimMode() {
         return vimMode.get();
     }
@@ -270,8 +456,76 @@ public class VimEng {
         getView().getBuffer(getView().getActiveBufNo()).setLine(row, line);
     }
 
+    public void pasteLines(List<String> pasteLines) {
+        Buf buf = getView().getActiveBuf();
+        buf.insertLines(buf.getRow() + 1, pasteLines);
+    }
+
     public void popPrevChange() {
-        getView().getActiveBuf().undo();
+        Buf activeBuf = getView().getActiveBuf();
+        if (hasUndo(activeBuf)) {
+            activeBuf.undo();
+        }
+    }
+
+    public void redoChange() {
+        Buf activeBuf = getView().getActiveBuf();
+        if (hasUndo(activeBuf)) {
+            activeBuf.redo();
+        }
+    }
+
+    public void travelChanges(int steps) {
+        Buf activeBuf = getView().getActiveBuf();
+        if (hasUndo(activeBuf)) {
+            activeBuf.travel(steps);
+        }
+    }
+
+    /**
+     * Sets what n and N look for in buf and jumps to the first match after the cursor.
+     */
+    public void search(Buf buf, String query) {
+        if (setSearchPattern(buf, query)) {
+            searchNext(buf, true);
+        }
+    }
+
+    /**
+     * Makes query the pattern for n and N but jumps to its first match on row rather than the next one after the cursor.
+     */
+    public void search(Buf buf, String query, int row) {
+        if (!setSearchPattern(buf, query)) {
+            return;
+        }
+        Line line = buf.getLine(row);
+        int col = (line == null) ? -1 : buf.getSearch().getPattern().matcher().find(line.getContent(), 0);
+        buf.moveTo(row, Math.max(col, 0));
+    }
+
+    private boolean setSearchPattern(Buf buf, String query) {
+        try {
+            buf.getSearch().setPattern(query);
+            return true;
+        } catch (PatternSyntaxException e) {
+            popupErrorMessage("Bad search pattern: " + e.getDescription(), 3, TimeUnit.SECONDS);
+            return false;
+        }
+    }
+
+    public void searchNext(Buf buf, boolean forward) {
+        SearchPattern pattern = buf.getSearch().getPattern();
+        if (pattern == null) {
+            popupErrorMessage("No previous search pattern", 3, TimeUnit.SECONDS);
+            return;
+        }
+        Match match = forward ? buf.getSearch().next(buf.getRow(), buf.getCol())
+                : buf.getSearch().previous(buf.getRow(), buf.getCol());
+        if (match == null) {
+            popupErrorMessage("Pattern not found: " + pattern.getQuery(), 3, TimeUnit.SECONDS);
+            return;
+        }
+        buf.moveTo(match.row(), match.col());
     }
 
     public void cancelTelescope() {
@@ -284,6 +538,17 @@ public class VimEng {
 
     public void handleKey(KeyStroke key) {
         keyMappingMatcher.match(getView(), getVimMode(), key);
+        requestFrame();
+    }
+
+    /**
+     * Asks for the screen to be drawn again, for changes that don't come through the event queue.
+     */
+    public void requestFrame() {
+        FrameScheduler scheduler = frameScheduler;
+        if (scheduler != null) {
+            scheduler.requestFrame();
+        }
     }
 
     public BlockingQueue<VimEvent> getEvents() {
@@ -6,6 +6,14 @@ public enum EventType {
     BUF_CHANGE_ADD,
     BUF_CHANGE_REMOVE,
     BUF_CHANGE_INSERT,
-    MODE_CHANGE
+    BUF_CHANGE,
+    BUF_LOAD_PROGRESS,
+    SEARCH_COUNT,
+    BUF_SAVED,
+    FILE_OPENED,
+    FILE_CLOSED,
+    MODE_CHANGE,
+    GUTTER_CHANGE,
+    POPUP
 
 }
@@ -1,11 +1,9 @@
 package com.dksd.dvim.higlight;
 
 import com.catppuccin.Palette;
+import com.dksd.dvim.view.CellGrid;
 import com.googlecode.lanterna.TextColor;
-import com.googlecode.lanterna.graphics.TextGraphics;
 
-import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -56,11 +54,9 @@ public class JavaSyntaxHighlighter {
     }
 
     /**
-     * Draws syntax-highlighted code to a Lanterna TextGraphics
+     * Draws syntax-highlighted code into the grid, in screen coordinates
      */
-    public void drawHighlightedCode(TextGraphics tg, String code, int startRow, int startCol, LinkedBlockingQueue<Future<?>> futures) {
-
-        // Could re-enable async processing later with executor + futures
+    public void drawHighlightedCode(CellGrid grid, String code, int startRow, int startCol) {
 
         int row = startRow;
         int colBase = startCol;
@@ -76,8 +72,7 @@ public class JavaSyntaxHighlighter {
                 // Print remainder before newline if not already consumed
                 if (lastIndex < i) {
                     String remainder = code.substring(lastIndex, i);
-                    tg.setForegroundColor(baseColor);
-                    tg.putString(col, row, remainder);
+                    grid.put(col, row, remainder, baseColor);
                 }
                 row++;
                 col = colBase;
@@ -93,7 +88,7 @@ public class JavaSyntaxHighlighter {
 
         while (matcher.find()) {
             String before = code.substring(lastIndex, matcher.start());
-            col = drawString(tg, before, row, col, baseColor);
+            col = drawString(grid, before, row, col, baseColor);
 
             TextColor color;
             if (matcher.group("COMMENT") != null) {
@@ -108,7 +103,7 @@ public class JavaSyntaxHighlighter {
                 color = baseColor;
             }
 
-            col = drawString(tg, matcher.group(), row, col, color);
+            col = drawString(grid, matcher.group(), row, col, color);
             lastIndex = matcher.end();
 
             // Track newlines inside the match (important for block comments, text blocks)
@@ -120,22 +115,19 @@ public class JavaSyntaxHighlighter {
                         row++;
                         col = colBase;
                     }
-                    col = drawString(tg, parts[i], row, col, color);
+                    col = drawString(grid, parts[i], row, col, color);
                 }
             }
         }
 
         // Print remainder after last match
         if (lastIndex < code.length()) {
-            drawString(tg, code.substring(lastIndex), row, col, baseColor);
+            drawString(grid, code.substring(lastIndex), row, col, baseColor);
         }
-
-        tg.setForegroundColor(baseColor);
     }
 
-    private int drawString(TextGraphics tg, String text, int row, int col, TextColor color) {
-        tg.setForegroundColor(color);
-        tg.putString(col, row, text);
+    private int drawString(CellGrid grid, String text, int row, int col, TextColor color) {
+        grid.put(col, row, text, color);
         return col + text.length();
     }
 }
@@ -1,6 +1,7 @@
 package com.dksd.dvim.history;
 
 import com.dksd.dvim.buffer.Buf;
+import com.dksd.dvim.buffer.BufManager;
 
 import java.nio.file.Path;
 import java.util.Arrays;
@@ -14,7 +15,7 @@ public class Harpoons {
     Harpoon<Buf> buffers = new HarpoonBuf();
     Harpoon<Path> dirs = new HarpoonDir();
     Harpoon<Path> files = new HarpoonDir();
-    Harpoon<Buf> todoProjects = new HarpoonBuf();
+    BufManager todoProjects = new BufManager();
 
     public Harpoon<List<String>> getClipboard() {
         return clipboard;
@@ -44,7 +45,7 @@ public class Harpoons {
         return Arrays.stream(HarpoonType.values()).map(Enum::toString).toList();
     }
 
-    public Harpoon<Buf> getTodoProjects() {
+    public BufManager getTodoProjects() {
         return todoProjects;
     }
 }
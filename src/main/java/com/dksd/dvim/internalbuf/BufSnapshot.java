@@ -0,0 +1,34 @@
+package com.dksd.dvim.internalbuf;
+
+import com.dksd.dvim.view.Line;
+
+import java.util.List;
+
+/**
+ * The lines of a buffer as they were at one version. Readers such as the renderer take one of these
+ * per pass instead of going back to the buffer for every row, so they never see half of an edit.
+ * A version of -1 means the buffer can't snapshot cheaply and lines reads through to it.
+ */
+public record BufSnapshot(long version, List<Line> lines) {
+
+    public static final long UNVERSIONED = -1;
+
+    public int size() {
+        return lines.size();
+    }
+
+    public Line get(int row) {
+        return (row < 0 || row >= lines.size()) ? null : lines.get(row);
+    }
+
+    public boolean isEmpty() {
+        return lines.isEmpty();
+    }
+
+    /**
+     * Lines that won't change under the caller, copied if this snapshot only reads through to the buffer.
+     */
+    public List<Line> stableLines() {
+        return (version == UNVERSIONED) ? List.copyOf(lines) : lines;
+    }
+}
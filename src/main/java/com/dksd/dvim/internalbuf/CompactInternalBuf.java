@@ -0,0 +1,341 @@
+package com.dksd.dvim.internalbuf;
+
+import com.dksd.dvim.view.Line;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Packs the bytes of every line into shared chunked byte[] arenas instead of a Line and a String per row.
+ * A row costs one long that packs chunk, offset, length and encoding; lines that are all Latin-1 are stored
+ * a byte per char, anything else as UTF-8. Ghost and indicator strings are rare so they live in a sparse
+ * map keyed by row. Lines handed out by {@link #get(int)} are decoded copies, {@link #getChars(int)}
+ * gives a view over the arena without copying.
+ * Replaced lines leave garbage in the arenas, which is compacted away once it outweighs the live bytes.
+ */
+public class CompactInternalBuf implements InternalBuf {
+
+    private static final int CHUNK_BITS = 22;
+    public static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int LENGTH_BITS = 22;
+    private static final long LENGTH_MASK = (1L << LENGTH_BITS) - 1;
+    private static final long OFFSET_MASK = (1L << CHUNK_BITS) - 1;
+    //A length of all ones means the line has a chunk to itself and is as long as the chunk.
+    private static final long WHOLE_CHUNK = LENGTH_MASK;
+    private static final long UTF8 = 1;
+    private static final int MIN_CHUNK_SIZE = 64 * 1024;
+    private final List<byte[]> chunks = new ArrayList<>();
+    private int currentChunk = -1;
+    private int chunkUsed = CHUNK_SIZE;
+    private long[] rows = new long[16];
+    private int size = 0;
+    private long liveBytes = 0;
+    private long totalBytes = 0;
+    private final NavigableMap<Integer, Decoration> decorations = new TreeMap<>();
+    private volatile long version = 0;
+
+    @Override
+    public synchronized Line get(int row) {
+        if (row < 0 || row >= size) {
+            return null;
+        }
+        Line line = Line.of(decode(rows[row]), null);
+        Decoration decoration = decorations.get(row);
+        if (decoration != null) {
+            line.setGhostContent(decoration.ghost);
+            line.setIndicatorStr(decoration.indicator);
+        }
+        return line;
+    }
+
+    /**
+     * The row's text without copying it out of the arena. The view is only valid until the row is next changed.
+     */
+    public synchronized CharSequence getChars(int row) {
+        long packed = rows[row];
+        if ((packed & UTF8) != 0) {
+            return decode(packed);
+        }
+        return new Latin1Chars(chunks.get(chunk(packed)), offset(packed), length(packed));
+    }
+
+    @Override
+    public List<Line> getAll() {
+        return new AbstractList<>() {
+            @Override
+            public Line get(int index) {
+                return CompactInternalBuf.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return CompactInternalBuf.this.size();
+            }
+        };
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public BufSnapshot snapshot() {
+        return new BufSnapshot(BufSnapshot.UNVERSIONED, getAll());
+    }
+
+    @Override
+    public synchronized void set(int row, Line line) {
+        version++;
+        if (row == size) {
+            insert(row, line);
+            return;
+        }
+        liveBytes -= length(rows[row]);
+        rows[row] = encode(line.getContent());
+        decorate(row, line);
+        compactIfWasteful();
+    }
+
+    @Override
+    public synchronized void setAll(List<Line> lines) {
+        version++;
+        clear();
+        insertAll(0, lines);
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void remove(int row) {
+        version++;
+        removeRange(row, row + 1);
+    }
+
+    @Override
+    public synchronized void clear() {
+        version++;
+        chunks.clear();
+        currentChunk = -1;
+        chunkUsed = CHUNK_SIZE;
+        rows = new long[16];
+        size = 0;
+        liveBytes = 0;
+        totalBytes = 0;
+        decorations.clear();
+    }
+
+    @Override
+    public synchronized void insert(int row, Line line) {
+        version++;
+        insertAll(row, List.of(line));
+    }
+
+    @Override
+    public synchronized void insertAll(int row, List<Line> lines) {
+        version++;
+        openGap(row, lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            rows[row + i] = encode(lines.get(i).getContent());
+            decorate(row + i, lines.get(i));
+        }
+    }
+
+    @Override
+    public synchronized void removeRange(int from, int to) {
+        version++;
+        for (int i = from; i < to; i++) {
+            liveBytes -= length(rows[i]);
+        }
+        System.arraycopy(rows, to, rows, from, size - to);
+        size -= to - from;
+        decorations.subMap(from, true, to, false).clear();
+        shiftDecorations(to, from - to);
+        compactIfWasteful();
+    }
+
+    @Override
+    public synchronized void replaceRange(int from, int to, List<Line> lines) {
+        version++;
+        removeRange(from, to);
+        insertAll(from, lines);
+    }
+
+    @Override
+    public void undo() {
+        //noop
+    }
+
+    @Override
+    public void clearUndo() {
+        //noop
+    }
+
+    @Override
+    public void beginEdit() {
+        //noop
+    }
+
+    @Override
+    public void endEdit() {
+        //noop
+    }
+
+    @Override
+    public void redo() {
+        //noop
+    }
+
+    @Override
+    public void travel(int steps) {
+        //noop
+    }
+
+    @Override
+    public void travelTime(long deltaMillis) {
+        //noop
+    }
+
+    public synchronized long getArenaBytes() {
+        return totalBytes;
+    }
+
+    private void openGap(int row, int count) {
+        if (size + count > rows.length) {
+            //Grows by half, a row is only 8 bytes so doubling would leave a lot of them unused.
+            rows = Arrays.copyOf(rows, Math.max(size + count, rows.length + (rows.length >> 1)));
+        }
+        System.arraycopy(rows, row, rows, row + count, size - row);
+        size += count;
+        shiftDecorations(row, count);
+    }
+
+    private void decorate(int row, Line line) {
+        if (line.getGhostContent() == null && line.getIndicatorStr() == null) {
+            decorations.remove(row);
+        } else {
+            decorations.put(row, new Decoration(line.getGhostContent(), line.getIndicatorStr()));
+        }
+    }
+
+    private void shiftDecorations(int fromRow, int delta) {
+        if (delta == 0 || decorations.isEmpty()) {
+            return;
+        }
+        NavigableMap<Integer, Decoration> tail = decorations.tailMap(fromRow, true);
+        List<Map.Entry<Integer, Decoration>> moved = new ArrayList<>(tail.entrySet());
+        tail.clear();
+        for (Map.Entry<Integer, Decoration> entry : moved) {
+            decorations.put(entry.getKey() + delta, entry.getValue());
+        }
+    }
+
+    private long encode(String content) {
+        boolean latin1 = true;
+        for (int i = 0; i < content.length() && latin1; i++) {
+            latin1 = content.charAt(i) <= 0xFF;
+        }
+        byte[] bytes = content.getBytes(latin1 ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+        return pack(bytes, 0, bytes.length) | (latin1 ? 0 : UTF8);
+    }
+
+    private long pack(byte[] src, int from, int length) {
+        liveBytes += length;
+        totalBytes += length;
+        if (length >= WHOLE_CHUNK) {
+            chunks.add((from == 0 && length == src.length) ? src : Arrays.copyOfRange(src, from, from + length));
+            return ((long) (chunks.size() - 1) << (CHUNK_BITS + LENGTH_BITS + 1)) | (WHOLE_CHUNK << 1);
+        }
+        if (chunkUsed + length > CHUNK_SIZE) {
+            chunks.add(new byte[Math.max(MIN_CHUNK_SIZE, length)]);
+            currentChunk = chunks.size() - 1;
+            chunkUsed = 0;
+        } else if (chunkUsed + length > chunks.get(currentChunk).length) {
+            //The newest chunk starts small and grows by half, so a small file doesn't pay for a whole chunk.
+            byte[] chunk = chunks.get(currentChunk);
+            int grown = Math.min(CHUNK_SIZE, Math.max(chunkUsed + length, chunk.length + (chunk.length >> 1)));
+            chunks.set(currentChunk, Arrays.copyOf(chunk, grown));
+        }
+        System.arraycopy(src, from, chunks.get(currentChunk), chunkUsed, length);
+        long packed = ((long) currentChunk << (CHUNK_BITS + LENGTH_BITS + 1))
+                | ((long) chunkUsed << (LENGTH_BITS + 1))
+                | ((long) length << 1);
+        chunkUsed += length;
+        return packed;
+    }
+
+    private String decode(long packed) {
+        byte[] chunk = chunks.get(chunk(packed));
+        return new String(chunk, offset(packed), length(packed),
+                ((packed & UTF8) != 0) ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+    }
+
+    private static int chunk(long packed) {
+        return (int) (packed >>> (CHUNK_BITS + LENGTH_BITS + 1));
+    }
+
+    private static int offset(long packed) {
+        return (int) ((packed >>> (LENGTH_BITS + 1)) & OFFSET_MASK);
+    }
+
+    private int length(long packed) {
+        long length = (packed >>> 1) & LENGTH_MASK;
+        return (length == WHOLE_CHUNK) ? chunks.get(chunk(packed)).length : (int) length;
+    }
+
+    /**
+     * Copies the live lines into fresh arenas once more than half of what is allocated is dead.
+     */
+    private void compactIfWasteful() {
+        if (totalBytes - liveBytes <= Math.max(liveBytes, CHUNK_SIZE)) {
+            return;
+        }
+        List<byte[]> oldChunks = new ArrayList<>(chunks);
+        long[] oldRows = rows;
+        chunks.clear();
+        currentChunk = -1;
+        chunkUsed = CHUNK_SIZE;
+        liveBytes = 0;
+        totalBytes = 0;
+        rows = new long[Math.max(16, size)];
+        for (int i = 0; i < size; i++) {
+            long packed = oldRows[i];
+            byte[] chunk = oldChunks.get(chunk(packed));
+            long length = (packed >>> 1) & LENGTH_MASK;
+            rows[i] = pack(chunk, offset(packed), (length == WHOLE_CHUNK) ? chunk.length : (int) length) | (packed & UTF8);
+        }
+    }
+
+    private record Decoration(String ghost, String indicator) {
+    }
+
+    /**
+     * Flyweight over Latin-1 bytes in an arena, every byte is one char.
+     */
+    private record Latin1Chars(byte[] chunk, int offset, int length) implements CharSequence {
+
+        @Override
+        public char charAt(int index) {
+            return (char) (chunk[offset + index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new Latin1Chars(chunk, offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(chunk, offset, length, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.dksd.dvim.internalbuf;
+
+import com.dksd.dvim.view.Line;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One edit to a buffer: at row, the removed lines were replaced by the inserted lines.
+ * Only line contents are kept and they are shared with the buffer, not copied,
+ * so an op costs a couple of references no matter how big the buffer is.
+ */
+public final class EditOp {
+
+    private static final long OP_OVERHEAD_BYTES = 64;
+    private static final long STRING_OVERHEAD_BYTES = 40;
+    private final int row;
+    private final List<String> removed;
+    private final List<String> inserted;
+
+    public EditOp(int row, List<String> removed, List<String> inserted) {
+        this.row = row;
+        this.removed = removed;
+        this.inserted = inserted;
+    }
+
+    public static EditOp set(int row, String oldContent, String newContent) {
+        return new EditOp(row, List.of(oldContent), List.of(newContent));
+    }
+
+    public static EditOp insert(int row, String content) {
+        return new EditOp(row, List.of(), List.of(content));
+    }
+
+    public static EditOp remove(int row, String oldContent) {
+        return new EditOp(row, List.of(oldContent), List.of());
+    }
+
+    public static List<String> contents(List<Line> lines) {
+        List<String> contents = new ArrayList<>(lines.size());
+        for (Line line : lines) {
+            contents.add(line.getContent());
+        }
+        return contents;
+    }
+
+    public EditOp inverse() {
+        return new EditOp(row, inserted, removed);
+    }
+
+    /**
+     * Folds next into this op when next rewrites exactly the lines this op inserted,
+     * like repeated edits to the same line. Returns null when the two can't be combined.
+     */
+    public EditOp coalesce(EditOp next) {
+        if (next.row != row || !next.removed.equals(inserted)) {
+            return null;
+        }
+        return new EditOp(row, removed, next.inserted);
+    }
+
+    void apply(InternalBuf buf) {
+        List<Line> lines = new ArrayList<>(inserted.size());
+        for (int i = 0; i < inserted.size(); i++) {
+            lines.add(Line.of(inserted.get(i), null));
+        }
+        buf.replaceRange(row, row + removed.size(), lines);
+    }
+
+    public long estimateBytes() {
+        long bytes = OP_OVERHEAD_BYTES;
+        for (String str : removed) {
+            bytes += STRING_OVERHEAD_BYTES + 2L * str.length();
+        }
+        for (String str : inserted) {
+            bytes += STRING_OVERHEAD_BYTES + 2L * str.length();
+        }
+        return bytes;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    public List<String> getInserted() {
+        return inserted;
+    }
+
+    @Override
+    public String toString() {
+        return "EditOp{" +
+                "row=" + row +
+                ", removed=" + removed.size() +
+                ", inserted=" + inserted.size() +
+                '}';
+    }
+}
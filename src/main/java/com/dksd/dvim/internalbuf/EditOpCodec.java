@@ -0,0 +1,156 @@
+package com.dksd.dvim.internalbuf;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary framing for journals of edits. A record is
+ * [int payload length][byte type][payload][int payload length], the trailing length lets
+ * a journal be read backwards from its end as easily as forwards from its start.
+ */
+public final class EditOpCodec {
+
+    public static final byte OP = 1;
+    public static final byte CHECKPOINT = 2;
+    public static final byte CHANGE = 3;
+    public static final int FRAME_OVERHEAD = Integer.BYTES * 2 + 1;
+
+    private EditOpCodec() {
+    }
+
+    /**
+     * @param epochMillis when the edit was made, so undo can travel back through the journal by time
+     */
+    public static byte[] encodeOp(EditOp op, long epochMillis) {
+        List<byte[]> removed = utf8(op.getRemoved());
+        List<byte[]> inserted = utf8(op.getInserted());
+        int payload = Long.BYTES + Integer.BYTES * 3 + size(removed) + size(inserted);
+        ByteBuffer buf = frameStart(OP, payload);
+        buf.putLong(epochMillis);
+        buf.putInt(op.getRow());
+        putStrings(buf, removed);
+        putStrings(buf, inserted);
+        return frameEnd(buf, payload);
+    }
+
+    public static byte[] encodeCheckpoint(long contentHash) {
+        ByteBuffer buf = frameStart(CHECKPOINT, Long.BYTES);
+        buf.putLong(contentHash);
+        return frameEnd(buf, Long.BYTES);
+    }
+
+    public static byte[] encodeChange(LineChange change) {
+        List<byte[]> inserted = utf8(change.inserted());
+        int payload = Integer.BYTES * 3 + size(inserted);
+        ByteBuffer buf = frameStart(CHANGE, payload);
+        buf.putInt(change.row());
+        buf.putInt(change.removed());
+        putStrings(buf, inserted);
+        return frameEnd(buf, payload);
+    }
+
+    /**
+     * Start offset of the record that ends at end.
+     */
+    public static int recordStart(ByteBuffer journal, int end) {
+        return end - journal.getInt(end - Integer.BYTES) - FRAME_OVERHEAD;
+    }
+
+    public static int recordEnd(ByteBuffer journal, int start) {
+        return start + journal.getInt(start) + FRAME_OVERHEAD;
+    }
+
+    /**
+     * End offset of the record at start, or -1 if the journal stops before it is whole or what is
+     * there isn't a record, as after a crash mid write.
+     */
+    public static int completeRecordEnd(ByteBuffer journal, int start) {
+        if (journal.limit() - start < FRAME_OVERHEAD) {
+            return -1;
+        }
+        int payload = journal.getInt(start);
+        if (payload < 0 || payload > journal.limit() - start - FRAME_OVERHEAD) {
+            return -1;
+        }
+        int end = start + payload + FRAME_OVERHEAD;
+        return (journal.getInt(end - Integer.BYTES) == payload) ? end : -1;
+    }
+
+    public static byte type(ByteBuffer journal, int start) {
+        return journal.get(start + Integer.BYTES);
+    }
+
+    public static long decodeCheckpoint(ByteBuffer journal, int start) {
+        return journal.getLong(start + Integer.BYTES + 1);
+    }
+
+    public static long decodeOpTime(ByteBuffer journal, int start) {
+        return journal.getLong(start + Integer.BYTES + 1);
+    }
+
+    public static EditOp decodeOp(ByteBuffer journal, int start) {
+        ByteBuffer buf = journal.duplicate();
+        buf.position(start + Integer.BYTES + 1 + Long.BYTES);
+        int row = buf.getInt();
+        List<String> removed = getStrings(buf);
+        List<String> inserted = getStrings(buf);
+        return new EditOp(row, removed, inserted);
+    }
+
+    public static LineChange decodeChange(ByteBuffer journal, int start) {
+        ByteBuffer buf = journal.duplicate();
+        buf.position(start + Integer.BYTES + 1);
+        int row = buf.getInt();
+        int removed = buf.getInt();
+        return new LineChange(row, removed, getStrings(buf));
+    }
+
+    private static ByteBuffer frameStart(byte type, int payload) {
+        ByteBuffer buf = ByteBuffer.allocate(payload + FRAME_OVERHEAD);
+        buf.putInt(payload);
+        buf.put(type);
+        return buf;
+    }
+
+    private static byte[] frameEnd(ByteBuffer buf, int payload) {
+        buf.putInt(payload);
+        return buf.array();
+    }
+
+    private static List<byte[]> utf8(List<String> strings) {
+        List<byte[]> bytes = new ArrayList<>(strings.size());
+        for (String str : strings) {
+            bytes.add(str.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes;
+    }
+
+    private static int size(List<byte[]> strings) {
+        int size = 0;
+        for (byte[] str : strings) {
+            size += Integer.BYTES + str.length;
+        }
+        return size;
+    }
+
+    private static void putStrings(ByteBuffer buf, List<byte[]> strings) {
+        buf.putInt(strings.size());
+        for (byte[] str : strings) {
+            buf.putInt(str.length);
+            buf.put(str);
+        }
+    }
+
+    private static List<String> getStrings(ByteBuffer buf) {
+        int count = buf.getInt();
+        List<String> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] str = new byte[buf.getInt()];
+            buf.get(str);
+            strings.add(new String(str, StandardCharsets.UTF_8));
+        }
+        return strings;
+    }
+}
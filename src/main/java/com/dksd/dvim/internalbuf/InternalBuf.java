@@ -10,6 +10,16 @@ public interface InternalBuf {
 
     List<Line> getAll();
 
+    /**
+     * The lines as they are now, unaffected by later edits where the buffer supports it.
+     */
+    BufSnapshot snapshot();
+
+    /**
+     * Goes up on every change, so a reader that saw the same version has nothing new to look at.
+     */
+    long getVersion();
+
     void set(int row, Line line);
 
     void setAll(List<Line> lines);
@@ -18,9 +28,49 @@ public interface InternalBuf {
 
     void undo();
 
+    void redo();
+
+    /**
+     * Steps through undo states in the order they were made, negative is back in time.
+     */
+    void travel(int steps);
+
+    /**
+     * Jumps to the undo state as it was the given millis away from the current one, negative is back in time.
+     */
+    void travelTime(long deltaMillis);
+
+    void clearUndo();
+
+    /**
+     * Everything changed until the matching {@link #endEdit()} is undone as one step. Calls nest.
+     */
+    void beginEdit();
+
+    void endEdit();
+
     void remove(int row);
 
     void clear();
 
     void insert(int row, Line line);
+
+    void insertAll(int row, List<Line> lines);
+
+    /**
+     * Adds lines read from the file to the end. Loading is not an edit, so there is nothing to undo or journal.
+     */
+    default void appendLoaded(List<Line> lines) {
+        insertAll(size(), lines);
+    }
+
+    /**
+     * Removes rows [from, to).
+     */
+    void removeRange(int from, int to);
+
+    /**
+     * Replaces rows [from, to) with the given lines, which may be more or fewer than were there.
+     */
+    void replaceRange(int from, int to, List<Line> lines);
 }
@@ -1,17 +1,74 @@
 package com.dksd.dvim.internalbuf;
 
 import com.dksd.dvim.buffer.BufferMode;
+import com.dksd.dvim.utils.PathHelper;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Set;
 
 public class InternalBufFactory {
+
+    //Files bigger than this are memory mapped read only instead of loaded onto the heap.
+    public static final long LARGE_FILE_THRESHOLD = Long.getLong("dvim.largeFileThreshold", 64L * 1024 * 1024);
+    //Files bigger than this are edited in a piece table, which keeps the file as one string instead of a Line per row.
+    public static final long PIECE_TABLE_THRESHOLD = Long.getLong("dvim.pieceTableThreshold", 16L * 1024 * 1024);
+    //Files bigger than this that are opened without undo are packed into compact arenas, they had no history to lose.
+    public static final long COMPACT_THRESHOLD = Long.getLong("dvim.compactThreshold", 1024L * 1024);
+
     public static InternalBuf create(Set<BufferMode> bufferModes) {
         if (bufferModes.contains(BufferMode.SINGLE_LINE)) {
             return new SingleLineInternalBuf();
         }
+        if (bufferModes.contains(BufferMode.PIECE_TABLE)) {
+            return bufferModes.contains(BufferMode.ALLOW_UNDO)
+                    ? new MultiUndoInternalBuf(new PieceTableInternalBuf()) : new PieceTableInternalBuf();
+        }
+        if (bufferModes.contains(BufferMode.COMPACT)) {
+            return new CompactInternalBuf();
+        }
         if (!bufferModes.contains(BufferMode.ALLOW_UNDO)) {
             return new MultiLineInternalBuf();
         }
         return new MultiUndoInternalBuf();
     }
+
+    /**
+     * The store for a file of fileBytes that isn't mapped. Modes that name a store win, otherwise big files
+     * that keep undo go in a piece table under the undo tree and ones that don't into compact arenas.
+     */
+    public static InternalBuf create(Set<BufferMode> bufferModes, long fileBytes) {
+        if (bufferModes.contains(BufferMode.SINGLE_LINE) || bufferModes.contains(BufferMode.PIECE_TABLE)
+                || bufferModes.contains(BufferMode.COMPACT)) {
+            return create(bufferModes);
+        }
+        if (bufferModes.contains(BufferMode.ALLOW_UNDO)) {
+            return (fileBytes > PIECE_TABLE_THRESHOLD) ? new MultiUndoInternalBuf(new PieceTableInternalBuf()) : create(bufferModes);
+        }
+        return (fileBytes > COMPACT_THRESHOLD) ? new CompactInternalBuf() : create(bufferModes);
+    }
+
+    /**
+     * Whether the file is memory mapped read only. A buffer that asked for an editable store meant for big
+     * files, a piece table or compact lines, gets it whatever the file's size.
+     */
+    public static boolean isMapped(Set<BufferMode> bufferModes, Path path) throws IOException {
+        if (bufferModes.contains(BufferMode.READ_ONLY)) {
+            return true;
+        }
+        if (bufferModes.contains(BufferMode.PIECE_TABLE) || bufferModes.contains(BufferMode.COMPACT)) {
+            return false;
+        }
+        return Files.size(path) > LARGE_FILE_THRESHOLD;
+    }
+
+    public static InternalBuf create(Set<BufferMode> bufferModes, Path path) throws IOException {
+        if (isMapped(bufferModes, path)) {
+            return new MappedInternalBuf(path);
+        }
+        InternalBuf internalBuf = create(bufferModes, Files.size(path));
+        internalBuf.setAll(PathHelper.readFile(path));
+        return internalBuf;
+    }
 }
@@ -0,0 +1,21 @@
+package com.dksd.dvim.internalbuf;
+
+import com.dksd.dvim.view.Line;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rows [row, row + removed) replaced by inserted, with row counted after the changes before it were made.
+ * Unlike an {@link EditOp} it doesn't keep what it removed, so it can be replayed but not undone.
+ */
+public record LineChange(int row, int removed, List<String> inserted) {
+
+    public List<Line> insertedLines() {
+        List<Line> lines = new ArrayList<>(inserted.size());
+        for (String content : inserted) {
+            lines.add(Line.of(content, null));
+        }
+        return lines;
+    }
+}
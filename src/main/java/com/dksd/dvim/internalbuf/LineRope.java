@@ -0,0 +1,197 @@
+package com.dksd.dvim.internalbuf;
+
+import com.dksd.dvim.view.Line;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Immutable list of lines split into chunks of at most {@link #CHUNK_SIZE}. An edit builds a new rope that
+ * shares every chunk it did not touch with the old one, so an old rope stays valid for as long as someone
+ * holds it and costs nothing to keep. Each rope is one version further on than the one it was made from.
+ */
+public final class LineRope extends AbstractList<Line> implements RandomAccess {
+
+    public static final int CHUNK_SIZE = 256;
+    public static final LineRope EMPTY = new LineRope(new Line[0][], new int[]{0}, 0);
+    private final Line[][] chunks;
+    //starts[i] is the row the i'th chunk begins at, with the total size as the last entry.
+    private final int[] starts;
+    private final long version;
+
+    private LineRope(Line[][] chunks, int[] starts, long version) {
+        this.chunks = chunks;
+        this.starts = starts;
+        this.version = version;
+    }
+
+    @Override
+    public Line get(int row) {
+        if (row < 0 || row >= size()) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size());
+        }
+        int chunk = chunkOf(row);
+        return chunks[chunk][row - starts[chunk]];
+    }
+
+    @Override
+    public int size() {
+        return starts[chunks.length];
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int chunkCount() {
+        return chunks.length;
+    }
+
+    public int chunkStart(int chunk) {
+        return starts[chunk];
+    }
+
+    public List<Line> chunk(int chunk) {
+        return Collections.unmodifiableList(Arrays.asList(chunks[chunk]));
+    }
+
+    /**
+     * Stays the same object for as long as the chunk is shared between ropes, so caches keyed on it
+     * only miss for chunks that an edit rebuilt.
+     */
+    public Object chunkKey(int chunk) {
+        return chunks[chunk];
+    }
+
+    /**
+     * A new rope with rows [from, to) replaced by lines, this one is left as it was.
+     */
+    public LineRope replaceRange(int from, int to, List<Line> lines) {
+        int size = size();
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Range " + from + ":" + to + " of " + size);
+        }
+        //Only the chunks the range falls in are rebuilt, along with a small neighbour either side
+        //so that repeated edits in one spot don't leave a trail of tiny chunks behind.
+        int firstChunk = (from == size) ? Math.max(0, chunks.length - 1) : chunkOf(from);
+        int lastChunk = Math.min(chunks.length, (to > from) ? chunkOf(to - 1) + 1 : firstChunk + 1);
+        if (firstChunk > 0 && chunks[firstChunk - 1].length < CHUNK_SIZE / 2) {
+            firstChunk--;
+        }
+        if (lastChunk < chunks.length && chunks[lastChunk].length < CHUNK_SIZE / 2) {
+            lastChunk++;
+        }
+        int regionEnd = starts[lastChunk];
+        List<Line> middle = new ArrayList<>(regionEnd - starts[firstChunk] - (to - from) + lines.size());
+        for (int c = firstChunk; c < lastChunk; c++) {
+            for (int i = 0; i < chunks[c].length; i++) {
+                int row = starts[c] + i;
+                if (row == from) {
+                    middle.addAll(lines);
+                }
+                if (row < from || row >= to) {
+                    middle.add(chunks[c][i]);
+                }
+            }
+        }
+        if (from == regionEnd) {
+            middle.addAll(lines);
+        }
+        int middleChunks = (middle.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        Line[][] newChunks = new Line[firstChunk + middleChunks + chunks.length - lastChunk][];
+        System.arraycopy(chunks, 0, newChunks, 0, firstChunk);
+        for (int i = 0; i < middleChunks; i++) {
+            //Spread evenly so no chunk comes out much smaller than the others.
+            int start = (int) ((long) middle.size() * i / middleChunks);
+            int end = (int) ((long) middle.size() * (i + 1) / middleChunks);
+            newChunks[firstChunk + i] = middle.subList(start, end).toArray(new Line[0]);
+        }
+        System.arraycopy(chunks, lastChunk, newChunks, firstChunk + middleChunks, chunks.length - lastChunk);
+        int[] newStarts = new int[newChunks.length + 1];
+        System.arraycopy(starts, 0, newStarts, 0, firstChunk + 1);
+        for (int i = firstChunk; i < newChunks.length; i++) {
+            newStarts[i + 1] = newStarts[i] + newChunks[i].length;
+        }
+        return new LineRope(newChunks, newStarts, version + 1);
+    }
+
+    /**
+     * A rope holding just lines, one version on from this.
+     */
+    public LineRope with(List<Line> lines) {
+        LineRope fresh = EMPTY.replaceRange(0, 0, lines);
+        return new LineRope(fresh.chunks, fresh.starts, version + 1);
+    }
+
+    /**
+     * The changes that turn older into this rope. Chunks the two still share are matched up by identity
+     * and only the rows between them are looked at, down to the lines that aren't the same Line any more.
+     */
+    public List<LineChange> changesSince(LineRope older) {
+        Map<Object, Integer> olderChunks = new IdentityHashMap<>(older.chunks.length * 2);
+        for (int c = 0; c < older.chunks.length; c++) {
+            olderChunks.put(older.chunks[c], c);
+        }
+        List<LineChange> changes = new ArrayList<>();
+        int oldChunk = 0;
+        int newChunk = 0;
+        for (int c = 0; c < chunks.length; c++) {
+            Integer shared = olderChunks.get(chunks[c]);
+            if (shared != null && shared >= oldChunk) {
+                addChange(changes, older, oldChunk, shared, newChunk, c);
+                oldChunk = shared + 1;
+                newChunk = c + 1;
+            }
+        }
+        addChange(changes, older, oldChunk, older.chunks.length, newChunk, chunks.length);
+        return changes;
+    }
+
+    private void addChange(List<LineChange> changes, LineRope older, int oldFrom, int oldTo, int newFrom, int newTo) {
+        int oldStart = older.starts[oldFrom];
+        int oldEnd = older.starts[oldTo];
+        int newStart = starts[newFrom];
+        int newEnd = starts[newTo];
+        while (oldStart < oldEnd && newStart < newEnd && older.get(oldStart) == get(newStart)) {
+            oldStart++;
+            newStart++;
+        }
+        while (oldStart < oldEnd && newStart < newEnd && older.get(oldEnd - 1) == get(newEnd - 1)) {
+            oldEnd--;
+            newEnd--;
+        }
+        if (oldStart < oldEnd && newStart < newEnd) {
+            //Rebuilt chunks still hold the same Line for every row that wasn't edited, anchor on those.
+            Map<Line, Integer> oldRows = new IdentityHashMap<>();
+            for (int row = oldStart; row < oldEnd; row++) {
+                oldRows.put(older.get(row), row);
+            }
+            for (int row = newStart; row < newEnd; row++) {
+                Integer shared = oldRows.get(get(row));
+                if (shared != null && shared >= oldStart) {
+                    addLines(changes, newStart, shared - oldStart, newStart, row);
+                    oldStart = shared + 1;
+                    newStart = row + 1;
+                }
+            }
+        }
+        addLines(changes, newStart, oldEnd - oldStart, newStart, newEnd);
+    }
+
+    private void addLines(List<LineChange> changes, int row, int removed, int from, int to) {
+        if (removed > 0 || to > from) {
+            changes.add(new LineChange(row, removed, EditOp.contents(subList(from, to))));
+        }
+    }
+
+    private int chunkOf(int row) {
+        int found = Arrays.binarySearch(starts, 0, chunks.length, row);
+        return (found >= 0) ? found : -found - 2;
+    }
+}
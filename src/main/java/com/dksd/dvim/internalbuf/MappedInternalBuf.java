@@ -0,0 +1,240 @@
+package com.dksd.dvim.internalbuf;
+
+import com.dksd.dvim.utils.LineIndexer;
+import com.dksd.dvim.view.Line;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Read only view of a file that is memory mapped rather than loaded onto the heap.
+ * The newline index is built on a virtual thread in the background with {@link LineIndexer}
+ * and only the rows that are asked for get decoded, so the first frame can draw before the scan finishes.
+ */
+public class MappedInternalBuf implements InternalBuf {
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedInternalBuf.class);
+    private static final long REGION_SIZE = 1L << 30;
+    private final Path path;
+    private final long fileSize;
+    private final MappedByteBuffer[] regions;
+    private volatile long[] lineEnds = new long[0];
+    private volatile int lineCount = 0;
+    private volatile boolean indexed = false;
+    private volatile long version = 0;
+    private final CompletableFuture<Void> indexDone = new CompletableFuture<>();
+
+    public MappedInternalBuf(Path path) throws IOException {
+        this.path = path;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            fileSize = channel.size();
+            int regionCount = (int) ((fileSize + REGION_SIZE - 1) / REGION_SIZE);
+            regions = new MappedByteBuffer[regionCount];
+            for (int i = 0; i < regionCount; i++) {
+                long start = i * REGION_SIZE;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, fileSize - start));
+            }
+        }
+        Thread.ofVirtual().name("index-" + path.getFileName()).start(() -> {
+            try {
+                buildIndex();
+                indexDone.complete(null);
+            } catch (RuntimeException e) {
+                indexDone.completeExceptionally(e);
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Publishes the lines of the first chunk straight away so the first screen can draw,
+     * then replaces them with the full index once the parallel scan is done.
+     */
+    private void buildIndex() {
+        if (regions.length > 0) {
+            ByteBuffer head = regions[0].slice(0, (int) Math.min(LineIndexer.CHUNK_SIZE, fileSize));
+            long[] headEnds = LineIndexer.index(List.of(head), ForkJoinPool.commonPool());
+            //The head may end mid line, only publish the lines that are complete.
+            int complete = headEnds.length;
+            if (complete > 0 && headEnds[complete - 1] == head.limit() && head.limit() < fileSize) {
+                complete--;
+            }
+            publish(headEnds, complete);
+        }
+        long[] ends = LineIndexer.index(Arrays.asList(regions), ForkJoinPool.commonPool());
+        publish(ends, ends.length);
+        indexed = true;
+        logger.info("Indexed " + ends.length + " lines of " + path);
+    }
+
+    private void publish(long[] ends, int count) {
+        lineEnds = ends;
+        lineCount = count;
+        version++;//only the indexing thread publishes
+    }
+
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    /**
+     * Completes once every line end is known.
+     */
+    public CompletableFuture<Void> whenIndexed() {
+        return indexDone;
+    }
+
+    @Override
+    public Line get(int row) {
+        int count = lineCount;
+        if (row < 0 || row >= count) {
+            return null;
+        }
+        long[] ends = lineEnds;
+        long start = row == 0 ? 0 : ends[row - 1] + 1;
+        long end = ends[row];
+        if (end > start && byteAt(end - 1) == '\r') {
+            end--;
+        }
+        return Line.of(decode(start, (int) (end - start)), null);
+    }
+
+    private byte byteAt(long offset) {
+        return regions[(int) (offset / REGION_SIZE)].get((int) (offset % REGION_SIZE));
+    }
+
+    private String decode(long start, int length) {
+        byte[] bytes = new byte[length];
+        int copied = 0;
+        while (copied < length) {
+            long pos = start + copied;
+            MappedByteBuffer region = regions[(int) (pos / REGION_SIZE)];
+            int regionOffset = (int) (pos % REGION_SIZE);
+            int chunk = Math.min(length - copied, region.limit() - regionOffset);
+            region.get(regionOffset, bytes, copied, chunk);
+            copied += chunk;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public List<Line> getAll() {
+        return new AbstractList<>() {
+            @Override
+            public Line get(int index) {
+                return MappedInternalBuf.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return MappedInternalBuf.this.size();
+            }
+        };
+    }
+
+    /**
+     * Moves only while the index is filling in, the contents never change.
+     */
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public BufSnapshot snapshot() {
+        //Read only, so once the index is built there is only ever the one version.
+        return new BufSnapshot(indexed ? 0 : BufSnapshot.UNVERSIONED, getAll());
+    }
+
+    @Override
+    public void set(int row, Line line) {
+        //noop read only
+    }
+
+    @Override
+    public void setAll(List<Line> lines) {
+        //noop read only
+    }
+
+    @Override
+    public int size() {
+        return lineCount;
+    }
+
+    @Override
+    public void undo() {
+        //noop
+    }
+
+    @Override
+    public void clearUndo() {
+        //noop
+    }
+
+    @Override
+    public void beginEdit() {
+        //noop
+    }
+
+    @Override
+    public void endEdit() {
+        //noop
+    }
+
+    @Override
+    public void redo() {
+        //noop
+    }
+
+    @Override
+    public void travel(int steps) {
+        //noop
+    }
+
+    @Override
+    public void travelTime(long deltaMillis) {
+        //noop
+    }
+
+    @Override
+    public void remove(int row) {
+        //noop read only
+    }
+
+    @Override
+    public void clear() {
+        //noop read only
+    }
+
+    @Override
+    public void insert(int row, Line line) {
+        //noop read only
+    }
+
+    @Override
+    public void insertAll(int row, List<Line> lines) {
+        //noop read only
+    }
+
+    @Override
+    public void removeRange(int from, int to) {
+        //noop read only
+    }
+
+    @Override
+    public void replaceRange(int from, int to, List<Line> lines) {
+        //noop read only
+    }
+}
@@ -2,35 +2,36 @@ package com.dksd.dvim.internalbuf;
 
 import com.dksd.dvim.view.Line;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
+/**
+ * Lines held in an immutable {@link LineRope}. Writers build the next rope under the lock and publish it
+ * with a single volatile write, readers just read the current root and never take the lock.
+ * Inside beginEdit/endEdit the ropes are only published when the outermost edit ends, so a
+ * {@link #snapshot()} never shows part of an edit.
+ */
 public class MultiLineInternalBuf implements InternalBuf {
 
-    private final List<Line> lines = Collections.synchronizedList(new ArrayList<>());
+    private volatile LineRope root = LineRope.EMPTY;
+    private volatile LineRope published = LineRope.EMPTY;
+    private int editDepth = 0;
 
     public MultiLineInternalBuf() {
     }
 
-    public MultiLineInternalBuf(MultiLineInternalBuf inLines) {
-        lines.addAll(inLines.getAll());
-    }
-
     @Override
     public Line get(int row) {
-        if (lines.isEmpty() || row >= lines.size()) {
+        LineRope current = root;
+        if (row < 0 || row >= current.size()) {
             return null;
         }
-        return lines.get(row);
+        return current.get(row);
     }
 
     @Override
-    public void set(int row, Line line) {
-        if (row == 0 && lines.isEmpty() || row == lines.size()) {
-            lines.add(line);
-        }
-        lines.set(row, line);
+    public synchronized void set(int row, Line line) {
+        int end = (row == root.size()) ? row : row + 1;
+        publish(root.replaceRange(row, end, List.of(line)));
     }
 
     /**
@@ -39,29 +40,23 @@ public class MultiLineInternalBuf implements InternalBuf {
      * @param linesIn
      */
     @Override
-    public void setAll(List<Line> linesIn) {
-        /*for (int i = 0; i < insertAfter - lines.size(); i++) {
-            insert(0, new Line(0, "", null));
-        }
-        removeAll(insertAfter, lines.size());*/
-        lines.clear();
-        lines.addAll(linesIn);
+    public synchronized void setAll(List<Line> linesIn) {
+        publish(root.with(linesIn));
     }
 
-    private void removeAll(int from, int to) {
-        for (int i = from; i < to; i++) {
-            remove(i);
-        }
+    @Override
+    public synchronized void replaceRange(int from, int to, List<Line> linesIn) {
+        publish(root.replaceRange(from, to, linesIn));
     }
 
     @Override
-    public void remove(int row) {
-        lines.remove(row);
+    public synchronized void remove(int row) {
+        publish(root.replaceRange(row, row + 1, List.of()));
     }
 
     @Override
     public int size() {
-        return lines.size();
+        return root.size();
     }
 
     @Override
@@ -70,17 +65,83 @@ public class MultiLineInternalBuf implements InternalBuf {
     }
 
     @Override
-    public void clear() {
-        lines.clear();
+    public void clearUndo() {
+        //noop
+    }
+
+    @Override
+    public synchronized void beginEdit() {
+        editDepth++;
+    }
+
+    @Override
+    public synchronized void endEdit() {
+        if (editDepth > 0 && --editDepth == 0) {
+            published = root;
+        }
+    }
+
+    @Override
+    public void redo() {
+        //noop
+    }
+
+    @Override
+    public void travel(int steps) {
+        //noop
+    }
+
+    @Override
+    public void travelTime(long deltaMillis) {
+        //noop
+    }
+
+    @Override
+    public synchronized void clear() {
+        publish(root.with(List.of()));
     }
 
+    /**
+     * The current rope, it does not change under the caller.
+     */
     @Override
     public List<Line> getAll() {
-        return Collections.unmodifiableList(lines);
+        return root;
+    }
+
+    /**
+     * The version of the {@link #snapshot()}, an open edit counts once it ends.
+     */
+    @Override
+    public long getVersion() {
+        return published.getVersion();
     }
 
     @Override
-    public void insert(int row, Line line) {
-        lines.add(row, line);
+    public BufSnapshot snapshot() {
+        LineRope current = published;
+        return new BufSnapshot(current.getVersion(), current);
+    }
+
+    @Override
+    public synchronized void insert(int row, Line line) {
+        publish(root.replaceRange(row, row, List.of(line)));
+    }
+
+    @Override
+    public synchronized void insertAll(int row, List<Line> linesIn) {
+        publish(root.replaceRange(row, row, linesIn));
+    }
+
+    @Override
+    public synchronized void removeRange(int from, int to) {
+        publish(root.replaceRange(from, to, List.of()));
+    }
+
+    private void publish(LineRope next) {
+        root = next;
+        if (editDepth == 0) {
+            published = next;
+        }
     }
 }
@@ -1,65 +1,284 @@
 package com.dksd.dvim.internalbuf;
 
+import com.dksd.dvim.utils.ContentHash;
 import com.dksd.dvim.view.Line;
 
 import java.util.List;
-import java.util.Stack;
 
+/**
+ * Keeps an {@link UndoTree} of inverse-able edits instead of a copy of the buffer per edit,
+ * so each edit costs a couple of references whatever the size of the file. The lines live in a
+ * {@link MultiLineInternalBuf} unless another store is handed in, such as a piece table for big files.
+ * The oldest history is trimmed once the tree goes over its memory budget.
+ * With an {@link UndoJournal} attached every change is also journaled, and undo carries on
+ * into the journaled history of earlier sessions once the tree runs out. That history sits in a line
+ * before the tree's root: redo and travel come back through it to the root before the tree takes over,
+ * and an edit made back there starts the tree over from the state it was made in.
+ */
 public class MultiUndoInternalBuf implements InternalBuf {
 
-    //private static final int MAX_UNDO_LEVEL = 20;
-    private final Stack<MultiLineInternalBuf> undoStack = new Stack<>();
+    public static final long DEFAULT_UNDO_BUDGET_BYTES = Long.getLong("dvim.undoBudgetBytes", 32L * 1024 * 1024);
+    private final InternalBuf current;
+    private final UndoTree undoTree;
+    private UndoJournal journal;
+    private int editDepth = 0;
+    private boolean editRecorded = false;
+    //How many journaled edits have been undone past the tree's root.
+    private int journalDepth = 0;
 
+    public MultiUndoInternalBuf() {
+        this(DEFAULT_UNDO_BUDGET_BYTES);
+    }
+
+    public MultiUndoInternalBuf(long budgetBytes) {
+        this(budgetBytes, UndoTree.DEFAULT_COLD_AFTER_MS);
+    }
+
+    public MultiUndoInternalBuf(long budgetBytes, long coldAfterMs) {
+        this(new MultiLineInternalBuf(), budgetBytes, coldAfterMs);
+    }
+
+    /**
+     * Keeps the undo history of edits to store, which should start out empty.
+     */
+    public MultiUndoInternalBuf(InternalBuf store) {
+        this(store, DEFAULT_UNDO_BUDGET_BYTES, UndoTree.DEFAULT_COLD_AFTER_MS);
+    }
+
+    private MultiUndoInternalBuf(InternalBuf store, long budgetBytes, long coldAfterMs) {
+        this.current = store;
+        this.undoTree = new UndoTree(budgetBytes, coldAfterMs);
+    }
 
     @Override
     public Line get(int row) {
-        return peek().get(row);
+        return current.get(row);
     }
 
     @Override
-    public void set(int row, Line line) {
-        undoStack.push(new MultiLineInternalBuf(peek())).set(row, line);
+    public synchronized void set(int row, Line line) {
+        if (row == current.size()) {
+            insert(row, line);
+            return;
+        }
+        record(EditOp.set(row, current.get(row).getContent(), line.getContent()));
+        current.set(row, line);
     }
 
     @Override
-    public void setAll(List<Line> lines) {
-        undoStack.push(new MultiLineInternalBuf()).setAll(lines);
+    public synchronized void setAll(List<Line> lines) {
+        record(new EditOp(0, EditOp.contents(current.getAll()), EditOp.contents(lines)));
+        current.setAll(lines);
     }
 
     @Override
-    public void remove(int row) {
-        peek().remove(row);
+    public synchronized void remove(int row) {
+        record(EditOp.remove(row, current.get(row).getContent()));
+        current.remove(row);
     }
 
     @Override
     public int size() {
-        return peek().size();
+        return current.size();
     }
 
-    private MultiLineInternalBuf peek() {
-        if (undoStack.isEmpty()) {
-            undoStack.push(new MultiLineInternalBuf());
+    @Override
+    public synchronized void undo() {
+        if (!undoTree.undo(this::apply)) {
+            undoJournal(1);
         }
-        return undoStack.peek();
     }
 
     @Override
-    public void undo() {
-        undoStack.pop();
+    public synchronized void redo() {
+        if (redoJournal(1) == 1) {
+            undoTree.redo(this::apply);
+        }
     }
 
     @Override
-    public void clear() {
-        peek().clear();
+    public synchronized void travel(int steps) {
+        if (steps > 0) {
+            undoTree.travel(this::apply, redoJournal(steps));
+        } else {
+            undoJournal(undoTree.travel(this::apply, steps));
+        }
+    }
+
+    @Override
+    public synchronized void travelTime(long deltaMillis) {
+        long now = (journalDepth > 0) ? Math.max(journal.previousTime(), journal.nextTime() - 1) : undoTree.getCurrentTime();
+        long target = now + deltaMillis;
+        if (target >= undoTree.getRootTime()) {
+            redoJournal(journalDepth);
+            undoTree.travelTo(this::apply, target);
+            return;
+        }
+        undoTree.travelTo(this::apply, target);
+        while (journalDepth > 0 && journal.nextTime() <= target) {
+            redoJournal(1);
+        }
+        while (journal != null && !undoTree.isTrimmed() && journal.previousTime() > target && undoJournal(1) == 0) {
+            //noop stepping back
+        }
+    }
+
+    /**
+     * Undoes up to steps journaled edits from before the tree's root, returning how many steps were left over.
+     * Only called with the tree at its root.
+     */
+    private int undoJournal(int steps) {
+        if (journal == null || undoTree.isTrimmed()) {
+            return steps;
+        }
+        for (; steps > 0; steps--) {
+            EditOp op = journal.previous();
+            if (op == null) {
+                break;
+            }
+            apply(op.inverse());
+            journalDepth++;
+        }
+        return steps;
+    }
+
+    /**
+     * Redoes up to steps of the journaled edits that were undone, returning how many steps were left over
+     * once the tree's root is reached again.
+     */
+    private int redoJournal(int steps) {
+        for (; steps > 0 && journalDepth > 0; steps--) {
+            EditOp op = journal.next();
+            if (op == null) {
+                journalDepth = 0;
+                break;
+            }
+            apply(op);
+            journalDepth--;
+        }
+        return steps;
+    }
+
+    @Override
+    public synchronized void beginEdit() {
+        editDepth++;
+        current.beginEdit();
+    }
+
+    @Override
+    public synchronized void endEdit() {
+        if (editDepth > 0 && --editDepth == 0) {
+            editRecorded = false;
+        }
+        current.endEdit();
+    }
+
+    /**
+     * Journals every change from here on. The buffer should hold what the journal was opened against.
+     */
+    public synchronized void setJournal(UndoJournal journal) {
+        if (this.journal != null) {
+            this.journal.close();
+        }
+        this.journal = journal;
+        this.journalDepth = 0;
+    }
+
+    /**
+     * Marks the current contents as saved so a later session can pick up the history from here.
+     */
+    public synchronized void checkpoint() {
+        checkpoint(ContentHash.of(current.getAll()));
+    }
+
+    /**
+     * Marks the contents with this hash as saved so a later session can pick up the history from here.
+     */
+    public synchronized void checkpoint(long contentHash) {
+        if (journal != null) {
+            journal.checkpoint(contentHash);
+        }
+    }
+
+    @Override
+    public synchronized void clearUndo() {
+        undoTree.clear();
+        journalDepth = 0;
+    }
+
+    @Override
+    public synchronized void clear() {
+        record(new EditOp(0, EditOp.contents(current.getAll()), List.of()));
+        current.clear();
     }
 
     @Override
     public List<Line> getAll() {
-        return peek().getAll();
+        return current.getAll();
+    }
+
+    @Override
+    public long getVersion() {
+        return current.getVersion();
+    }
+
+    @Override
+    public BufSnapshot snapshot() {
+        return current.snapshot();
+    }
+
+    @Override
+    public synchronized void insert(int row, Line line) {
+        record(EditOp.insert(row, line.getContent()));
+        current.insert(row, line);
+    }
+
+    @Override
+    public synchronized void insertAll(int row, List<Line> lines) {
+        replaceRange(row, row, lines);
+    }
+
+    /**
+     * Bypasses the undo tree, which keeps any edits made while the rest of the file streams in.
+     */
+    @Override
+    public synchronized void appendLoaded(List<Line> lines) {
+        current.insertAll(current.size(), lines);
+    }
+
+    @Override
+    public synchronized void removeRange(int from, int to) {
+        replaceRange(from, to, List.of());
     }
 
     @Override
-    public void insert(int row, Line line) {
-        peek().insert(row, line);
+    public synchronized void replaceRange(int from, int to, List<Line> lines) {
+        record(new EditOp(from, EditOp.contents(current.getAll().subList(from, to)), EditOp.contents(lines)));
+        current.replaceRange(from, to, lines);
+    }
+
+    private void record(EditOp op) {
+        if (journalDepth > 0) {
+            //The tree's states were made on top of the root, not on top of where the journal was undone to.
+            undoTree.clear();
+            journalDepth = 0;
+            editRecorded = false;
+        }
+        if (editRecorded) {
+            undoTree.amend(op);
+        } else {
+            undoTree.record(op);
+            editRecorded = editDepth > 0;
+        }
+        if (journal != null) {
+            journal.append(op);
+        }
+    }
+
+    private void apply(EditOp op) {
+        op.apply(current);
+        if (journal != null) {
+            journal.append(op);
+        }
     }
 }
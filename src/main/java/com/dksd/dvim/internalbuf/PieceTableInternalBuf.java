@@ -0,0 +1,425 @@
+package com.dksd.dvim.internalbuf;
+
+import com.dksd.dvim.view.Line;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Piece table over an immutable original buffer plus an append-only add buffer.
+ * Pieces live in an implicit treap ordered by text offset, each subtree caching its
+ * char length and line feed count, so finding a row and splicing text are O(log n)
+ * regardless of how large the file is.
+ * Every line is stored terminated by a '\n', so the number of rows is the line feed count.
+ */
+public class PieceTableInternalBuf implements InternalBuf {
+
+    private static final char NEW_LINE = '\n';
+    private final SplittableRandom random = new SplittableRandom();
+    private String original = "";
+    private int[] originalLineFeeds = new int[0];
+    private final StringBuilder added = new StringBuilder();
+    private int[] addedLineFeeds = new int[64];
+    private int addedLineFeedCount = 0;
+    private Piece root;
+    private volatile long version = 0;
+
+    public PieceTableInternalBuf() {
+    }
+
+    public PieceTableInternalBuf(String content) {
+        load(content);
+    }
+
+    @Override
+    public synchronized Line get(int row) {
+        if (row < 0 || row >= size()) {
+            return null;
+        }
+        return Line.of(text(lineStart(row), lineStart(row + 1) - 1), null);
+    }
+
+    @Override
+    public synchronized void set(int row, Line line) {
+        version++;
+        if (row == size()) {
+            insert(row, line);
+            return;
+        }
+        int start = lineStart(row);
+        int end = lineStart(row + 1) - 1;
+        String old = text(start, end);
+        String content = line.getContent();
+        //Only splice what actually changed so typing adds a char to the add buffer, not the whole line.
+        int prefix = 0;
+        int maxPrefix = Math.min(old.length(), content.length());
+        while (prefix < maxPrefix && old.charAt(prefix) == content.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        int maxSuffix = maxPrefix - prefix;
+        while (suffix < maxSuffix
+                && old.charAt(old.length() - 1 - suffix) == content.charAt(content.length() - 1 - suffix)) {
+            suffix++;
+        }
+        deleteText(start + prefix, end - suffix);
+        insertText(start + prefix, content, prefix, content.length() - suffix, false);
+    }
+
+    @Override
+    public synchronized void setAll(List<Line> lines) {
+        version++;
+        StringBuilder sb = new StringBuilder();
+        for (Line line : lines) {
+            sb.append(line.getContent()).append(NEW_LINE);
+        }
+        load(sb.toString());
+    }
+
+    @Override
+    public synchronized int size() {
+        return lineFeeds(root);
+    }
+
+    @Override
+    public void undo() {
+        //noop
+    }
+
+    @Override
+    public void clearUndo() {
+        //noop
+    }
+
+    @Override
+    public void beginEdit() {
+        //noop
+    }
+
+    @Override
+    public void endEdit() {
+        //noop
+    }
+
+    @Override
+    public void redo() {
+        //noop
+    }
+
+    @Override
+    public void travel(int steps) {
+        //noop
+    }
+
+    @Override
+    public void travelTime(long deltaMillis) {
+        //noop
+    }
+
+    @Override
+    public synchronized void remove(int row) {
+        version++;
+        deleteText(lineStart(row), lineStart(row + 1));
+    }
+
+    @Override
+    public synchronized void clear() {
+        version++;
+        load("");
+    }
+
+    @Override
+    public List<Line> getAll() {
+        return new AbstractList<>() {
+            @Override
+            public Line get(int index) {
+                return PieceTableInternalBuf.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return PieceTableInternalBuf.this.size();
+            }
+        };
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public BufSnapshot snapshot() {
+        return new BufSnapshot(BufSnapshot.UNVERSIONED, getAll());
+    }
+
+    @Override
+    public synchronized void insert(int row, Line line) {
+        version++;
+        String content = line.getContent();
+        insertText(lineStart(row), content, 0, content.length(), true);
+    }
+
+    @Override
+    public synchronized void insertAll(int row, List<Line> lines) {
+        version++;
+        replaceRange(row, row, lines);
+    }
+
+    @Override
+    public synchronized void removeRange(int from, int to) {
+        version++;
+        deleteText(lineStart(from), lineStart(to));
+    }
+
+    /**
+     * Deletes the old rows as one span and adds the new ones as a single piece.
+     */
+    @Override
+    public synchronized void replaceRange(int from, int to, List<Line> lines) {
+        version++;
+        int start = lineStart(from);
+        deleteText(start, lineStart(to));
+        if (lines.isEmpty()) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Line line : lines) {
+            sb.append(line.getContent()).append(NEW_LINE);
+        }
+        sb.setLength(sb.length() - 1);
+        String text = sb.toString();
+        insertText(start, text, 0, text.length(), true);
+    }
+
+    /**
+     * Replaces the whole table with the given text as the original buffer.
+     * A missing trailing new line is added through the add buffer so the original is never copied.
+     */
+    private void load(String content) {
+        original = content;
+        originalLineFeeds = indexLineFeeds(content);
+        added.setLength(0);
+        addedLineFeedCount = 0;
+        root = content.isEmpty() ? null : newPiece(false, 0, content.length());
+        if (!content.isEmpty() && content.charAt(content.length() - 1) != NEW_LINE) {
+            insertText(content.length(), "", 0, 0, true);
+        }
+    }
+
+    private static int[] indexLineFeeds(String content) {
+        int[] feeds = new int[64];
+        int count = 0;
+        for (int i = content.indexOf(NEW_LINE); i >= 0; i = content.indexOf(NEW_LINE, i + 1)) {
+            if (count == feeds.length) {
+                feeds = Arrays.copyOf(feeds, count * 2);
+            }
+            feeds[count++] = i;
+        }
+        return Arrays.copyOf(feeds, count);
+    }
+
+    /**
+     * Offset of the first char of the given row, or the total length when row == size().
+     */
+    private int lineStart(int row) {
+        if (row <= 0) {
+            return 0;
+        }
+        int k = row;
+        int base = 0;
+        Piece node = root;
+        while (node != null) {
+            int leftFeeds = lineFeeds(node.left);
+            if (k <= leftFeeds) {
+                node = node.left;
+                continue;
+            }
+            k -= leftFeeds;
+            base += length(node.left);
+            if (k <= node.lineFeeds) {
+                int[] feeds = node.fromAdded ? addedLineFeeds : originalLineFeeds;
+                int feedsCount = node.fromAdded ? addedLineFeedCount : originalLineFeeds.length;
+                int idx = lowerBound(feeds, feedsCount, node.start) + k - 1;
+                return base + feeds[idx] - node.start + 1;
+            }
+            k -= node.lineFeeds;
+            base += node.length;
+            node = node.right;
+        }
+        return length(root);
+    }
+
+    private String text(int start, int end) {
+        StringBuilder sb = new StringBuilder(Math.max(0, end - start));
+        appendRange(root, 0, start, end, sb);
+        return sb.toString();
+    }
+
+    private void appendRange(Piece node, int base, int start, int end, StringBuilder sb) {
+        if (node == null || start >= end) {
+            return;
+        }
+        int leftLen = length(node.left);
+        int pieceStart = base + leftLen;
+        int pieceEnd = pieceStart + node.length;
+        if (start < pieceStart) {
+            appendRange(node.left, base, start, end, sb);
+        }
+        int from = Math.max(start, pieceStart);
+        int to = Math.min(end, pieceEnd);
+        if (from < to) {
+            CharSequence src = node.fromAdded ? added : original;
+            sb.append(src, node.start + from - pieceStart, node.start + to - pieceStart);
+        }
+        if (end > pieceEnd) {
+            appendRange(node.right, pieceEnd, start, end, sb);
+        }
+    }
+
+    private void insertText(int offset, String text, int from, int to, boolean withNewLine) {
+        int addStart = added.length();
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c == NEW_LINE) {
+                addLineFeed(added.length());
+            }
+            added.append(c);
+        }
+        if (withNewLine) {
+            addLineFeed(added.length());
+            added.append(NEW_LINE);
+        }
+        int len = added.length() - addStart;
+        if (len == 0) {
+            return;
+        }
+        Piece[] parts = split(root, offset);
+        root = merge(merge(parts[0], newPiece(true, addStart, len)), parts[1]);
+    }
+
+    private void deleteText(int start, int end) {
+        if (start >= end) {
+            return;
+        }
+        Piece[] head = split(root, start);
+        Piece[] tail = split(head[1], end - start);
+        root = merge(head[0], tail[1]);
+    }
+
+    private void addLineFeed(int pos) {
+        if (addedLineFeedCount == addedLineFeeds.length) {
+            addedLineFeeds = Arrays.copyOf(addedLineFeeds, addedLineFeedCount * 2);
+        }
+        addedLineFeeds[addedLineFeedCount++] = pos;
+    }
+
+    private Piece newPiece(boolean fromAdded, int start, int length) {
+        Piece piece = new Piece(fromAdded, start, length, countLineFeeds(fromAdded, start, start + length),
+                random.nextInt());
+        piece.update();
+        return piece;
+    }
+
+    private int countLineFeeds(boolean fromAdded, int start, int end) {
+        int[] feeds = fromAdded ? addedLineFeeds : originalLineFeeds;
+        int feedsCount = fromAdded ? addedLineFeedCount : originalLineFeeds.length;
+        return lowerBound(feeds, feedsCount, end) - lowerBound(feeds, feedsCount, start);
+    }
+
+    private static int lowerBound(int[] arr, int count, int key) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (arr[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Splits the tree into the first offset chars and the rest, cutting a piece in two if needed.
+     */
+    private Piece[] split(Piece node, int offset) {
+        if (node == null) {
+            return new Piece[]{null, null};
+        }
+        int leftLen = length(node.left);
+        if (offset <= leftLen) {
+            Piece[] parts = split(node.left, offset);
+            node.left = parts[1];
+            node.update();
+            return new Piece[]{parts[0], node};
+        }
+        if (offset >= leftLen + node.length) {
+            Piece[] parts = split(node.right, offset - leftLen - node.length);
+            node.right = parts[0];
+            node.update();
+            return new Piece[]{node, parts[1]};
+        }
+        int cut = offset - leftLen;
+        Piece tail = newPiece(node.fromAdded, node.start + cut, node.length - cut);
+        Piece right = node.right;
+        node.length = cut;
+        node.lineFeeds = countLineFeeds(node.fromAdded, node.start, node.start + cut);
+        node.right = null;
+        node.update();
+        return new Piece[]{node, merge(tail, right)};
+    }
+
+    private static Piece merge(Piece a, Piece b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            a.update();
+            return a;
+        }
+        b.left = merge(a, b.left);
+        b.update();
+        return b;
+    }
+
+    private static int length(Piece piece) {
+        return piece == null ? 0 : piece.subtreeLength;
+    }
+
+    private static int lineFeeds(Piece piece) {
+        return piece == null ? 0 : piece.subtreeLineFeeds;
+    }
+
+    private static final class Piece {
+        private final boolean fromAdded;
+        private final int start;
+        private int length;
+        private int lineFeeds;
+        private final int priority;
+        private Piece left;
+        private Piece right;
+        private int subtreeLength;
+        private int subtreeLineFeeds;
+
+        private Piece(boolean fromAdded, int start, int length, int lineFeeds, int priority) {
+            this.fromAdded = fromAdded;
+            this.start = start;
+            this.length = length;
+            this.lineFeeds = lineFeeds;
+            this.priority = priority;
+        }
+
+        private void update() {
+            subtreeLength = length + length(left) + length(right);
+            subtreeLineFeeds = lineFeeds + lineFeeds(left) + lineFeeds(right);
+        }
+    }
+}
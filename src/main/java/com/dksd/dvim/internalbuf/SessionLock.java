@@ -0,0 +1,78 @@
+package com.dksd.dvim.internalbuf;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An exclusive lock on a .lock file next to a journal, held for as long as one session writes to the journal.
+ * The journal itself gets replaced when it is compacted, the lock file stays put, so it is what another
+ * dvim checks to tell a live session's journal from one a crash left behind. The OS drops the lock when
+ * the process dies.
+ */
+final class SessionLock implements AutoCloseable {
+
+    private final Path lockPath;
+    private final FileChannel channel;
+    private final FileLock lock;
+
+    private SessionLock(Path lockPath, FileChannel channel, FileLock lock) {
+        this.lockPath = lockPath;
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    static Path lockPath(Path journalPath) {
+        return journalPath.resolveSibling(journalPath.getFileName() + ".lock");
+    }
+
+    /**
+     * Locks journalPath for this session, null if a live session, in this process or another, already has it.
+     */
+    static SessionLock tryAcquire(Path journalPath) throws IOException {
+        Path lockPath = lockPath(journalPath);
+        FileChannel channel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            FileLock lock = channel.tryLock();
+            if (lock != null) {
+                return new SessionLock(lockPath, channel, lock);
+            }
+        } catch (OverlappingFileLockException e) {
+            //noop held by this process
+        }
+        channel.close();
+        return null;
+    }
+
+    /**
+     * Whether a live session holds the lock on journalPath.
+     */
+    static boolean isHeld(Path journalPath) throws IOException {
+        if (!Files.exists(lockPath(journalPath))) {
+            return false;
+        }
+        SessionLock lock = tryAcquire(journalPath);
+        if (lock == null) {
+            return true;
+        }
+        lock.close();
+        return false;
+    }
+
+    /**
+     * Deletes the lock file while it is still held and then lets go of it.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            Files.deleteIfExists(lockPath);
+            lock.release();
+        } finally {
+            channel.close();
+        }
+    }
+}
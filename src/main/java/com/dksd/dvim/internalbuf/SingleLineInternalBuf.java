@@ -3,10 +3,12 @@ package com.dksd.dvim.internalbuf;
 import com.dksd.dvim.view.Line;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class SingleLineInternalBuf implements InternalBuf {
 
-    private final Line line = new Line(0, "", null);
+    private final Line line = new Line("", null);
+    private final AtomicLong version = new AtomicLong();
 
     @Override
     public Line get(int row) {
@@ -15,10 +17,10 @@ public class SingleLineInternalBuf implements InternalBuf {
 
     @Override
     public void set(int row, Line line) {
-        this.line.setLineNumber(line.getLineNumber());
         this.line.setContent(line.getContent());
         this.line.setGhostContent(line.getGhostContent());
         this.line.setIndicatorStr(line.getIndicatorStr());
+        version.incrementAndGet();
     }
 
     @Override
@@ -41,12 +43,42 @@ public class SingleLineInternalBuf implements InternalBuf {
         //noop
     }
 
+    @Override
+    public void clearUndo() {
+        //noop
+    }
+
+    @Override
+    public void beginEdit() {
+        //noop
+    }
+
+    @Override
+    public void endEdit() {
+        //noop
+    }
+
+    @Override
+    public void redo() {
+        //noop
+    }
+
+    @Override
+    public void travel(int steps) {
+        //noop
+    }
+
+    @Override
+    public void travelTime(long deltaMillis) {
+        //noop
+    }
+
     @Override
     public void clear() {
         line.setIndicatorStr(null);
         line.setContent("");
         line.setGhostContent(null);
-        line.setLineNumber(0);
+        version.incrementAndGet();
     }
 
     @Override
@@ -54,9 +86,41 @@ public class SingleLineInternalBuf implements InternalBuf {
         return List.of(line);
     }
 
+    @Override
+    public long getVersion() {
+        return version.get();
+    }
+
+    @Override
+    public BufSnapshot snapshot() {
+        Line copy = Line.of(line.getContent(), line.getIndicatorStr());
+        copy.setGhostContent(line.getGhostContent());
+        return new BufSnapshot(BufSnapshot.UNVERSIONED, List.of(copy));
+    }
+
     @Override
     public void insert(int row, Line line) {
         set(0, line);
     }
 
+    @Override
+    public void insertAll(int row, List<Line> lines) {
+        if (!lines.isEmpty()) {
+            set(0, lines.getFirst());
+        }
+    }
+
+    @Override
+    public void removeRange(int from, int to) {
+        clear();
+    }
+
+    @Override
+    public void replaceRange(int from, int to, List<Line> lines) {
+        if (lines.isEmpty()) {
+            clear();
+        } else {
+            set(0, lines.getFirst());
+        }
+    }
 }
@@ -0,0 +1,296 @@
+package com.dksd.dvim.internalbuf;
+
+import com.dksd.dvim.utils.PathHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Swap file for a buffer under ~/.cache/dvim/swap, so a crash loses at most the last second of edits.
+ * It holds a checkpoint with the content hash of the file as last saved followed by the
+ * {@link LineChange}s made since. A virtual thread wakes every {@link #INTERVAL_MS}, diffs the latest
+ * snapshot against the last one it wrote and appends the changes in one write, so the edit path does
+ * no work for it at all. Once the file outgrows its limit it is rewritten as the changes from the saved
+ * contents to now, and saving starts it over.
+ * A crashed session's swap file stays where it is until its changes are recovered or discarded, a new
+ * session for the same file writes to the next free name so a second crash can't overwrite them.
+ * Each open swap file is held under a {@link SessionLock}, so one a live session is writing, in this
+ * dvim or another, is never mistaken for a crashed one.
+ */
+public class SwapJournal {
+
+    private static final Logger logger = LoggerFactory.getLogger(SwapJournal.class);
+    public static final Path DEFAULT_DIR = Path.of(System.getProperty("user.home"), ".cache", "dvim", "swap");
+    public static final long INTERVAL_MS = Long.getLong("dvim.swapIntervalMs", 1000);
+    public static final long MAX_SWAP_BYTES = Long.getLong("dvim.swapMaxBytes", 4L * 1024 * 1024);
+    private final Path swapPath;
+    private final SessionLock lock;
+    private final Supplier<BufSnapshot> snapshots;
+    private final Thread writer;
+    private volatile boolean closed = false;
+    private FileChannel channel;
+    private LineRope saved;
+    private long savedHash;
+    private LineRope written;
+    private long compactAt;
+
+    /**
+     * The changes a crashed session left in swapPath.
+     */
+    public record Recovery(Path swapPath, List<LineChange> changes) {
+    }
+
+    private SwapJournal(Path swapPath, SessionLock lock, Supplier<BufSnapshot> snapshots, LineRope saved, long savedHash) throws IOException {
+        this.swapPath = swapPath;
+        this.lock = lock;
+        this.snapshots = snapshots;
+        this.saved = saved;
+        this.savedHash = savedHash;
+        this.written = saved;
+        rewrite();
+        this.writer = Thread.ofVirtual().name("swap-" + swapPath.getFileName()).start(this::run);
+    }
+
+    public static SwapJournal open(Path file, LineRope saved, long savedHash, Supplier<BufSnapshot> snapshots) throws IOException {
+        return open(DEFAULT_DIR, file, saved, savedHash, snapshots);
+    }
+
+    /**
+     * Starts a swap file for file, which on disk holds saved. Swap files crashed sessions left are kept,
+     * this one takes the first name none of them use, so {@link #recover} has to be called first.
+     */
+    public static SwapJournal open(Path dir, Path file, LineRope saved, long savedHash, Supplier<BufSnapshot> snapshots) throws IOException {
+        Files.createDirectories(dir);
+        for (int n = 0; ; n++) {
+            Path swapPath = swapPath(dir, file, n);
+            if (Files.exists(swapPath)) {
+                continue;
+            }
+            SessionLock lock = SessionLock.tryAcquire(swapPath);
+            if (lock == null) {
+                continue;//another session is about to start this one
+            }
+            try {
+                return new SwapJournal(swapPath, lock, snapshots, saved, savedHash);
+            } catch (IOException | RuntimeException e) {
+                lock.close();
+                throw e;
+            }
+        }
+    }
+
+    public static Recovery recover(Path file, long contentHash) throws IOException {
+        return recover(DEFAULT_DIR, file, contentHash);
+    }
+
+    /**
+     * The unsaved changes the most recent crashed session left for file, to be made on top of the contents
+     * with contentHash, or null if there are none. Its swap file is left in place until {@link #retire} is
+     * called, so the changes are offered again after a crash or a clean exit. Swap files from before the file
+     * last changed can't be recovered and are moved aside to .stale.
+     */
+    public static Recovery recover(Path dir, Path file, long contentHash) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return null;
+        }
+        String prefix = file.getFileName() + "-" + PathHelper.cacheKey(file);
+        List<Path> swapPaths;
+        try (Stream<Path> entries = Files.list(dir)) {
+            swapPaths = entries
+                    .filter(p -> p.getFileName().toString().startsWith(prefix) && p.getFileName().toString().endsWith(".swp"))
+                    //newest first, on a tie the later numbered name was opened last
+                    .sorted(Comparator.comparing(SwapJournal::lastModified)
+                            .thenComparing(p -> p.getFileName().toString().length())
+                            .thenComparing(p -> p.getFileName().toString()).reversed())
+                    .toList();
+        }
+        Recovery newest = null;
+        for (Path swapPath : swapPaths) {
+            if (SessionLock.isHeld(swapPath)) {
+                continue;//a live session is still writing it
+            }
+            List<LineChange> changes = read(swapPath, contentHash);
+            if (changes == null) {
+                Path stale = swapPath.resolveSibling(swapPath.getFileName() + ".stale");
+                for (int n = 1; Files.exists(stale); n++) {
+                    stale = swapPath.resolveSibling(swapPath.getFileName() + "." + n + ".stale");
+                }
+                Files.move(swapPath, stale);
+                logger.warn(file + " changed since its swap file was written, left it at " + stale);
+            } else if (changes.isEmpty()) {
+                Files.delete(swapPath);
+            } else if (newest == null) {
+                newest = new Recovery(swapPath, changes);
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * The changes in swapPath on top of the contents with contentHash, null if it was written against other contents.
+     */
+    private static List<LineChange> read(Path swapPath, long contentHash) throws IOException {
+        List<LineChange> changes = new ArrayList<>();
+        boolean matches = false;
+        try (FileChannel swap = FileChannel.open(swapPath, StandardOpenOption.READ)) {
+            ByteBuffer records = swap.map(FileChannel.MapMode.READ_ONLY, 0, swap.size());
+            int start = 0;
+            while (start + EditOpCodec.FRAME_OVERHEAD <= records.limit()) {
+                int end = EditOpCodec.recordEnd(records, start);
+                if (end <= start || end > records.limit()) {
+                    break;//torn by the crash
+                }
+                byte type = EditOpCodec.type(records, start);
+                if (type == EditOpCodec.CHECKPOINT) {
+                    matches = EditOpCodec.decodeCheckpoint(records, start) == contentHash;
+                } else if (type == EditOpCodec.CHANGE && matches) {
+                    changes.add(EditOpCodec.decodeChange(records, start));
+                }
+                start = end;
+            }
+        }
+        return matches ? changes : null;
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static Path swapPath(Path dir, Path file, int n) {
+        String name = file.getFileName() + "-" + PathHelper.cacheKey(file);
+        return dir.resolve(((n == 0) ? name : name + "-" + n) + ".swp");
+    }
+
+    /**
+     * Deletes the crashed session's swap file once its changes have been made in the buf or dropped.
+     * Whatever was made is written to this swap file first, so a crash in between can't lose it.
+     */
+    public void retire(Recovery recovery) throws IOException {
+        flush();
+        Files.deleteIfExists(recovery.swapPath());
+    }
+
+    /**
+     * Called once saved is on disk, the swap file starts over from it.
+     */
+    public synchronized void markSaved(LineRope saved, long savedHash) {
+        if (closed) {
+            return;
+        }
+        this.saved = saved;
+        this.savedHash = savedHash;
+        try {
+            rewrite();
+        } catch (IOException e) {
+            logger.error("Failed to rewrite swap file: " + swapPath, e);
+        }
+    }
+
+    /**
+     * Writes out whatever is left. The swap file is kept if there are unsaved changes in it, otherwise it goes.
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public Path getSwapPath() {
+        return swapPath;
+    }
+
+    private void run() {
+        while (!closed) {
+            LockSupport.parkNanos(INTERVAL_MS * 1_000_000);
+            flush();
+        }
+        flush();
+        synchronized (this) {
+            try {
+                channel.close();
+                if (written.changesSince(saved).isEmpty()) {
+                    Files.deleteIfExists(swapPath);
+                }
+            } catch (IOException e) {
+                logger.error("Failed to close swap file: " + swapPath, e);
+            }
+            try {
+                lock.close();
+            } catch (IOException e) {
+                logger.warn("Failed to unlock swap file: " + swapPath, e);
+            }
+        }
+    }
+
+    /**
+     * Appends the changes since the last flush in one write.
+     */
+    synchronized void flush() {
+        if (!(snapshots.get().lines() instanceof LineRope rope) || rope == written) {
+            return;
+        }
+        try {
+            List<byte[]> records = new ArrayList<>();
+            int size = 0;
+            for (LineChange change : rope.changesSince(written)) {
+                byte[] record = EditOpCodec.encodeChange(change);
+                records.add(record);
+                size += record.length;
+            }
+            ByteBuffer batch = ByteBuffer.allocate(size);
+            records.forEach(batch::put);
+            batch.flip();
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+            channel.force(false);
+            written = rope;
+            if (channel.size() > compactAt) {
+                rewrite();
+            }
+        } catch (IOException e) {
+            logger.error("Failed to write swap file: " + swapPath, e);
+        }
+    }
+
+    /**
+     * Replaces the swap file with the checkpoint and the changes from the saved contents to what was last written.
+     */
+    private void rewrite() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        Path temp = Files.createTempFile(swapPath.getParent(), swapPath.getFileName().toString(), ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            out.write(ByteBuffer.wrap(EditOpCodec.encodeCheckpoint(savedHash)));
+            for (LineChange change : written.changesSince(saved)) {
+                out.write(ByteBuffer.wrap(EditOpCodec.encodeChange(change)));
+            }
+            out.force(false);
+        }
+        Files.move(temp, swapPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        channel = FileChannel.open(swapPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        compactAt = Math.max(MAX_SWAP_BYTES, channel.size() * 2);
+    }
+}
@@ -0,0 +1,270 @@
+package com.dksd.dvim.internalbuf;
+
+import com.dksd.dvim.utils.PathHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Append-only journal of every edit made to a file, kept under ~/.cache/dvim/undo so undo
+ * history survives a restart. Checkpoint records hold the content hash of the buffer when it
+ * was opened or saved; on reopen the journal is cut back to the last checkpoint matching the
+ * file and the history before it is memory mapped and read backwards one record at a time,
+ * so nothing is replayed up front. Appends are queued and written by a virtual thread.
+ * Once the file passes {@link #MAX_JOURNAL_BYTES} it is rewritten as its newest half, the
+ * oldest history is what goes. A session holds a {@link SessionLock} on the journal for as long as it
+ * has it open, a second dvim on the same file goes without one rather than cut back the first one's history.
+ */
+public class UndoJournal {
+
+    private static final Logger logger = LoggerFactory.getLogger(UndoJournal.class);
+    public static final Path DEFAULT_DIR = Path.of(System.getProperty("user.home"), ".cache", "dvim", "undo");
+    public static final long MAX_JOURNAL_BYTES = Long.getLong("dvim.undoJournalMaxBytes", 64L * 1024 * 1024);
+    private static final Pending CLOSE = new Pending(null, 0, 0);
+    private final Path journalPath;
+    private final SessionLock lock;
+    //Only the writer thread touches it once the journal is open, compacting swaps it for a new one.
+    private FileChannel channel;
+    private final ByteBuffer history;
+    private final LinkedBlockingQueue<Pending> pending = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private final long maxBytes;
+    private long writePos;
+    private int cursor;
+
+    private UndoJournal(Path journalPath, SessionLock lock, FileChannel channel, ByteBuffer history, long maxBytes) {
+        this.journalPath = journalPath;
+        this.lock = lock;
+        this.channel = channel;
+        this.maxBytes = maxBytes;
+        this.history = history;
+        this.cursor = history.limit();
+        this.writePos = history.limit();
+        this.writer = Thread.ofVirtual().name("undo-journal-" + journalPath.getFileName()).start(this::drain);
+    }
+
+    public static UndoJournal open(Path file, long contentHash) throws IOException {
+        return open(DEFAULT_DIR, file, contentHash);
+    }
+
+    /**
+     * Opens the journal for file, keeping the history that leads up to contentHash.
+     * A journal that doesn't know contentHash was written against other contents and is started over.
+     * Throws if another session has the journal open.
+     */
+    public static UndoJournal open(Path dir, Path file, long contentHash) throws IOException {
+        return open(dir, file, contentHash, MAX_JOURNAL_BYTES);
+    }
+
+    static UndoJournal open(Path dir, Path file, long contentHash, long maxBytes) throws IOException {
+        Files.createDirectories(dir);
+        Path journalPath = dir.resolve(file.getFileName() + "-" + PathHelper.cacheKey(file) + ".undo");
+        SessionLock lock = SessionLock.tryAcquire(journalPath);
+        if (lock == null) {
+            throw new IOException(journalPath + " is open in another session");
+        }
+        try {
+            return open(journalPath, lock, contentHash, maxBytes);
+        } catch (IOException | RuntimeException e) {
+            lock.close();
+            throw e;
+        }
+    }
+
+    private static UndoJournal open(Path journalPath, SessionLock lock, long contentHash, long maxBytes) throws IOException {
+        FileChannel channel = FileChannel.open(journalPath,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        int keep = 0;
+        if (size <= Integer.MAX_VALUE) {
+            keep = findCheckpoint(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), contentHash);
+        }
+        if (keep < size) {
+            channel.truncate(keep);
+        }
+        if (keep > maxBytes) {
+            channel = compact(journalPath, channel, keep, maxBytes);
+            keep = (int) channel.size();
+        }
+        ByteBuffer history = (keep == 0) ? ByteBuffer.allocate(0) : channel.map(FileChannel.MapMode.READ_ONLY, 0, keep);
+        UndoJournal journal = new UndoJournal(journalPath, lock, channel, history, maxBytes);
+        if (keep == 0) {
+            journal.checkpoint(contentHash);
+        }
+        return journal;
+    }
+
+    /**
+     * End offset of the last checkpoint with the given hash, or 0 if there isn't one. Read from the
+     * start, so a record torn by a crash only loses what comes after it.
+     */
+    private static int findCheckpoint(ByteBuffer journal, long contentHash) {
+        int keep = 0;
+        int start = 0;
+        int end;
+        while ((end = EditOpCodec.completeRecordEnd(journal, start)) > 0) {
+            if (EditOpCodec.type(journal, start) == EditOpCodec.CHECKPOINT
+                    && EditOpCodec.decodeCheckpoint(journal, start) == contentHash) {
+                keep = end;
+            }
+            start = end;
+        }
+        return keep;
+    }
+
+    /**
+     * Rewrites the journal as the newest whole records before end that fit in half of maxBytes, returning a channel on the new file. The records before end are
+     * all whole, so they can be walked back from it.
+     */
+    private static FileChannel compact(Path journalPath, FileChannel channel, int end, long maxBytes) throws IOException {
+        ByteBuffer journal = channel.map(FileChannel.MapMode.READ_ONLY, 0, end);
+        int cut = end;
+        while (cut > 0 && end - EditOpCodec.recordStart(journal, cut) <= maxBytes / 2) {
+            cut = EditOpCodec.recordStart(journal, cut);
+        }
+        Path tmp = Files.createTempFile(journalPath.getParent(), journalPath.getFileName().toString(), ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            ByteBuffer kept = journal.slice(cut, end - cut);
+            while (kept.hasRemaining()) {
+                out.write(kept);
+            }
+        }
+        Files.move(tmp, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel.close();
+        logger.info("Compacted undo journal " + journalPath + " from " + end + " to " + (end - cut) + " bytes");
+        return FileChannel.open(journalPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    public void append(EditOp op) {
+        pending.offer(new Pending(op, 0, System.currentTimeMillis()));
+    }
+
+    public void checkpoint(long contentHash) {
+        pending.offer(new Pending(null, contentHash, 0));
+    }
+
+    /**
+     * Steps back over the mapped history, returning the edit that led to the current position
+     * or null once the start of the journal is reached.
+     */
+    public synchronized EditOp previous() {
+        while (cursor > 0) {
+            int start = EditOpCodec.recordStart(history, cursor);
+            cursor = start;
+            if (EditOpCodec.type(history, start) == EditOpCodec.OP) {
+                return EditOpCodec.decodeOp(history, start);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * When the edit {@link #previous()} would return was made, or Long.MIN_VALUE at the start of the journal.
+     */
+    public synchronized long previousTime() {
+        for (int end = cursor; end > 0; end = EditOpCodec.recordStart(history, end)) {
+            int start = EditOpCodec.recordStart(history, end);
+            if (EditOpCodec.type(history, start) == EditOpCodec.OP) {
+                return EditOpCodec.decodeOpTime(history, start);
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    /**
+     * When the edit {@link #next()} would return was made, or Long.MAX_VALUE at the end of the mapped history.
+     */
+    public synchronized long nextTime() {
+        for (int start = cursor; start < history.limit(); start = EditOpCodec.recordEnd(history, start)) {
+            if (EditOpCodec.type(history, start) == EditOpCodec.OP) {
+                return EditOpCodec.decodeOpTime(history, start);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Steps forward over the mapped history, the opposite of {@link #previous()}.
+     */
+    public synchronized EditOp next() {
+        while (cursor < history.limit()) {
+            int start = cursor;
+            cursor = EditOpCodec.recordEnd(history, start);
+            if (EditOpCodec.type(history, start) == EditOpCodec.OP) {
+                return EditOpCodec.decodeOp(history, start);
+            }
+        }
+        return null;
+    }
+
+    public Path getJournalPath() {
+        return journalPath;
+    }
+
+    /**
+     * Flushes what is queued and closes the file.
+     */
+    public void close() {
+        pending.offer(CLOSE);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        List<Pending> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(pending.take());
+                pending.drainTo(batch);
+                for (Pending record : batch) {
+                    if (record == CLOSE) {
+                        return;
+                    }
+                    //Encoding happens here rather than in append so the edit path only pays for an offer.
+                    ByteBuffer buf = ByteBuffer.wrap((record.op == null)
+                            ? EditOpCodec.encodeCheckpoint(record.contentHash) : EditOpCodec.encodeOp(record.op, record.time));
+                    while (buf.hasRemaining()) {
+                        writePos += channel.write(buf, writePos);
+                    }
+                    if (writePos > maxBytes && writePos <= Integer.MAX_VALUE) {
+                        //The mapped history stays on the old file, it is only read from.
+                        channel = compact(journalPath, channel, (int) writePos, maxBytes);
+                        writePos = channel.size();
+                    }
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.error("Failed to write undo journal: " + journalPath, e);
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close undo journal: " + journalPath, e);
+            }
+            try {
+                lock.close();
+            } catch (IOException e) {
+                logger.warn("Failed to unlock undo journal: " + journalPath, e);
+            }
+        }
+    }
+
+    private record Pending(EditOp op, long contentHash, long time) {
+    }
+}
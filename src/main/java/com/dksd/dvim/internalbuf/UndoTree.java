@@ -0,0 +1,319 @@
+package com.dksd.dvim.internalbuf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Vim style undo tree. Every state is a node holding the edits that lead to it from its parent,
+ * so undoing and then editing starts a new branch instead of throwing the old one away.
+ * States can be reached by walking up/down (u / ctrl-r), in the order they were made (g- / g+)
+ * or by time. Cold history is coalesced into checkpoints and the oldest history is dropped
+ * once the tree goes over its memory budget.
+ */
+public class UndoTree {
+
+    public static final long DEFAULT_COLD_AFTER_MS = Long.getLong("dvim.undoColdAfterMs", 10L * 60 * 1000);
+    private static final long COMPRESS_INTERVAL_MS = 60 * 1000;
+    private final long budgetBytes;
+    private final long coldAfterMs;
+    private final NavigableMap<Long, Node> nodesBySeq = new TreeMap<>();
+    private final NavigableMap<Long, Node> nodesByTime = new TreeMap<>();
+    private Node root;
+    private Node current;
+    private long nextSeq = 1;
+    private long usedBytes = 0;
+    private long lastCompressed = System.currentTimeMillis();
+    private boolean trimmed = false;
+
+    public UndoTree(long budgetBytes, long coldAfterMs) {
+        this.budgetBytes = budgetBytes;
+        this.coldAfterMs = coldAfterMs;
+        clear();
+    }
+
+    public final void clear() {
+        nodesBySeq.clear();
+        nodesByTime.clear();
+        root = new Node(null, 0, System.currentTimeMillis());
+        current = root;
+        usedBytes = 0;
+        trimmed = false;
+        index(root);
+    }
+
+    public void record(EditOp op) {
+        Node node = new Node(current, nextSeq++, System.currentTimeMillis());
+        node.addOp(op);
+        current.children.add(node);
+        current.lastChild = node;
+        current = node;
+        usedBytes += node.bytes;
+        index(node);
+        if (node.time - lastCompressed > COMPRESS_INTERVAL_MS) {
+            compressCold(node.time - coldAfterMs);
+            lastCompressed = node.time;
+        }
+        trimToBudget();
+    }
+
+    /**
+     * Adds the op to the state that was just recorded rather than making a new state.
+     */
+    public void amend(EditOp op) {
+        if (current == root) {
+            record(op);
+            return;
+        }
+        usedBytes -= current.bytes;
+        current.addOp(op);
+        usedBytes += current.bytes;
+        trimToBudget();
+    }
+
+    public boolean undo(Consumer<EditOp> apply) {
+        if (current == root) {
+            return false;
+        }
+        current.revert(apply);
+        current.parent.lastChild = current;
+        current = current.parent;
+        return true;
+    }
+
+    public boolean redo(Consumer<EditOp> apply) {
+        Node child = current.lastChild;
+        if (child == null) {
+            return false;
+        }
+        child.replay(apply);
+        current = child;
+        return true;
+    }
+
+    /**
+     * Moves through the states in the order they were created, across branches, like g- and g+.
+     * Returns how many of the steps were left over once the first or last state was reached.
+     */
+    public int travel(Consumer<EditOp> apply, int steps) {
+        Node target = current;
+        int left = Math.abs(steps);
+        for (; left > 0; left--) {
+            Map.Entry<Long, Node> next = (steps < 0) ? nodesBySeq.lowerEntry(target.seq) : nodesBySeq.higherEntry(target.seq);
+            if (next == null) {
+                break;
+            }
+            target = next.getValue();
+        }
+        moveTo(apply, target);
+        return left;
+    }
+
+    /**
+     * When the tree was started, travelling to any earlier time ends at the root.
+     */
+    public long getRootTime() {
+        return root.time;
+    }
+
+    /**
+     * Moves to the most recent state that existed at the given time.
+     */
+    public void travelTo(Consumer<EditOp> apply, long epochMillis) {
+        Map.Entry<Long, Node> entry = nodesByTime.floorEntry(epochMillis);
+        moveTo(apply, (entry == null) ? root : entry.getValue());
+    }
+
+    public long getCurrentTime() {
+        return current.time;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * True once the oldest state has been dropped, so the root no longer matches the state the tree started from.
+     */
+    public boolean isTrimmed() {
+        return trimmed;
+    }
+
+    public int getStateCount() {
+        return nodesBySeq.size();
+    }
+
+    private void moveTo(Consumer<EditOp> apply, Node target) {
+        List<Node> down = new ArrayList<>();
+        Node up = current;
+        Node t = target;
+        while (up.depth > t.depth) {
+            up = up.parent;
+        }
+        while (t.depth > up.depth) {
+            down.add(t);
+            t = t.parent;
+        }
+        while (up != t) {
+            up = up.parent;
+            down.add(t);
+            t = t.parent;
+        }
+        while (current != up) {
+            undo(apply);
+        }
+        for (int i = down.size() - 1; i >= 0; i--) {
+            Node node = down.get(i);
+            node.replay(apply);
+            node.parent.lastChild = node;
+            current = node;
+        }
+    }
+
+    private void index(Node node) {
+        nodesBySeq.put(node.seq, node);
+        nodesByTime.put(node.time, node);
+    }
+
+    private void unindex(Node node) {
+        nodesBySeq.remove(node.seq);
+        if (nodesByTime.get(node.time) == node) {
+            nodesByTime.remove(node.time);
+            Map.Entry<Long, Node> before = nodesBySeq.lowerEntry(node.seq);
+            if (before != null && before.getValue().time == node.time) {
+                nodesByTime.put(node.time, before.getValue());
+            }
+        }
+    }
+
+    /**
+     * Folds every cold state that has a single child into that child, so a long run of
+     * old edits becomes one checkpoint whose ops are coalesced where they touch the same lines.
+     */
+    void compressCold(long coldBefore) {
+        List<Node> cold = new ArrayList<>(nodesBySeq.values());
+        for (Node node : cold) {
+            if (node.time >= coldBefore) {
+                break;
+            }
+            if (node == root || node == current || node.children.size() != 1) {
+                continue;
+            }
+            Node child = node.children.getFirst();
+            if (child.time >= coldBefore) {
+                continue;
+            }
+            usedBytes -= node.bytes + child.bytes;
+            List<EditOp> childOps = child.ops;
+            child.ops = new ArrayList<>(node.ops);
+            child.bytes = 0;
+            for (EditOp op : node.ops) {
+                child.bytes += op.estimateBytes();
+            }
+            for (EditOp op : childOps) {
+                child.addOp(op);
+            }
+            usedBytes += child.bytes;
+            Node parent = node.parent;
+            parent.children.set(parent.children.indexOf(node), child);
+            if (parent.lastChild == node) {
+                parent.lastChild = child;
+            }
+            child.parent = parent;
+            child.setDepth(parent.depth + 1);
+            unindex(node);
+        }
+    }
+
+    /**
+     * Drops the oldest states, keeping the branch that leads to the current state.
+     */
+    private void trimToBudget() {
+        while (usedBytes > budgetBytes && root != current) {
+            Node keep = current;
+            while (keep.parent != root) {
+                keep = keep.parent;
+            }
+            for (Node child : root.children) {
+                if (child != keep) {
+                    drop(child);
+                }
+            }
+            unindex(root);
+            usedBytes -= keep.bytes;
+            keep.ops = new ArrayList<>();
+            keep.bytes = 0;
+            keep.parent = null;
+            keep.setDepth(0);
+            root = keep;
+            trimmed = true;
+        }
+    }
+
+    private void drop(Node node) {
+        List<Node> stack = new ArrayList<>(List.of(node));
+        while (!stack.isEmpty()) {
+            Node n = stack.removeLast();
+            usedBytes -= n.bytes;
+            unindex(n);
+            stack.addAll(n.children);
+        }
+    }
+
+    private static final class Node {
+        private Node parent;
+        private final long seq;
+        private final long time;
+        private int depth;
+        private List<EditOp> ops = new ArrayList<>();
+        private long bytes = 0;
+        private final List<Node> children = new ArrayList<>(1);
+        private Node lastChild;
+
+        private Node(Node parent, long seq, long time) {
+            this.parent = parent;
+            this.seq = seq;
+            this.time = time;
+            this.depth = (parent == null) ? 0 : parent.depth + 1;
+        }
+
+        private void addOp(EditOp op) {
+            if (!ops.isEmpty()) {
+                EditOp last = ops.getLast();
+                EditOp merged = last.coalesce(op);
+                if (merged != null) {
+                    bytes += merged.estimateBytes() - last.estimateBytes();
+                    ops.set(ops.size() - 1, merged);
+                    return;
+                }
+            }
+            ops.add(op);
+            bytes += op.estimateBytes();
+        }
+
+        private void replay(Consumer<EditOp> apply) {
+            for (EditOp op : ops) {
+                apply.accept(op);
+            }
+        }
+
+        private void revert(Consumer<EditOp> apply) {
+            for (int i = ops.size() - 1; i >= 0; i--) {
+                apply.accept(ops.get(i).inverse());
+            }
+        }
+
+        private void setDepth(int newDepth) {
+            List<Node> stack = new ArrayList<>(List.of(this));
+            int delta = newDepth - depth;
+            while (!stack.isEmpty()) {
+                Node n = stack.removeLast();
+                n.depth += delta;
+                stack.addAll(n.children);
+            }
+        }
+    }
+}
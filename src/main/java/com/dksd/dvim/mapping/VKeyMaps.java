@@ -11,7 +11,6 @@ import com.dksd.dvim.mapping.trie.TrieMapManager;
 import com.dksd.dvim.model.ChatModel;
 import com.dksd.dvim.model.ModelName;
 import com.dksd.dvim.organize.TodoHelper;
-import com.dksd.dvim.utils.PathHelper;
 import com.dksd.dvim.utils.ScriptBuilder;
 import com.dksd.dvim.view.Line;
 import com.dksd.dvim.view.View;
@@ -21,13 +20,15 @@ import com.googlecode.lanterna.input.KeyType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 import static com.dksd.dvim.utils.PathHelper.getCurrentDir;
-import static com.dksd.dvim.utils.PathHelper.loadFilesIntoBufs;
+import static com.dksd.dvim.utils.PathHelper.registerFiles;
 import static com.dksd.dvim.utils.PathHelper.streamPathToStr;
 import static com.dksd.dvim.view.View.SIDE_BUFFER;
 
@@ -159,15 +160,31 @@ public class VKeyMaps {
             return null;//no mapping
         }, true);
         tm.putKeyMap(VimMode.COMMAND, "/", "search for text and jump to the text", s -> {
+            Buf searchBuf = vimEng.getView().getActiveBuf();
             vimEng.setVimMode(VimMode.INSERT);
             telescope(vimEng,
                     tm,
-                    vimEng.getView().getActiveBuf().getLinesDangerous(),
+                    searchBuf.getLinesDangerous(),
                     obj -> obj.getContent() + ((obj.getGhostContent() != null) ? " : " + obj.getGhostContent() : ""),
                     tele -> {
+                        Line query = tele.getInputBuf().getLine(0);
+                        int foundRow = tele.getSelectedOptionIndex();
+                        if (query != null && !query.isEmpty()) {
+                            //What was typed becomes the pattern for n and N, the jump is to the chosen row if there is one.
+                            if (foundRow >= 0) {
+                                vimEng.search(searchBuf, query.getContent(), foundRow);
+                            } else {
+                                vimEng.search(searchBuf, query.getContent());
+                            }
+                            vimEng.setVimMode(VimMode.COMMAND);
+                            return null;
+                        }
+                        if (foundRow < 0) {
+                            vimEng.setVimMode(VimMode.COMMAND);
+                            return null;
+                        }
                         Line selected = tele.getEitherResult();
                         Buf activeBuf = vimEng.getView().getActiveBuf();
-                        int foundRow = selected.getLineNumber();
                         String foundStr = vimEng.getLineAt(foundRow).getContent();
                         vimEng.moveCursor(activeBuf.getBufNo(),
                                 foundRow - vimEng.getRow(),
@@ -270,10 +287,10 @@ public class VKeyMaps {
             return null;//no mapping
         });
         tm.putKeyMap(VimMode.COMMAND, "p", "paste clipboard", s -> {
-            Line line = vimEng.getCurrentLine();
-            int col = vimEng.getCol();
-            String l = line.getContent().substring(0, col) + harpoons.getClipboard().current() + line.getContent().substring(col);
-            vimEng.setLine(vimEng.getRow(), l);
+            List<String> clipboard = harpoons.getClipboard().current();
+            if (clipboard != null) {
+                vimEng.pasteLines(clipboard);
+            }
             return null;//no mapping
         });
         tm.putKeyMap(VimMode.COMMAND, "u", "undo the last action", s -> {
@@ -281,12 +298,28 @@ public class VKeyMaps {
             vimEng.popPrevChange();
             return null;//no mapping
         });
+        tm.putKeyMap(VimMode.COMMAND, "<c-r>", "redo the last undone change", s -> {
+            vimEng.redoChange();
+            return null;//no mapping
+        });
+        tm.putKeyMap(VimMode.COMMAND, "g-", "go to the older undo state, across branches", s -> {
+            vimEng.travelChanges(-1);
+            return null;//no mapping
+        });
+        tm.putKeyMap(VimMode.COMMAND, "g+", "go to the newer undo state, across branches", s -> {
+            vimEng.travelChanges(1);
+            return null;//no mapping
+        });
         tm.putKeyMap(VimMode.COMMAND, ".", "redo the last action", s -> {
             //vimEng.setVimMode(VimMode.INSERT);
             tm.getPrevFunctionRuns().getFirst().getLastFunc().apply(vimEng.getCurrentLine().getContent());
             return null;//no mapping
         });
         tm.putKeyMap(VimMode.COMMAND, "i", "desc", s -> {
+            if (vimEng.getActiveBuf().isReadOnly()) {
+                vimEng.getView().popupErrorMessage("Buffer is read only", 3, TimeUnit.SECONDS);
+                return null;//no mapping
+            }
             vimEng.setVimMode(VimMode.INSERT);
             System.out.println("Pressed i to go into insert mode");
             return null;//no mapping
@@ -315,8 +348,11 @@ public class VKeyMaps {
                     streamPathToStr(harpoons.getDirs().current(), Files::isRegularFile).toList(),
                     null,
                     tele -> {
-                        List<Line> ls = PathHelper.readFile(Path.of(tele.getEitherResult().getContent()));
-                        activeBuf.setLines(ls, 0);
+                        try {
+                            activeBuf.loadFile(Path.of(tele.getEitherResult().getContent()));
+                        } catch (IOException e) {
+                            logger.error("Failed to load file", e);
+                        }
                         return tele.getEitherResult().getContent();
                     });
             return null;
@@ -341,7 +377,7 @@ public class VKeyMaps {
             return null;
         });
         tm.putKeyMap(VimMode.COMMAND, ":", "open command window", s -> {
-            List<String> options = List.of("write", "read", "quit", "find", "grep");
+            List<String> options = List.of("write", "wall", "read", "quit", "find", "grep", "earlier", "later");
             Buf activeBuf = vimEng.getActiveBuf();
             telescope(vimEng, tm,
                     options,
@@ -400,21 +436,34 @@ public class VKeyMaps {
             return null;//no mapping
         });
         tm.putKeyMap(VimMode.COMMAND, "<leader>to", "todo manager", s -> {
-            loadFilesIntoBufs(harpoons.getTodoProjects(),
+            registerFiles(harpoons.getTodoProjects(),
                     Path.of("/Users/dylan/Developer/todo"),
-                    Files::isRegularFile,
-                    vimEng.getEvents());
+                    Files::isRegularFile);
             setMainBufFromBuf(vimEng, harpoons.getTodoProjects().current());
             //Ok so now what? folding, move up, move down
             return null;//no mapping // great idea is to execute a whole buch of functions.
         });
+        tm.putKeyMap(VimMode.COMMAND, "<leader>tn", "next todo project", s -> {
+            keepTodoEdits(vimEng);
+            setMainBufFromBuf(vimEng, harpoons.getTodoProjects().next());
+            return null;
+        });
+        tm.putKeyMap(VimMode.COMMAND, "<leader>tp", "previous todo project", s -> {
+            keepTodoEdits(vimEng);
+            setMainBufFromBuf(vimEng, harpoons.getTodoProjects().prev());
+            return null;
+        });
+        vimEng.addSaveAllTask(this::saveTodoProjects);
+        vimEng.addStopTask(ve -> {
+            saveTodoProjects(ve);
+            harpoons.getTodoProjects().close();
+        });
         tm.putKeyMap(VimMode.COMMAND, "<leader>m<up>", "move todo up", s -> {
-            TodoHelper.moveTodoUpVim(vimEng.getRow(), vimEng.getActiveBuf().getLinesDangerous());
+            TodoHelper.moveTodoUpVim(vimEng.getRow(), vimEng.getActiveBuf());
             return null;
         });
         tm.putKeyMap(VimMode.COMMAND, "<leader>m<down>", "move todo down", s -> {
-            //Probably will complain about inmodifiable list
-            TodoHelper.moveTodoDownVim(vimEng.getRow(), vimEng.getActiveBuf().getLinesDangerous());
+            TodoHelper.moveTodoDownVim(vimEng.getRow(), vimEng.getActiveBuf());
             return null;
         });
         tm.putKeyMap(VimMode.COMMAND, "<leader>gl", "list git branches", s -> {
@@ -535,9 +584,12 @@ public class VKeyMaps {
             vimEng.writeBuf(" ");
             return null;//no mapping
         });
-        tm.putKeyMap(VimMode.COMMAND, "n", "desc", s -> {
-            //findForward(getIntVar("search_buf_no"));
-            //TODO
+        tm.putKeyMap(VimMode.COMMAND, "n", "jump to the next match of the search", s -> {
+            vimEng.searchNext(vimEng.getActiveBuf(), true);
+            return null;//no mapping
+        });
+        tm.putKeyMap(VimMode.COMMAND, "<s-N>", "jump to the previous match of the search", s -> {
+            vimEng.searchNext(vimEng.getActiveBuf(), false);
             return null;//no mapping
         });
         /*tm.putKeyMap(VimMode.COMMAND, ":grep", "desc", s -> {
@@ -585,6 +637,29 @@ public class VKeyMaps {
         });*/
     }
 
+    /**
+     * The main buffer edits a copy of the current todo project, the copy goes back into the manager before
+     * moving off it so switching projects or saving them all doesn't lose what was typed.
+     */
+    private void keepTodoEdits(VimEng vimEng) {
+        Path currentPath = harpoons.getTodoProjects().getCurrentPath();
+        Buf mainBuf = vimEng.getView().getMainBuffer();
+        if (currentPath != null && mainBuf.getFilename() != null
+                && Path.of(mainBuf.getFilename()).toAbsolutePath().normalize().equals(currentPath)) {
+            harpoons.getTodoProjects().current().setLines(mainBuf.snapshot().stableLines(), 0);
+        }
+    }
+
+    private void saveTodoProjects(VimEng vimEng) {
+        keepTodoEdits(vimEng);
+        try {
+            harpoons.getTodoProjects().saveAll();
+        } catch (IOException e) {
+            logger.error("Failed to save todo projects", e);
+            vimEng.getView().popupErrorMessage("Failed to save todo projects: " + e.getMessage(), 5, TimeUnit.SECONDS);
+        }
+    }
+
     private void setMainBufFromBuf(VimEng vimEng, Buf current) {
         if (current == null) {
             return;
@@ -196,7 +196,7 @@ public class TrieMapManager {
         List<Line> all = new ArrayList<>(400);
         for (Map.Entry<VimMode, Trie> entry : mappings.entrySet()) {
             for (TrieNode node : entry.getValue().getAllKeyMappings()) {
-                Line l = new Line(0, node.getLeft(), null);
+                Line l = new Line(node.getLeft(), null);
                 l.setGhostContent(node.getDesc());
                 all.add(l);
             }
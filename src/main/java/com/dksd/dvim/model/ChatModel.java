@@ -8,6 +8,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
+import java.util.List;
 
 public class ChatModel {
 
@@ -44,10 +45,7 @@ public class ChatModel {
             @Override
             public void onCompleteResponse(ChatResponse completeResponse) {
                 destBuf.addRow("====Completed response=========");
-                String[] ls = completeResponse.aiMessage().text().split("\n");
-                for (int i = 0; i < ls.length; i++) {
-                    destBuf.addRow(ls[i]);
-                }
+                destBuf.addRows(List.of(completeResponse.aiMessage().text().split("\n")));
                 //int inTokens = completeResponse.tokenUsage().inputTokenCount();
                 //int outTokens = completeResponse.tokenUsage().outputTokenCount();
                 //long storageUsed = completeResponse.aiMessage().toString().length();
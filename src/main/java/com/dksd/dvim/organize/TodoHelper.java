@@ -1,5 +1,6 @@
 package com.dksd.dvim.organize;
 
+import com.dksd.dvim.buffer.Buf;
 import com.dksd.dvim.view.Line;
 
 import java.util.ArrayList;
@@ -9,7 +10,7 @@ import java.util.Objects;
 public class TodoHelper {
 
     private static TodoCursor findTodo(int row, List<Line> buffer) {
-        if (row < 0 || (row == 0 && row + 1 == buffer.size())) {
+        if (row < 0 || row >= buffer.size() || (row == 0 && row + 1 == buffer.size())) {
             return null;
         }
         boolean flag = false;
@@ -68,32 +69,38 @@ public class TodoHelper {
         return minIndent;
     }
 
-    public static void moveTodoUpVim(int row, List<Line> buffer) {
+    public static void moveTodoUpVim(int row, Buf buf) {
+        List<Line> buffer = buf.getLinesDangerous();
         TodoCursor entry = findTodo(row, buffer);
+        if (entry == null) {
+            return;
+        }
         TodoCursor entryAbove = findTodo(entry.start - 1, buffer);
-        swapTodos(buffer, entry, entryAbove);
+        swapTodos(buf, entry, entryAbove);
     }
 
-    public static void moveTodoDownVim(int pos, List<Line> buffer) {
+    public static void moveTodoDownVim(int pos, Buf buf) {
+        List<Line> buffer = buf.getLinesDangerous();
         TodoCursor entry = findTodo(pos, buffer);
+        if (entry == null) {
+            return;
+        }
         TodoCursor entryBelow = findTodo(entry.end + 1, buffer);
-        swapTodos(buffer, entryBelow, entry);
+        swapTodos(buf, entryBelow, entry);
     }
 
-    private static void swapTodos(List<Line> buffer, TodoCursor entry, TodoCursor entryAbove) {
+    /**
+     * Moves entry to where entryAbove starts as one range replacement over both of them.
+     */
+    private static void swapTodos(Buf buf, TodoCursor entry, TodoCursor entryAbove) {
         if (entry == null || entryAbove == null) {
             return;
         }
-        List<Line> lines = new ArrayList<>();
-        int i = entry.end - entry.start;
-        while (i >=0) {
-            lines.add(buffer.remove(entry.start));
-            i--;
-        }
-        buffer.addAll(entryAbove.start, lines);
-        for (int j = 0; j < buffer.size(); j++) {
-            buffer.get(j).setLineNumber(j);
-        }
+        List<Line> buffer = buf.getLinesDangerous();
+        List<Line> swapped = new ArrayList<>(entry.end + 1 - entryAbove.start);
+        swapped.addAll(buffer.subList(entry.start, entry.end + 1));
+        swapped.addAll(buffer.subList(entryAbove.start, entry.start));
+        buf.edit(tx -> tx.replaceRange(entryAbove.start, entry.end + 1, swapped));
     }
 
     public static class TodoCursor {
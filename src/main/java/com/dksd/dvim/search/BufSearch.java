@@ -0,0 +1,278 @@
+package com.dksd.dvim.search;
+
+import com.dksd.dvim.internalbuf.BufSnapshot;
+import com.dksd.dvim.view.Line;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Search over the lines of a buffer. Rows are matched a chunk at a time and the matches of each chunk
+ * are cached against the chunk itself, so after an edit only the chunks the edit rebuilt are scanned again.
+ * Once the background count for a version is in, n and N are a binary search over its sorted results,
+ * until then they scan outwards from the cursor and stop at the first hit.
+ */
+public class BufSearch {
+
+    //Files with at least this many lines get a trigram index when they are opened.
+    public static final int INDEX_MIN_LINES = Integer.getInteger("dvim.trigramIndexMinLines", 20_000);
+    private final Supplier<BufSnapshot> snapshots;
+    private final Consumer<SearchResults> onCounted;
+    private volatile SearchState state;
+    private volatile TrigramIndex index;
+    //Snapshot version the index was last brought up to.
+    private volatile long indexedVersion = BufSnapshot.UNVERSIONED;
+
+    public BufSearch(Supplier<BufSnapshot> snapshots, Consumer<SearchResults> onCounted) {
+        this.snapshots = snapshots;
+        this.onCounted = onCounted;
+    }
+
+    /**
+     * @throws java.util.regex.PatternSyntaxException if the query is not a valid regex
+     */
+    public void setPattern(String query) {
+        state = new SearchState(SearchPattern.compile(query));
+    }
+
+    /**
+     * Keeps a trigram index of the buffer from now on, so searches can skip chunks that can't match.
+     */
+    public void enableIndex() {
+        if (index == null) {
+            index = new TrigramIndex();
+        }
+        index.updateInBackground(snapshots);
+    }
+
+    public TrigramIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Called when the buffer changes so the index can sign the chunks that were rebuilt.
+     */
+    public void bufferChanged() {
+        TrigramIndex current = index;
+        if (current == null) {
+            return;
+        }
+        //Cursor moves and repeat events don't change the lines, so there is nothing new to sign.
+        long version = snapshots.get().version();
+        if (version != BufSnapshot.UNVERSIONED && version == indexedVersion) {
+            return;
+        }
+        indexedVersion = version;
+        current.updateInBackground(snapshots);
+    }
+
+    /**
+     * Called when the buffer's lines are swapped for another InternalBuf. Versions start again with each
+     * one and mapped buffers are always at 0, so nothing counted, cached or signed against the old lines
+     * can be trusted. The pattern is kept.
+     */
+    public void linesReplaced() {
+        SearchState current = state;
+        if (current != null) {
+            state = new SearchState(current.pattern);
+        }
+        if (index != null) {
+            index = new TrigramIndex();
+        }
+        indexedVersion = BufSnapshot.UNVERSIONED;
+    }
+
+    public SearchPattern getPattern() {
+        SearchState current = state;
+        return (current == null) ? null : current.pattern;
+    }
+
+    /**
+     * Number of matches in the buffer as of the last finished count, or -1 if there isn't one yet.
+     */
+    public int getCount() {
+        SearchState current = state;
+        SearchResults results = (current == null) ? null : current.results;
+        return (results == null) ? -1 : results.count();
+    }
+
+    public Match next(int row, int col) {
+        return find(row, col, true);
+    }
+
+    public Match previous(int row, int col) {
+        return find(row, col, false);
+    }
+
+    /**
+     * Counts every match on the common pool, the results are passed on once they're in.
+     */
+    public CompletableFuture<SearchResults> countAll() {
+        SearchState current = state;
+        if (current == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return count(snapshots.get(), current);
+    }
+
+    private Match find(int row, int col, boolean forward) {
+        SearchState current = state;
+        if (current == null) {
+            return null;
+        }
+        BufSnapshot snapshot = snapshots.get();
+        SearchResults results = current.results;
+        if (results != null && snapshot.version() != BufSnapshot.UNVERSIONED
+                && results.getVersion() == snapshot.version()) {
+            return forward ? results.next(row, col) : results.previous(row, col);
+        }
+        count(snapshot, current);
+        return scan(snapshot, current, row, col, forward);
+    }
+
+    private CompletableFuture<SearchResults> count(BufSnapshot snapshot, SearchState current) {
+        synchronized (current) {
+            if (current.counting != null && (current.countingVersion == snapshot.version()
+                    || snapshot.version() == BufSnapshot.UNVERSIONED)) {
+                return current.counting;
+            }
+            current.countingVersion = snapshot.version();
+            bufferChanged();
+            CompletableFuture<SearchResults> counting = CompletableFuture.supplyAsync(() -> {
+                Chunks chunks = Chunks.of(snapshot);
+                List<ChunkMatches> matches = IntStream.range(0, chunks.count())
+                        .parallel()
+                        .mapToObj(c -> matches(current, chunks, c))
+                        .toList();
+                int[] starts = new int[chunks.count()];
+                for (int c = 0; c < starts.length; c++) {
+                    starts[c] = chunks.start(c);
+                }
+                return new SearchResults(snapshot.version(), matches, starts);
+            });
+            current.counting = counting;
+            counting.thenAccept(results -> {
+                synchronized (current) {
+                    current.counting = null;
+                }
+                current.results = results;
+                if (current == state) {
+                    onCounted.accept(results);
+                }
+            });
+            return counting;
+        }
+    }
+
+    /**
+     * Walks the chunks from the one holding row, wrapping round to come back to it last.
+     * Chunks are matched a wave at a time in parallel and the walk stops at the first wave with a hit.
+     */
+    private Match scan(BufSnapshot snapshot, SearchState current, int row, int col, boolean forward) {
+        Chunks chunks = Chunks.of(snapshot);
+        int count = chunks.count();
+        if (count == 0) {
+            return null;
+        }
+        int first = chunks.chunkOf(Math.min(row, snapshot.size() - 1));
+        long cursor = SearchResults.position(row, col);
+        int wave = Math.max(1, ForkJoinPool.getCommonPoolParallelism()) * 4;
+        for (int waveStart = 0; waveStart <= count; waveStart += wave) {
+            int waveEnd = Math.min(count + 1, waveStart + wave);
+            ChunkMatches[] waveMatches = new ChunkMatches[waveEnd - waveStart];
+            int base = waveStart;
+            IntStream.range(waveStart, waveEnd).parallel().forEach(i ->
+                    waveMatches[i - base] = matches(current, chunks, chunkAt(first, i, count, forward)));
+            for (int i = waveStart; i < waveEnd; i++) {
+                int start = chunks.start(chunkAt(first, i, count, forward));
+                ChunkMatches matches = waveMatches[i - waveStart];
+                for (int m = 0; m < matches.count(); m++) {
+                    int index = forward ? m : matches.count() - 1 - m;
+                    long position = SearchResults.position(start + matches.rows()[index], matches.starts()[index]);
+                    boolean past = forward ? position > cursor : position < cursor;
+                    if (i > 0 || past) {
+                        return new Match(start + matches.rows()[index], matches.starts()[index], matches.ends()[index]);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int chunkAt(int first, int step, int count, boolean forward) {
+        return forward ? (first + step) % count : (first - step % count + count) % count;
+    }
+
+    private ChunkMatches matches(SearchState current, Chunks chunks, int c) {
+        Object key = chunks.key(c);
+        if (key != null) {
+            ChunkMatches cached = current.cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        TrigramIndex trigramIndex = index;
+        if (trigramIndex != null && !trigramIndex.mayContain(key, current.trigrams)) {
+            return ChunkMatches.NONE;
+        }
+        SearchPattern.LineMatcher matcher = current.pattern.matcher();
+        List<Line> rows = chunks.rows(c);
+        int[] matchRows = new int[8];
+        int[] starts = new int[8];
+        int[] ends = new int[8];
+        int found = 0;
+        for (int r = 0; r < rows.size(); r++) {
+            Line line = rows.get(r);
+            String content = (line == null) ? "" : line.getContent();
+            int from = 0;
+            int start;
+            while ((start = matcher.find(content, from)) >= 0) {
+                if (found == matchRows.length) {
+                    matchRows = Arrays.copyOf(matchRows, found * 2);
+                    starts = Arrays.copyOf(starts, found * 2);
+                    ends = Arrays.copyOf(ends, found * 2);
+                }
+                matchRows[found] = r;
+                starts[found] = start;
+                ends[found++] = matcher.end();
+                //Step past empty matches or they'd be found forever.
+                from = Math.max(matcher.end(), start + 1);
+            }
+        }
+        ChunkMatches matches = (found == 0) ? ChunkMatches.NONE : new ChunkMatches(
+                Arrays.copyOf(matchRows, found), Arrays.copyOf(starts, found), Arrays.copyOf(ends, found));
+        if (key != null) {
+            current.cache.put(key, matches);
+        }
+        return matches;
+    }
+
+    /**
+     * Everything that belongs to one pattern, replaced as a whole when the pattern changes so that
+     * work still running for the old one can't leak into the new one.
+     */
+    private static final class SearchState {
+
+        private final SearchPattern pattern;
+        private final long[] trigrams;
+        //Weak so chunks no rope holds any more drop out, rope chunk keys compare by identity.
+        //Window numbers of read only buffers can drop out at any GC too, which only costs a rescan.
+        private final Map<Object, ChunkMatches> cache = Collections.synchronizedMap(new WeakHashMap<>());
+        private volatile SearchResults results;
+        private CompletableFuture<SearchResults> counting;
+        private long countingVersion = BufSnapshot.UNVERSIONED;
+
+        private SearchState(SearchPattern pattern) {
+            this.pattern = pattern;
+            this.trigrams = TrigramIndex.trigrams(pattern.requiredLiterals());
+        }
+    }
+}
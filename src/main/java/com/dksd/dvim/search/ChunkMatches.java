@@ -0,0 +1,13 @@
+package com.dksd.dvim.search;
+
+/**
+ * The matches in one chunk of rows, in order, with rows relative to the start of the chunk.
+ */
+record ChunkMatches(int[] rows, int[] starts, int[] ends) {
+
+    static final ChunkMatches NONE = new ChunkMatches(new int[0], new int[0], new int[0]);
+
+    int count() {
+        return rows.length;
+    }
+}
@@ -0,0 +1,58 @@
+package com.dksd.dvim.search;
+
+import com.dksd.dvim.internalbuf.BufSnapshot;
+import com.dksd.dvim.internalbuf.LineRope;
+import com.dksd.dvim.view.Line;
+
+import java.util.List;
+
+/**
+ * The rows of a snapshot in chunks, the rope's own chunks when it is one and fixed windows otherwise.
+ * Rope chunks are keyed by identity and fixed windows by number, but only when the snapshot is versioned,
+ * otherwise the rows behind a window can change and there is no key to cache against.
+ */
+record Chunks(List<Line> lines, LineRope rope, boolean versioned) {
+
+    static final int WINDOW_ROWS = LineRope.CHUNK_SIZE;
+
+    static Chunks of(BufSnapshot snapshot) {
+        return new Chunks(snapshot.lines(), (snapshot.lines() instanceof LineRope rope) ? rope : null,
+                snapshot.version() != BufSnapshot.UNVERSIONED);
+    }
+
+    int count() {
+        return (rope != null) ? rope.chunkCount() : (lines.size() + WINDOW_ROWS - 1) / WINDOW_ROWS;
+    }
+
+    int start(int c) {
+        return (rope != null) ? rope.chunkStart(c) : c * WINDOW_ROWS;
+    }
+
+    List<Line> rows(int c) {
+        return (rope != null) ? rope.chunk(c) : lines.subList(start(c), Math.min(lines.size(), start(c) + WINDOW_ROWS));
+    }
+
+    Object key(int c) {
+        if (rope != null) {
+            return rope.chunkKey(c);
+        }
+        return versioned ? Integer.valueOf(c) : null;
+    }
+
+    int chunkOf(int row) {
+        if (rope == null) {
+            return row / WINDOW_ROWS;
+        }
+        int low = 0;
+        int high = rope.chunkCount() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (rope.chunkStart(mid) <= row) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,7 @@
+package com.dksd.dvim.search;
+
+/**
+ * A match of the search in row, covering cols [col, end).
+ */
+public record Match(int row, int col, int end) {
+}
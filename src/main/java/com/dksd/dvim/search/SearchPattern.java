@@ -0,0 +1,188 @@
+package com.dksd.dvim.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A compiled search query. Queries without any regex syntax are matched with indexOf,
+ * which is a good deal cheaper than running them through a Matcher.
+ */
+public final class SearchPattern {
+
+    private static final String REGEX_CHARS = ".[]{}()*+?^$|\\";
+    //Escapes that stand for one char of a class, anything else after a backslash gives up on literals.
+    private static final String CLASS_ESCAPES = "dDwWsSbB";
+    private final String query;
+    private final Pattern regex;
+
+    private SearchPattern(String query, Pattern regex) {
+        this.query = query;
+        this.regex = regex;
+    }
+
+    /**
+     * @throws java.util.regex.PatternSyntaxException if the query looks like a regex but isn't a valid one
+     */
+    public static SearchPattern compile(String query) {
+        for (int i = 0; i < query.length(); i++) {
+            if (REGEX_CHARS.indexOf(query.charAt(i)) >= 0) {
+                return new SearchPattern(query, Pattern.compile(query));
+            }
+        }
+        return new SearchPattern(query, null);
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public boolean isLiteral() {
+        return regex == null;
+    }
+
+    /**
+     * Runs of text every match is sure to contain, used to rule out lines without looking at them.
+     * Only simple regexes are picked apart, for anything with alternation, flags or unusual escapes
+     * this is empty, which rules nothing out.
+     */
+    public List<String> requiredLiterals() {
+        if (regex == null) {
+            return List.of(query);
+        }
+        if (query.contains("|") || query.contains("(?")) {
+            return List.of();
+        }
+        List<String> runs = new ArrayList<>();
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (c == '\\') {
+                if (i + 1 >= query.length()) {
+                    return List.of();
+                }
+                char escaped = query.charAt(++i);
+                if (Character.isLetterOrDigit(escaped)) {
+                    if (CLASS_ESCAPES.indexOf(escaped) < 0) {
+                        return List.of();
+                    }
+                    flush(run, runs);
+                } else if (depth == 0) {
+                    run.append(escaped);
+                }
+            } else if (c == '*' || c == '?' || c == '{') {
+                //The char before is optional.
+                if (!run.isEmpty()) {
+                    run.setLength(run.length() - 1);
+                }
+                flush(run, runs);
+                i = (c == '{') ? skipTo(query, i, '}') : i;
+            } else if (c == '[') {
+                flush(run, runs);
+                i = skipTo(query, i, ']');
+            } else if (c == '(' || c == ')') {
+                //A group may be optional or repeated as a whole, so nothing inside one counts.
+                flush(run, runs);
+                depth += (c == '(') ? 1 : -1;
+            } else if (REGEX_CHARS.indexOf(c) >= 0) {
+                flush(run, runs);
+            } else if (depth == 0) {
+                run.append(c);
+            }
+        }
+        flush(run, runs);
+        return runs;
+    }
+
+    private static void flush(StringBuilder run, List<String> runs) {
+        if (!run.isEmpty()) {
+            runs.add(run.toString());
+            run.setLength(0);
+        }
+    }
+
+    private static int skipTo(String str, int from, char end) {
+        for (int i = from + 1; i < str.length(); i++) {
+            if (str.charAt(i) == '\\') {
+                i++;
+            } else if (str.charAt(i) == end) {
+                return i;
+            }
+        }
+        return str.length();
+    }
+
+    /**
+     * A matcher for one thread to reuse across lines.
+     */
+    public LineMatcher matcher() {
+        if (regex == null) {
+            return new LiteralMatcher(query);
+        }
+        return new RegexMatcher(regex.matcher(""));
+    }
+
+    public interface LineMatcher {
+
+        /**
+         * Start of the first match in line at or after from, or -1 if there isn't one.
+         */
+        int find(String line, int from);
+
+        /**
+         * End of the match last found.
+         */
+        int end();
+    }
+
+    private static final class LiteralMatcher implements LineMatcher {
+
+        private final String query;
+        private int end;
+
+        private LiteralMatcher(String query) {
+            this.query = query;
+        }
+
+        @Override
+        public int find(String line, int from) {
+            if (query.isEmpty()) {
+                return -1;
+            }
+            int start = line.indexOf(query, from);
+            end = start + query.length();
+            return start;
+        }
+
+        @Override
+        public int end() {
+            return end;
+        }
+    }
+
+    private static final class RegexMatcher implements LineMatcher {
+
+        private final Matcher matcher;
+        private String current;
+
+        private RegexMatcher(Matcher matcher) {
+            this.matcher = matcher;
+        }
+
+        @Override
+        public int find(String line, int from) {
+            if (line != current) {
+                matcher.reset(line);
+                current = line;
+            }
+            return (from <= line.length() && matcher.find(from)) ? matcher.start() : -1;
+        }
+
+        @Override
+        public int end() {
+            return matcher.end();
+        }
+    }
+}
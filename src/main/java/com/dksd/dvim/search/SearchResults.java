@@ -0,0 +1,74 @@
+package com.dksd.dvim.search;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Every match in one version of a buffer, sorted by position so the next or previous match
+ * from anywhere is a binary search away.
+ */
+public final class SearchResults {
+
+    private final long version;
+    //row << 32 | col of each match, ascending.
+    private final long[] positions;
+    private final int[] ends;
+
+    SearchResults(long version, List<ChunkMatches> chunks, int[] chunkStarts) {
+        this.version = version;
+        int total = 0;
+        for (ChunkMatches chunk : chunks) {
+            total += chunk.count();
+        }
+        positions = new long[total];
+        ends = new int[total];
+        int i = 0;
+        for (int c = 0; c < chunks.size(); c++) {
+            ChunkMatches chunk = chunks.get(c);
+            for (int m = 0; m < chunk.count(); m++) {
+                positions[i] = position(chunkStarts[c] + chunk.rows()[m], chunk.starts()[m]);
+                ends[i++] = chunk.ends()[m];
+            }
+        }
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int count() {
+        return positions.length;
+    }
+
+    public Match get(int index) {
+        return new Match((int) (positions[index] >>> 32), (int) positions[index], ends[index]);
+    }
+
+    /**
+     * The first match after (row, col), wrapping around to the top. Null if there are none.
+     */
+    public Match next(int row, int col) {
+        if (positions.length == 0) {
+            return null;
+        }
+        int found = Arrays.binarySearch(positions, position(row, col));
+        int index = (found >= 0) ? found + 1 : -found - 1;
+        return get(index % positions.length);
+    }
+
+    /**
+     * The last match before (row, col), wrapping around to the bottom. Null if there are none.
+     */
+    public Match previous(int row, int col) {
+        if (positions.length == 0) {
+            return null;
+        }
+        int found = Arrays.binarySearch(positions, position(row, col));
+        int index = ((found >= 0) ? found : -found - 1) - 1;
+        return get((index + positions.length) % positions.length);
+    }
+
+    static long position(int row, int col) {
+        return ((long) row << 32) | col;
+    }
+}
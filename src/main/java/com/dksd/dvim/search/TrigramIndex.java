@@ -0,0 +1,174 @@
+package com.dksd.dvim.search;
+
+import com.dksd.dvim.internalbuf.BufSnapshot;
+import com.dksd.dvim.view.Line;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Trigram signatures for the chunks of a buffer, so a search can skip chunks that can't hold a match
+ * without looking at their lines. Each chunk gets a bloom filter over its trigrams in a long[] sized to
+ * the number of distinct trigrams it has. Signatures are keyed on chunks the same way as the match cache,
+ * so after an edit only the chunks it rebuilt need signing and the rest of the index stays as it is.
+ * A chunk without a signature yet is just scanned.
+ */
+public class TrigramIndex {
+
+    //Rounded up to a power of two, so 6 to 12 bits per trigram, two probes each.
+    public static final int BITS_PER_TRIGRAM = 6;
+    private static final int MIN_BITS = 64;
+    private final Map<Object, long[]> ropeSignatures = Collections.synchronizedMap(new WeakHashMap<>());
+    private final Map<Object, long[]> windowSignatures = new ConcurrentHashMap<>();
+    private final AtomicBoolean updating = new AtomicBoolean();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    /**
+     * Signs every chunk of the snapshot that doesn't have a signature yet.
+     */
+    public void update(BufSnapshot snapshot) {
+        if (snapshot.version() == BufSnapshot.UNVERSIONED) {
+            return;
+        }
+        Chunks chunks = Chunks.of(snapshot);
+        IntStream.range(0, chunks.count()).parallel().forEach(c -> {
+            Object key = chunks.key(c);
+            if (signatures(key).get(key) == null) {
+                signatures(key).put(key, sign(chunks.rows(c)));
+            }
+        });
+    }
+
+    /**
+     * Brings the index up to date on a virtual thread. Calls while it is running are folded into one more pass.
+     */
+    public void updateInBackground(Supplier<BufSnapshot> snapshots) {
+        dirty.set(true);
+        if (!updating.compareAndSet(false, true)) {
+            return;
+        }
+        Thread.ofVirtual().name("trigram-index").start(() -> {
+            try {
+                while (dirty.getAndSet(false)) {
+                    update(snapshots.get());
+                }
+            } finally {
+                updating.set(false);
+            }
+            if (dirty.get()) {
+                updateInBackground(snapshots);
+            }
+        });
+    }
+
+    /**
+     * False only if the chunk is signed and is missing one of the trigrams.
+     */
+    public boolean mayContain(Object chunkKey, long[] trigrams) {
+        if (chunkKey == null || trigrams.length == 0) {
+            return true;
+        }
+        long[] signature = signatures(chunkKey).get(chunkKey);
+        if (signature == null) {
+            return true;
+        }
+        long mask = signature.length * 64L - 1;
+        for (long trigram : trigrams) {
+            long hash = mix(trigram);
+            if (!isSet(signature, hash & mask) || !isSet(signature, (hash >>> 32) & mask)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getSignatureBytes() {
+        long bytes = 0;
+        synchronized (ropeSignatures) {
+            for (long[] signature : ropeSignatures.values()) {
+                bytes += signature.length * 8L;
+            }
+        }
+        for (long[] signature : windowSignatures.values()) {
+            bytes += signature.length * 8L;
+        }
+        return bytes;
+    }
+
+    /**
+     * The distinct trigrams of every literal, all of which a line has to hold to match.
+     */
+    public static long[] trigrams(List<String> literals) {
+        long[] keys = new long[0];
+        int count = 0;
+        for (String literal : literals) {
+            keys = Arrays.copyOf(keys, count + Math.max(0, literal.length() - 2));
+            count = addTrigrams(literal, keys, count);
+        }
+        return distinct(keys, count);
+    }
+
+    static long[] sign(List<Line> rows) {
+        long[] keys = new long[256];
+        int count = 0;
+        for (Line line : rows) {
+            String content = (line == null) ? "" : line.getContent();
+            if (count + content.length() > keys.length) {
+                keys = Arrays.copyOf(keys, Math.max(keys.length * 2, count + content.length()));
+            }
+            count = addTrigrams(content, keys, count);
+        }
+        long[] distinct = distinct(keys, count);
+        int bits = Integer.highestOneBit(Math.max(MIN_BITS, distinct.length * BITS_PER_TRIGRAM - 1)) << 1;
+        long[] signature = new long[bits / 64];
+        long mask = bits - 1;
+        for (long trigram : distinct) {
+            long hash = mix(trigram);
+            set(signature, hash & mask);
+            set(signature, (hash >>> 32) & mask);
+        }
+        return signature;
+    }
+
+    private Map<Object, long[]> signatures(Object key) {
+        return (key instanceof Integer) ? windowSignatures : ropeSignatures;
+    }
+
+    private static int addTrigrams(String str, long[] keys, int count) {
+        for (int i = 0; i + 2 < str.length(); i++) {
+            keys[count++] = ((long) str.charAt(i) << 32) | ((long) str.charAt(i + 1) << 16) | str.charAt(i + 2);
+        }
+        return count;
+    }
+
+    private static long[] distinct(long[] keys, int count) {
+        Arrays.sort(keys, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || keys[unique - 1] != keys[i]) {
+                keys[unique++] = keys[i];
+            }
+        }
+        return Arrays.copyOf(keys, unique);
+    }
+
+    private static long mix(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 29);
+    }
+
+    private static boolean isSet(long[] bits, long index) {
+        return (bits[(int) (index >>> 6)] & (1L << index)) != 0;
+    }
+
+    private static void set(long[] bits, long index) {
+        bits[(int) (index >>> 6)] |= 1L << index;
+    }
+}
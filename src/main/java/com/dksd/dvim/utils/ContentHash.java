@@ -0,0 +1,61 @@
+package com.dksd.dvim.utils;
+
+import com.dksd.dvim.view.Line;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * 64 bit hash of the contents of a list of lines, used to tell whether a buffer still matches what
+ * was saved or journaled. It is the first 8 bytes of a SHA-256 over each line's length and chars, so
+ * unlike String.hashCode two different edits can't be made to collide.
+ */
+public class ContentHash {
+
+    private static final int SCRATCH_BYTES = 8 * 1024;
+
+    public static long of(List<Line> lines) {
+        MessageDigest digest = sha256();
+        byte[] scratch = new byte[SCRATCH_BYTES];
+        for (Line line : lines) {
+            update(digest, scratch, line.getContent());
+        }
+        long hash = 0;
+        byte[] sum = digest.digest();
+        for (int i = 0; i < Long.BYTES; i++) {
+            hash = (hash << 8) | (sum[i] & 0xFF);
+        }
+        return hash;
+    }
+
+    /**
+     * Feeds the length and then the chars two bytes at a time through scratch, so no line is copied or encoded.
+     */
+    private static void update(MessageDigest digest, byte[] scratch, String content) {
+        int length = content.length();
+        int used = 0;
+        scratch[used++] = (byte) (length >>> 24);
+        scratch[used++] = (byte) (length >>> 16);
+        scratch[used++] = (byte) (length >>> 8);
+        scratch[used++] = (byte) length;
+        for (int i = 0; i < length; i++) {
+            if (used == scratch.length) {
+                digest.update(scratch, 0, used);
+                used = 0;
+            }
+            char c = content.charAt(i);
+            scratch[used++] = (byte) (c >>> 8);
+            scratch[used++] = (byte) c;
+        }
+        digest.update(scratch, 0, used);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is missing", e);
+        }
+    }
+}
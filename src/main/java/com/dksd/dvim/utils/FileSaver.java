@@ -0,0 +1,235 @@
+package com.dksd.dvim.utils;
+
+import com.dksd.dvim.view.Line;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Writes buffers out on virtual threads. The lines go through a FileChannel into a temp file next to
+ * the target, which is forced to disk and then renamed over the target, so a crash part way through
+ * leaves the old file as it was. A symlink is followed so the file it points at is replaced rather than
+ * the link, and the replacement keeps the old file's permissions, owner and group. A save is skipped only
+ * when it is handed the very same snapshot as the last save to that path and the file hasn't been touched
+ * since. Saves to one path run in the order they were asked for.
+ */
+public class FileSaver {
+
+    public static final int WRITE_BUFFER_SIZE = Integer.getInteger("dvim.saveBufferBytes", 4 * 1024 * 1024);
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+    private final Executor executor = task -> Thread.ofVirtual().name("file-saver").start(task);
+    private final Map<Path, Saved> saved = new ConcurrentHashMap<>();
+    private final Map<Path, CompletableFuture<SaveResult>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param stamp the file as it was right after the save, null if it was gone again
+     */
+    public record SaveResult(Path path, long contentHash, boolean written, Stamp stamp) {
+    }
+
+    /**
+     * Size and modified time of a file, enough to tell our own write from someone else's without reading it.
+     */
+    public record Stamp(long size, long lastModified) {
+
+        /**
+         * The stamp the file has now, null if there is no file.
+         */
+        public static Stamp of(Path path) throws IOException {
+            if (!Files.exists(path)) {
+                return null;
+            }
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return new Stamp(attributes.size(), attributes.lastModifiedTime().toMillis());
+        }
+    }
+
+    /**
+     * @param lines the snapshot that was written, weakly held so a closed buffer's lines can go
+     */
+    private record Saved(WeakReference<List<Line>> lines, Stamp stamp) {
+    }
+
+    /**
+     * Saves the lines in the background. They must not change until the save is done, which a buffer
+     * snapshot guarantees.
+     */
+    public CompletableFuture<SaveResult> save(Path target, List<Line> lines) {
+        Path path = target.toAbsolutePath().normalize();
+        CompletableFuture<SaveResult> save = inFlight.compute(path, (p, previous) ->
+                ((previous == null) ? CompletableFuture.<SaveResult>completedFuture(null) : previous.exceptionally(e -> null))
+                        .thenApplyAsync(ignored -> saveNow(p, lines), executor));
+        save.whenComplete((result, e) -> inFlight.remove(path, save));
+        return save;
+    }
+
+    private SaveResult saveNow(Path path, List<Line> lines) {
+        long contentHash = ContentHash.of(lines);
+        try {
+            Saved last = saved.get(path);
+            Stamp stamp = Stamp.of(path);
+            //A snapshot is immutable, so the same one means the same contents. A matching hash alone isn't trusted.
+            if (last != null && last.lines().get() == lines && stamp != null && stamp.equals(last.stamp())) {
+                return new SaveResult(path, contentHash, false, stamp);
+            }
+            write(path, lines);
+            stamp = Stamp.of(path);
+            saved.put(path, new Saved(new WeakReference<>(lines), stamp));
+            return new SaveResult(path, contentHash, true, stamp);
+        } catch (IOException e) {
+            saved.remove(path);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the lines to target on the calling thread, by way of a temp file that is renamed over it.
+     */
+    public static void write(Path target, List<Line> lines) throws IOException {
+        Path file = followLinks(target);
+        Path dir = file.getParent();
+        boolean exists = Files.exists(file);
+        Path temp = exists ? Files.createTempFile(dir, "." + file.getFileName(), ".dvim-save") : createNew(dir, file);
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+                CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+                for (Line line : lines) {
+                    encode(channel, buffer, encoder, line.getContent());
+                    if (buffer.remaining() < LINE_SEPARATOR.length) {
+                        drain(channel, buffer);
+                    }
+                    buffer.put(LINE_SEPARATOR);
+                }
+                drain(channel, buffer);
+                channel.force(true);
+            }
+            if (exists) {
+                keepAttributes(file, temp);
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        forceDirectory(dir);
+    }
+
+    private static void encode(FileChannel channel, ByteBuffer buffer, CharsetEncoder encoder, String content) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(content);
+        encoder.reset();
+        CoderResult result;
+        while ((result = encoder.encode(chars, buffer, true)).isOverflow()) {
+            drain(channel, buffer);
+        }
+        while ((result = encoder.flush(buffer)).isOverflow()) {
+            drain(channel, buffer);
+        }
+        if (result.isError()) {
+            result.throwException();
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * The file target ends up at once every symlink on the way is followed, even one that points at a file
+     * that isn't there yet, so saving writes through the link instead of replacing it.
+     */
+    private static Path followLinks(Path target) throws IOException {
+        Path file = target.toAbsolutePath().normalize();
+        if (Files.exists(file)) {
+            return file.toRealPath();
+        }
+        for (int hops = 0; hops < 40 && Files.isSymbolicLink(file); hops++) {
+            file = file.getParent().resolve(Files.readSymbolicLink(file)).normalize();
+        }
+        return file;
+    }
+
+    /**
+     * The temp file for a file that doesn't exist yet. It is created plainly rather than owner only like
+     * {@link Files#createTempFile}, so the saved file gets the default permissions the umask allows.
+     */
+    private static Path createNew(Path dir, Path file) throws IOException {
+        while (true) {
+            String suffix = Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36);
+            try {
+                return Files.createFile(dir.resolve("." + file.getFileName() + suffix + ".dvim-save"));
+            } catch (FileAlreadyExistsException e) {
+                //noop try another name
+            }
+        }
+    }
+
+    /**
+     * Temp files are created owner only, the saved file should keep the permissions, owner and group it had.
+     * Only root can give a file away and only to groups it is in, so an owner or group that can't be set is left.
+     */
+    private static void keepAttributes(Path file, Path temp) throws IOException {
+        PosixFileAttributeView view = Files.getFileAttributeView(temp, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+        if (view == null) {
+            return;//not a posix file system
+        }
+        PosixFileAttributes attributes = Files.readAttributes(file, PosixFileAttributes.class);
+        PosixFileAttributes current = view.readAttributes();
+        try {
+            if (!attributes.owner().equals(current.owner())) {
+                view.setOwner(attributes.owner());
+            }
+        } catch (IOException e) {
+            //noop not allowed to
+        }
+        try {
+            if (!attributes.group().equals(current.group())) {
+                view.setGroup(attributes.group());
+            }
+        } catch (IOException e) {
+            //noop not allowed to
+        }
+        //after the owner, changing it can clear the setuid and setgid bits
+        view.setPermissions(attributes.permissions());
+    }
+
+    /**
+     * Makes the rename itself durable. Not every platform lets a directory be opened, it is only lost durability if not.
+     */
+    private static void forceDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException | UnsupportedOperationException e) {
+            //noop
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.dksd.dvim.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches files for changes made by other programs with a {@link WatchService}, registering each directory once.
+ * Each file is counted, it stops being reported once it has been unwatched as often as it was watched.
+ * Events are gathered for {@link #SETTLE_MS} after the first one, so a file written in several goes or a
+ * checkout touching many files is reported once per file, on the watcher's virtual thread.
+ */
+public class FileWatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileWatcher.class);
+    public static final long SETTLE_MS = Long.getLong("dvim.watchSettleMs", 100);
+    private final WatchService watchService;
+    private final Consumer<Path> onChange;
+    private final Map<Path, Integer> files = new ConcurrentHashMap<>();
+    private final Map<Path, WatchKey> dirs = new ConcurrentHashMap<>();
+
+    public FileWatcher(Consumer<Path> onChange) throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.onChange = onChange;
+        Thread.ofVirtual().name("file-watcher").start(this::run);
+    }
+
+    public void watch(Path file) throws IOException {
+        Path path = file.toAbsolutePath().normalize();
+        try {
+            dirs.computeIfAbsent(path.getParent(), dir -> {
+                try {
+                    return dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        files.merge(path, 1, Integer::sum);
+    }
+
+    public void unwatch(Path file) {
+        files.computeIfPresent(file.toAbsolutePath().normalize(), (path, count) -> (count > 1) ? count - 1 : null);
+    }
+
+    public boolean isWatching(Path file) {
+        return files.containsKey(file.toAbsolutePath().normalize());
+    }
+
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                Set<Path> changed = new LinkedHashSet<>();
+                WatchKey key = watchService.take();
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SETTLE_MS);
+                while (key != null) {
+                    collect(key, changed);
+                    key = watchService.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                }
+                for (Path path : changed) {
+                    try {
+                        onChange.accept(path);
+                    } catch (RuntimeException e) {
+                        logger.error("Failed to handle change to " + path, e);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            //noop closed
+        }
+    }
+
+    private void collect(WatchKey key, Set<Path> changed) {
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                //Lost track of what changed, so anything watched in the directory might have.
+                for (Path file : files.keySet()) {
+                    if (file.getParent().equals(dir)) {
+                        changed.add(file);
+                    }
+                }
+            } else {
+                Path file = dir.resolve((Path) event.context());
+                if (files.containsKey(file)) {
+                    changed.add(file);
+                }
+            }
+        }
+        key.reset();
+    }
+}
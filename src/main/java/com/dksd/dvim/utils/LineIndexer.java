@@ -0,0 +1,144 @@
+package com.dksd.dvim.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Finds line boundaries by splitting the bytes into chunks and scanning them for '\n'
+ * in parallel on a ForkJoinPool, writing every chunk's results into one offset table.
+ * The table holds the offset of every '\n' plus the total length when the last line is unterminated,
+ * so line i spans [i == 0 ? 0 : ends[i - 1] + 1, ends[i]).
+ */
+public class LineIndexer {
+
+    public static final int CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final long REGION_SIZE = 1L << 30;
+    private static final long NEW_LINES = 0x0A0A0A0A0A0A0A0AL;
+    private static final long LOW_BITS = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    public static long[] index(Path path) throws IOException {
+        return index(path, ForkJoinPool.commonPool());
+    }
+
+    public static long[] index(Path path, ForkJoinPool pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            List<ByteBuffer> regions = new ArrayList<>();
+            for (long start = 0; start < size; start += REGION_SIZE) {
+                regions.add(channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, size - start)));
+            }
+            return index(regions, pool);
+        }
+    }
+
+    public static long[] index(byte[] bytes) {
+        return index(List.of(ByteBuffer.wrap(bytes)), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Indexes consecutive regions as if they were one stream of bytes.
+     * The chunks are scanned twice, once to count their line ends and once to write them straight into
+     * the one table at the offset the counts give, so no per chunk results are held while the table is filled.
+     */
+    public static long[] index(List<ByteBuffer> regions, ForkJoinPool pool) {
+        List<Chunk> chunks = new ArrayList<>();
+        long base = 0;
+        ByteBuffer lastRegion = null;
+        for (ByteBuffer region : regions) {
+            int limit = region.limit();
+            for (int start = 0; start < limit; start += CHUNK_SIZE) {
+                chunks.add(new Chunk(region, start, Math.min(limit, start + CHUNK_SIZE), base));
+            }
+            if (limit > 0) {
+                lastRegion = region;
+            }
+            base += limit;
+        }
+        List<Callable<Integer>> counts = new ArrayList<>(chunks.size());
+        for (Chunk chunk : chunks) {
+            counts.add(() -> scan(chunk, null, 0));
+        }
+        int[] offsets = new int[chunks.size()];
+        long count = 0;
+        List<Integer> found = run(pool, counts);
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = (int) count;
+            count += found.get(i);
+        }
+        boolean unterminated = lastRegion != null && lastRegion.get(lastRegion.limit() - 1) != '\n';
+        long[] ends = new long[Math.toIntExact(count + (unterminated ? 1 : 0))];
+        List<Callable<Integer>> fills = new ArrayList<>(chunks.size());
+        for (int i = 0; i < offsets.length; i++) {
+            Chunk chunk = chunks.get(i);
+            int at = offsets[i];
+            fills.add(() -> scan(chunk, ends, at));
+        }
+        run(pool, fills);
+        if (unterminated) {
+            ends[ends.length - 1] = base;
+        }
+        return ends;
+    }
+
+    private record Chunk(ByteBuffer region, int from, int to, long base) {
+    }
+
+    private static <T> List<T> run(ForkJoinPool pool, List<Callable<T>> tasks) {
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (Future<T> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while indexing lines", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to index lines", e.getCause());
+        }
+        return results;
+    }
+
+    /**
+     * Counts the line ends in the chunk, writing them to ends from at onwards unless ends is null.
+     * Checks 8 bytes at a time for a '\n' before looking at single bytes, lines are usually much longer than that.
+     */
+    private static int scan(Chunk chunk, long[] ends, int at) {
+        ByteBuffer region = chunk.region();
+        int to = chunk.to();
+        int count = 0;
+        int pos = chunk.from();
+        for (; pos + Long.BYTES <= to; pos += Long.BYTES) {
+            long word = region.getLong(pos) ^ NEW_LINES;
+            if (((word - LOW_BITS) & ~word & HIGH_BITS) == 0) {
+                continue;
+            }
+            for (int i = pos; i < pos + Long.BYTES; i++) {
+                if (region.get(i) == '\n') {
+                    if (ends != null) {
+                        ends[at + count] = chunk.base() + i;
+                    }
+                    count++;
+                }
+            }
+        }
+        for (; pos < to; pos++) {
+            if (region.get(pos) == '\n') {
+                if (ends != null) {
+                    ends[at + count] = chunk.base() + pos;
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+}
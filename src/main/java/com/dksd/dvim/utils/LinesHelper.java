@@ -11,7 +11,7 @@ public class LinesHelper {
 
     public static <T> List<Line> convertToLines(List<T> lines) {
         return IntStream.range(0, lines.size())
-                .mapToObj(i -> new Line(i, lines.get(i).toString(), null))
+                .mapToObj(i -> new Line(lines.get(i).toString(), null))
                 .collect(Collectors.toList());
     }
 }
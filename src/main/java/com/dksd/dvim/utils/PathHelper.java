@@ -1,23 +1,21 @@
 package com.dksd.dvim.utils;
 
-import com.dksd.dvim.buffer.Buf;
-import com.dksd.dvim.event.VimEvent;
-import com.dksd.dvim.history.Harpoon;
+import com.dksd.dvim.buffer.BufManager;
 import com.dksd.dvim.view.Line;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.HexFormat;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 public class PathHelper {
@@ -42,54 +40,100 @@ public class PathHelper {
         }
     }
 
+    /**
+     * A name for the file's entries under ~/.cache/dvim, the SHA-256 of its absolute path in hex so two
+     * files can't end up sharing one.
+     */
+    public static String cacheKey(Path file) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(file.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is missing from this JVM", e);
+        }
+    }
+
     public static Path getCurrentDir() {
         return Path.of(System.getProperty("user.dir"));
     }
 
-    public static List<Buf> loadFilesIntoBufs(Harpoon<Buf> harpoonBuf, Path dir, Predicate<Path> filter, BlockingQueue<VimEvent> queue) {
-        return streamPath(dir, filter, null)
-                .map(path -> {
-                    try {
-                        Buf buf = new Buf(path.toString(), path.toString(), harpoonBuf.getNextInt(), null);
-                        buf.setLinesListStr(Files.readAllLines(path, StandardCharsets.UTF_8), 0);
-                        harpoonBuf.add(buf);
-                        return buf;
-                    } catch (IOException e) {
-                        throw new RuntimeException("Failed to read file: " + path, e);
-                    }
-                })
-                .collect(Collectors.toList());
+    /**
+     * Registers every file under dir with the manager, nothing is read until a buffer is asked for.
+     */
+    public static int registerFiles(BufManager bufManager, Path dir, Predicate<Path> filter) {
+        try (Stream<Path> paths = streamPath(dir, filter, Long.MAX_VALUE)) {
+            paths.forEach(bufManager::register);
+        }
+        return bufManager.size();
     }
 
     public static List<Path> loadPathsIntoHarpoon(String directory, Predicate<Path> filter) {
         return streamPath(Path.of(directory), filter, null).toList();
     }
 
+    /**
+     * Reads the file in one go, finds the line ends in parallel with {@link LineIndexer}
+     * and then decodes the lines in parallel straight out of the byte array.
+     */
     public static List<Line> readFile(Path filename) {
         try {
-            return Line.convert(Files.readAllLines(filename, StandardCharsets.UTF_8));
+            byte[] bytes = Files.readAllBytes(filename);
+            long[] ends = LineIndexer.index(bytes);
+            return IntStream.range(0, ends.length)
+                    .parallel()
+                    .mapToObj(i -> Line.of(decodeLine(bytes, ends, i), null))
+                    .collect(Collectors.toList());
             //eventQueue.add(new VimEvent(bufNo, EventType.BUF_CHANGE));
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Hands the lines of the file to the consumer in order, the first batch sized to fill
+     * the screen and the rest in batches of batchSize, each batch decoded in parallel.
+     * Stops early when the consumer returns false.
+     */
+    public static void readFileInBatches(Path filename, int firstBatch, int batchSize, LineBatchConsumer consumer) throws IOException {
+        byte[] bytes = Files.readAllBytes(filename);
+        long[] ends = LineIndexer.index(bytes);
+        int loaded = 0;
+        int batch = Math.max(1, firstBatch);
+        while (loaded < ends.length) {
+            int from = loaded;
+            int to = Math.min(ends.length, from + batch);
+            List<Line> lines = IntStream.range(from, to)
+                    .parallel()
+                    .mapToObj(i -> Line.of(decodeLine(bytes, ends, i), null))
+                    .collect(Collectors.toList());
+            loaded = to;
+            if (!consumer.accept(lines, loaded, ends.length)) {
+                return;
+            }
+            batch = batchSize;
+        }
+    }
+
+    public interface LineBatchConsumer {
+        boolean accept(List<Line> batch, int linesLoaded, int totalLines);
+    }
+
+    private static String decodeLine(byte[] bytes, long[] ends, int i) {
+        int start = (i == 0) ? 0 : (int) ends[i - 1] + 1;
+        int end = (int) ends[i];
+        if (end > start && bytes[end - 1] == '\r') {
+            end--;
+        }
+        return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the lines to each file in turn with {@link FileSaver#write}, so none of them is ever left half written.
+     */
     public static void writeFile(List<String> filenameOuts, List<Line> lines) throws IOException {
         for (String filenameOut : filenameOuts) {
-            try (
-                    PrintWriter printWriter = new PrintWriter(
-                            new BufferedWriter(
-                                    new OutputStreamWriter(
-                                            Files.newOutputStream(Paths.get(filenameOut)),
-                                            StandardCharsets.UTF_8
-                                    )
-                            )
-                    )
-            ) {
-                for (Line line : lines) {
-                    printWriter.println(line.getContent());
-                }
-            }
+            FileSaver.write(Paths.get(filenameOut), lines);
             System.out.println("Wrote " + filenameOut);
         }
     }
@@ -0,0 +1,182 @@
+package com.dksd.dvim.view;
+
+import com.dksd.dvim.buffer.Buf;
+import com.dksd.dvim.buffer.BufferMode;
+import com.dksd.dvim.diff.GutterDiff;
+import com.dksd.dvim.higlight.JavaSyntaxHighlighter;
+import com.googlecode.lanterna.Symbols;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The cells one Buf drew last frame, along with the gutter and text each row was drawn from, so the next
+ * frame only redraws the rows that changed. A buffer still at the version and bounds it was drawn at isn't
+ * looked at at all.
+ */
+class BufRegion {
+
+    //The gutter is drawn this far left of the text.
+    private static final int GUTTER_OFFSET = 6;
+    private final boolean opaque;
+    private CellGrid grid = new CellGrid(0, 0, 0, 0);
+    private DispObj[] byRow = new DispObj[0];
+    //What each row was drawn from, compared field by field so an unchanged row costs nothing.
+    private int[] drawnDataRows = new int[0];
+    private String[] drawnIndicators = new String[0];
+    private GutterDiff.Mark[] drawnMarks = new GutterDiff.Mark[0];
+    private String[] drawnTexts = new String[0];
+    private boolean[] drawn = new boolean[0];
+    private boolean drawnNumbered;
+    private long drawnVersion = -1;
+
+    /**
+     * @param opaque blanks the cells of rows it draws rather than leaving them to the buffers underneath
+     */
+    BufRegion(boolean opaque) {
+        this.opaque = opaque;
+    }
+
+    CellGrid getGrid() {
+        return grid;
+    }
+
+    /**
+     * Flags every screen row the region covers.
+     */
+    void markRows(boolean[] dirtyRows) {
+        for (int r = Math.max(0, grid.getRow()); r < grid.getRow() + grid.getHeight() && r < dirtyRows.length; r++) {
+            dirtyRows[r] = true;
+        }
+    }
+
+    /**
+     * Whether the buffer has changed since it was last drawn here.
+     */
+    boolean isStale(Buf buf) {
+        return buf.getVersion() != drawnVersion;
+    }
+
+    /**
+     * Brings the cells up to date with the buffer, flagging the screen rows that were redrawn. Rows that
+     * are already showing allocate nothing, only redrawn rows are copied out of their lines.
+     *
+     * @return how many rows were redrawn
+     */
+    int rasterize(Buf buf, JavaSyntaxHighlighter syntaxHighlighter, int screenWidth, int screenHeight, boolean[] dirtyRows) {
+        ScrollView scrollView = buf.getScrollView();
+        int leftBorderWidth = buf.containsBufferMode(BufferMode.LEFT_BORDER) ? 1 : 0;
+        int left = Math.max(0, Math.min(scrollView.getColStart(),
+                scrollView.getColStart() + buf.getGutterSize() + leftBorderWidth - GUTTER_OFFSET));
+        int right = Math.min(scrollView.getColEnd(), screenWidth - 1);
+        int top = Math.max(0, scrollView.getRowStart());
+        int bottom = Math.min(scrollView.getRowEnd(), screenHeight - 1);
+        boolean numbered = !buf.containsBufferMode(BufferMode.NO_LINE_NUMBERS);
+        boolean full = false;
+        if (!grid.sameBounds(left, top, right - left + 1, bottom - top + 1) || numbered != drawnNumbered) {
+            markRows(dirtyRows);
+            grid = new CellGrid(left, top, right - left + 1, bottom - top + 1);
+            int height = grid.getHeight();
+            byRow = new DispObj[height];
+            drawnDataRows = new int[height];
+            drawnIndicators = new String[height];
+            drawnMarks = new GutterDiff.Mark[height];
+            drawnTexts = new String[height];
+            drawn = new boolean[height];
+            drawnNumbered = numbered;
+            full = true;
+        }
+        long version = buf.getVersion();
+        if (!full && version == drawnVersion) {
+            return 0;
+        }
+        drawnVersion = version;
+
+        Arrays.fill(byRow, null);
+        List<DispObj> dispObjs = buf.getLinesToDisplay();
+        for (int i = 0; i < dispObjs.size(); i++) {
+            DispObj dispObj = dispObjs.get(i);
+            if (!dispObj.isFolded() && grid.contains(dispObj.getScreenRow())) {
+                byRow[dispObj.getScreenRow() - top] = dispObj;
+            }
+        }
+        int redrawn = 0;
+        for (int i = 0; i < grid.getHeight(); i++) {
+            DispObj dispObj = byRow[i];
+            int dataRow = (dispObj != null) ? dispObj.getDataRow() : -1;
+            String indicator = (dispObj != null) ? dispObj.getIndicatorStr() : null;
+            GutterDiff.Mark mark = (dispObj != null && numbered) ? buf.getGutterDiff().markAt(dataRow) : null;
+            if (drawn[i] && sameRow(i, dispObj, dataRow, indicator, mark)) {
+                continue;
+            }
+            String text = (dispObj != null) ? dispObj.getText().toString() : null;
+            String gutter = (dispObj != null) ? genGutter(numbered, indicator, dataRow, mark) : null;
+            drawRow(buf, syntaxHighlighter, top + i, dispObj, gutter, text);
+            drawnDataRows[i] = dataRow;
+            drawnIndicators[i] = indicator;
+            drawnMarks[i] = mark;
+            drawnTexts[i] = text;
+            drawn[i] = true;
+            dirtyRows[top + i] = true;
+            redrawn++;
+        }
+        return redrawn;
+    }
+
+    private boolean sameRow(int i, DispObj dispObj, int dataRow, String indicator, GutterDiff.Mark mark) {
+        if (dispObj == null) {
+            return drawnTexts[i] == null;
+        }
+        return dataRow == drawnDataRows[i]
+                && mark == drawnMarks[i]
+                && Objects.equals(indicator, drawnIndicators[i])
+                && dispObj.getText().contentEquals(drawnTexts[i]);
+    }
+    private void drawRow(Buf buf, JavaSyntaxHighlighter syntaxHighlighter, int row, DispObj dispObj, String gutter, String text) {
+        ScrollView scrollView = buf.getScrollView();
+        grid.clearRow(row);
+        if (opaque) {
+            grid.fill(scrollView.getColStart(), scrollView.getColEnd(), row, ' ', null);
+        }
+        if (buf.containsBufferMode(BufferMode.LEFT_BORDER)) {
+            grid.set(scrollView.getColStart() + buf.getGutterSize(), row, Symbols.SINGLE_LINE_VERTICAL, null);
+        }
+        if (buf.containsBufferMode(BufferMode.RIGHT_BORDER)) {
+            grid.set(scrollView.getColEnd(), row, Symbols.SINGLE_LINE_VERTICAL, null);
+        }
+        if (buf.containsBufferMode(BufferMode.TOP_BORDER) && row == scrollView.getRowStart()) {
+            grid.fill(scrollView.getColStart(), scrollView.getColEnd(), row, Symbols.SINGLE_LINE_HORIZONTAL, null);
+        }
+        if (dispObj != null) {
+            syntaxHighlighter.drawHighlightedCode(grid, gutter, row, dispObj.getScreenCol() - GUTTER_OFFSET);
+            syntaxHighlighter.drawHighlightedCode(grid, text, row, dispObj.getScreenCol());
+        }
+    }
+
+    private static String genGutter(boolean numbered, String indicator, int dataRow, GutterDiff.Mark mark) {
+        StringBuilder gutter = new StringBuilder(GUTTER_OFFSET + 1);
+        if (indicator != null) {
+            gutter.append(indicator);
+        }
+        if (numbered) {
+            //Digits go straight into the builder, nothing is kept per row number.
+            for (int pad = 5 - digits(dataRow) - gutter.length(); pad > 0; pad--) {
+                gutter.append(' ');
+            }
+            gutter.append(dataRow);
+            if (mark != null) {
+                gutter.append(mark.getSymbol());
+            }
+        }
+        return gutter.toString();
+    }
+
+    static int digits(int number) {
+        int digits = 1;
+        for (int rest = number / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        return digits;
+    }
+}
@@ -0,0 +1,106 @@
+package com.dksd.dvim.view;
+
+import com.googlecode.lanterna.TextColor;
+
+import java.util.Arrays;
+
+/**
+ * A rectangle of terminal cells at a fixed place on the screen, written in screen coordinates and clipped to
+ * its bounds. Cells nothing was written to are {@link #EMPTY} and let whatever is underneath show through
+ * when grids are stacked, like drawing onto a cleared screen used to.
+ */
+public class CellGrid {
+
+    public static final char EMPTY = '\0';
+    private final int col;
+    private final int row;
+    private final int width;
+    private final int height;
+    private final char[] chars;
+    private final TextColor[] colors;
+
+    public CellGrid(int col, int row, int width, int height) {
+        this.col = col;
+        this.row = row;
+        this.width = Math.max(0, width);
+        this.height = Math.max(0, height);
+        this.chars = new char[this.width * this.height];
+        this.colors = new TextColor[this.width * this.height];
+    }
+
+    public int getCol() {
+        return col;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public boolean contains(int screenRow) {
+        return screenRow >= row && screenRow < row + height;
+    }
+
+    public boolean sameBounds(int col, int row, int width, int height) {
+        return this.col == col && this.row == row && this.width == width && this.height == height;
+    }
+
+    public void clearRow(int screenRow) {
+        if (contains(screenRow)) {
+            int start = (screenRow - row) * width;
+            Arrays.fill(chars, start, start + width, EMPTY);
+            Arrays.fill(colors, start, start + width, null);
+        }
+    }
+
+    public void set(int screenCol, int screenRow, char chr, TextColor color) {
+        if (contains(screenRow) && screenCol >= col && screenCol < col + width) {
+            int index = (screenRow - row) * width + screenCol - col;
+            chars[index] = chr;
+            colors[index] = color;
+        }
+    }
+
+    /**
+     * Writes text from screenCol along the row, the same as TextGraphics.putString but into the grid.
+     */
+    public void put(int screenCol, int screenRow, CharSequence text, TextColor color) {
+        for (int i = 0; i < text.length(); i++) {
+            set(screenCol + i, screenRow, text.charAt(i), color);
+        }
+    }
+
+    public void fill(int colStart, int colEnd, int screenRow, char chr, TextColor color) {
+        for (int c = colStart; c <= colEnd; c++) {
+            set(c, screenRow, chr, color);
+        }
+    }
+
+    /**
+     * Copies the row's written cells over the given screen row, leaving the cells under empty ones alone.
+     */
+    public void copyRowOnto(int screenRow, char[] rowChars, TextColor[] rowColors) {
+        if (!contains(screenRow)) {
+            return;
+        }
+        int start = (screenRow - row) * width;
+        for (int i = 0; i < width; i++) {
+            int screenCol = col + i;
+            if (chars[start + i] != EMPTY && screenCol >= 0 && screenCol < rowChars.length) {
+                rowChars[screenCol] = chars[start + i];
+                rowColors[screenCol] = colors[start + i];
+            }
+        }
+    }
+
+    public char charAt(int screenCol, int screenRow) {
+        return chars[(screenRow - row) * width + screenCol - col];
+    }
+}
@@ -1,19 +1,72 @@
 package com.dksd.dvim.view;
 
+/**
+ * Where one row goes on screen and the part of its line that shows. The text is a slice of the line
+ * rather than a copy, so the same DispObj can be pointed at a new row each frame.
+ */
 public class DispObj {
 
-    private Line croppedLine;
+    private final TextSlice text = new TextSlice();
+    private String indicatorStr;
+    private boolean folded;
     private int screenCol;
     private int screenRow;
+    private int dataRow = -1;
+
+    public DispObj() {
+        //noop
+    }
 
     public DispObj(int screenRow, int screenCol, Line croppedLine) {
+        this(screenRow, screenCol, -1, croppedLine);
+    }
+
+    /**
+     * @param dataRow the row in the buffer this was cropped from, it is what the gutter numbers
+     */
+    public DispObj(int screenRow, int screenCol, int dataRow, Line croppedLine) {
+        point(screenRow, screenCol, dataRow, croppedLine, 0, croppedLine.length());
+    }
+
+    /**
+     * Points this at columns [start, end) of line, nothing is copied.
+     */
+    public DispObj set(int screenRow, int screenCol, int dataRow, Line line, int start, int end) {
+        point(screenRow, screenCol, dataRow, line, start, end);
+        return this;
+    }
+
+    private void point(int screenRow, int screenCol, int dataRow, Line line, int start, int end) {
         this.screenRow = screenRow;
         this.screenCol = screenCol;
-        this.croppedLine = croppedLine;
+        this.dataRow = dataRow;
+        this.indicatorStr = line.getIndicatorStr();
+        this.folded = line.isFolded();
+        this.text.set(line.getContent(), start, end);
     }
 
+    /**
+     * Points this at columns [start, end) of chars, which hold what line is being edited into.
+     */
+    public DispObj set(int screenRow, int screenCol, int dataRow, Line line, char[] chars, int start, int end) {
+        point(screenRow, screenCol, dataRow, line, 0, 0);
+        this.text.set(chars, start, end);
+        return this;
+    }
+
+    public TextSlice getText() {
+        return text;
+    }
+
+    public String getIndicatorStr() {
+        return indicatorStr;
+    }
+
+    /**
+     * A copy of the cropped line, {@link #getText()} reads the same without allocating.
+     */
     public Line getLineContent() {
-        return croppedLine;
+        return new Line(text.toString(), indicatorStr);
     }
 
     public int getScreenCol() {
@@ -24,7 +77,11 @@ public class DispObj {
         return screenRow;
     }
 
+    public int getDataRow() {
+        return dataRow;
+    }
+
     public boolean isFolded() {
-        return this.croppedLine.isFolded();
+        return folded;
     }
 }
@@ -0,0 +1,47 @@
+package com.dksd.dvim.view;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * The rows a buffer shows, kept from one frame to the next. Clearing it keeps the DispObjs so the next
+ * frame fills them in place instead of allocating new ones.
+ */
+public class DisplayRows extends AbstractList<DispObj> implements RandomAccess {
+
+    private DispObj[] rows = new DispObj[0];
+    private int size;
+
+    @Override
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * The next row to fill in, reused from an earlier frame if there is one.
+     */
+    public DispObj next() {
+        if (size == rows.length) {
+            DispObj[] grown = new DispObj[Math.max(16, rows.length * 2)];
+            System.arraycopy(rows, 0, grown, 0, rows.length);
+            rows = grown;
+        }
+        if (rows[size] == null) {
+            rows[size] = new DispObj();
+        }
+        return rows[size++];
+    }
+
+    @Override
+    public DispObj get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+        return rows[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
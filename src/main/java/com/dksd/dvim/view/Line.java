@@ -3,28 +3,31 @@ package com.dksd.dvim.view;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * The content of one row. Lines don't know their row, that comes from where they sit in the
+ * InternalBuf, so inserting or deleting rows never has to renumber anything.
+ * Ghost text and indicators are rare, so they sit together in a side object only the lines that
+ * have one pay for.
+ */
 public class Line {
-    private volatile int lineNumber;
     private volatile String content;
-    private volatile String ghostContent;
-    private volatile String indicatorStr;
+    private volatile Decoration decoration;
     private boolean folded = false;
     //TODO Folding?
 
-    public Line(int lineNumber, String content, String indicatorStr) {
-        this.lineNumber = lineNumber;
+    public Line(String content, String indicatorStr) {
         this.content = content;
-        this.indicatorStr = indicatorStr;
+        this.decoration = Decoration.of(null, indicatorStr);
     }
 
-    public static Line of(int lineNumber, String string, String indicatorStr) {
-        return new Line(lineNumber, string, indicatorStr);
+    public static Line of(String string, String indicatorStr) {
+        return new Line(string, indicatorStr);
     }
 
     public static List<Line> convert(List<String> lns) {
         List<Line> lines = new ArrayList<>(lns.size());
         for (int i = 0; i < lns.size(); i++) {
-            lines.add(Line.of(i, lns.get(i), null));
+            lines.add(Line.of(lns.get(i), null));
         }
         return lines;
     }
@@ -37,10 +40,6 @@ public class Line {
         return lines;
     }
 
-    public int getLineNumber() {
-        return lineNumber;
-    }
-
     public String getContent() {
         return content;
     }
@@ -57,24 +56,20 @@ public class Line {
         this.content = lStr;
     }
 
-    public void setLineNumber(int lineNumber) {
-        this.lineNumber = lineNumber;
-    }
-
     public String getIndicatorStr() {
-        return indicatorStr;
+        Decoration current = decoration;
+        return (current == null) ? null : current.indicatorStr();
     }
 
-    public void setIndicatorStr(String indicatorStr) {
-        this.indicatorStr = indicatorStr;
+    public synchronized void setIndicatorStr(String indicatorStr) {
+        this.decoration = Decoration.of(getGhostContent(), indicatorStr);
     }
 
     @Override
     public String toString() {
         return "Line{" +
-                "lineNumber=" + lineNumber +
-                ", content='" + content + '\'' +
-                ", indicatorStr='" + indicatorStr + '\'' +
+                "content='" + content + '\'' +
+                ", indicatorStr='" + getIndicatorStr() + '\'' +
                 '}';
     }
 
@@ -88,14 +83,22 @@ public class Line {
     }
 
     public String getGhostContent() {
-        return ghostContent;
+        Decoration current = decoration;
+        return (current == null) ? null : current.ghostContent();
     }
 
-    public void setGhostContent(String ghostContent) {
-        this.ghostContent = ghostContent;
+    public synchronized void setGhostContent(String ghostContent) {
+        this.decoration = Decoration.of(ghostContent, getIndicatorStr());
     }
 
     public boolean isFolded() {
         return folded;
     }
+
+    private record Decoration(String ghostContent, String indicatorStr) {
+
+        static Decoration of(String ghostContent, String indicatorStr) {
+            return (ghostContent == null && indicatorStr == null) ? null : new Decoration(ghostContent, indicatorStr);
+        }
+    }
 }
@@ -0,0 +1,262 @@
+package com.dksd.dvim.view;
+
+import com.dksd.dvim.buffer.Buf;
+import com.dksd.dvim.higlight.JavaSyntaxHighlighter;
+import com.googlecode.lanterna.TerminalPosition;
+import com.googlecode.lanterna.TerminalSize;
+import com.googlecode.lanterna.TextCharacter;
+import com.googlecode.lanterna.TextColor;
+import com.googlecode.lanterna.screen.TerminalScreen;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.IntStream;
+
+/**
+ * Draws frames by damage rather than clearing the screen. Each Buf keeps its cells in a {@link BufRegion}
+ * that only redraws the rows that changed, and regions that changed are drawn in parallel. Only the rows
+ * they flagged are stacked up again in z-order, and only the cells that differ from what is on the terminal
+ * are handed to Lanterna. A frame where nothing changed writes nothing and skips the refresh, so an idle
+ * editor sends nothing down the wire.
+ */
+public class Renderer {
+
+    private static final int ERROR_COL = 50;
+    private static final int ASCII = 128;
+    //With fewer changed buffers than this the frame is drawn on the calling thread, forking would cost more.
+    private static final int PARALLEL_MIN_REGIONS = 2;
+    private final TerminalScreen screen;
+    private final JavaSyntaxHighlighter syntaxHighlighter = new JavaSyntaxHighlighter();
+    //Keyed by identity, a Buf's equals compares every line.
+    private Map<Buf, BufRegion> regions = new IdentityHashMap<>();
+    //Swapped with regions each frame, so neither map is allocated again.
+    private Map<Buf, BufRegion> drawn = new IdentityHashMap<>();
+    private final List<BufRegion> order = new ArrayList<>();
+    //The Buf each region in order is drawn from, null where a Buf shows up twice and its region is already drawn.
+    private final List<Buf> orderBufs = new ArrayList<>();
+    private boolean[] dirtyRows = new boolean[0];
+    private char[] rowChars = new char[0];
+    private TextColor[] rowColors = new TextColor[0];
+    private int columns = -1;
+    private int rows = -1;
+    private char[] shownChars = new char[0];
+    private TextColor[] shownColors = new TextColor[0];
+    private int shownCursorCol = -1;
+    private int shownCursorRow = -1;
+    private String shownError = null;
+    private CellGrid errorGrid = null;
+    private long renderedVersion = -1;
+    private final List<Buf> renderedBufs = new ArrayList<>();
+    //Lanterna's characters are immutable, so the ASCII ones are made once per colour and shared by every cell.
+    private final Map<TextColor, TextCharacter[]> asciiChars = new HashMap<>();
+
+    public Renderer(TerminalScreen screen) {
+        this.screen = screen;
+    }
+
+    /**
+     * Draws the layers bottom up, then the popover over them if there is one. Nothing is looked at if the
+     * same buffers are still at the version last rendered.
+     *
+     * @param version the view's version, which covers every buffer in it
+     * @return how many cells were written to the terminal
+     */
+    public synchronized int render(long version, List<Buf> layers, Buf popover, Buf activeBuf, String errorMessage) throws IOException {
+        TerminalSize resized = screen.doResizeIfNecessary();
+        TerminalSize size = (resized != null) ? resized : screen.getTerminalSize();
+        boolean sameSize = size.getColumns() == columns && size.getRows() == rows;
+        if (sameSize && version == renderedVersion && sameBufs(layers, popover, activeBuf)
+                && Objects.equals(errorOrNull(errorMessage), shownError)) {
+            return 0;
+        }
+        renderedVersion = version;
+        renderedBufs.clear();
+        renderedBufs.addAll(layers);
+        renderedBufs.add(popover);
+        renderedBufs.add(activeBuf);
+        boolean complete = false;
+        if (!sameSize) {
+            columns = size.getColumns();
+            rows = size.getRows();
+            //Nothing matches an empty cell, so every cell is written once.
+            shownChars = new char[columns * rows];
+            shownColors = new TextColor[columns * rows];
+            dirtyRows = new boolean[rows];
+            rowChars = new char[columns];
+            rowColors = new TextColor[columns];
+            regions.clear();
+            shownError = null;
+            errorGrid = null;
+            shownCursorCol = -1;
+            complete = true;
+        }
+
+        Arrays.fill(dirtyRows, complete);
+        drawn.clear();
+        order.clear();
+        orderBufs.clear();
+        for (int i = 0; i < layers.size(); i++) {
+            addRegion(layers.get(i), false);
+        }
+        if (popover != null) {
+            addRegion(popover, true);
+        }
+        rasterizeAll();
+        //Whatever was under buffers that are no longer drawn shows again.
+        if (!regions.isEmpty()) {
+            for (BufRegion gone : regions.values()) {
+                gone.markRows(dirtyRows);
+            }
+            regions.clear();
+        }
+        Map<Buf, BufRegion> spare = regions;
+        regions = drawn;
+        drawn = spare;
+        drawError(errorMessage);
+
+        int written = 0;
+        for (int row = 0; row < rows; row++) {
+            if (!dirtyRows[row]) {
+                continue;
+            }
+            Arrays.fill(rowChars, ' ');
+            Arrays.fill(rowColors, null);
+            for (int i = 0; i < order.size(); i++) {
+                order.get(i).getGrid().copyRowOnto(row, rowChars, rowColors);
+            }
+            if (errorGrid != null) {
+                errorGrid.copyRowOnto(row, rowChars, rowColors);
+            }
+            written += writeChanged(row, rowChars, rowColors);
+        }
+
+        boolean cursorMoved = false;
+        if (activeBuf != null && regions.containsKey(activeBuf)) {
+            DispObj cursor = activeBuf.getDisplayCursor();
+            if (cursor.getScreenCol() != shownCursorCol || cursor.getScreenRow() != shownCursorRow) {
+                shownCursorCol = cursor.getScreenCol();
+                shownCursorRow = cursor.getScreenRow();
+                screen.setCursorPosition(new TerminalPosition(shownCursorCol, shownCursorRow));
+                cursorMoved = true;
+            }
+        }
+        if (complete) {
+            screen.refresh(TerminalScreen.RefreshType.COMPLETE);
+        } else if (written > 0 || cursorMoved) {
+            screen.refresh(TerminalScreen.RefreshType.DELTA);
+        }
+        return written;
+    }
+
+    private boolean sameBufs(List<Buf> layers, Buf popover, Buf activeBuf) {
+        if (layers.size() + 2 != renderedBufs.size()) {
+            return false;
+        }
+        for (int i = 0; i < layers.size(); i++) {
+            if (layers.get(i) != renderedBufs.get(i)) {
+                return false;
+            }
+        }
+        return popover == renderedBufs.get(layers.size()) && activeBuf == renderedBufs.get(layers.size() + 1);
+    }
+
+    private static String errorOrNull(String errorMessage) {
+        return (errorMessage == null || errorMessage.isEmpty()) ? null : errorMessage;
+    }
+
+    private void addRegion(Buf buf, boolean opaque) {
+        BufRegion region = drawn.get(buf);
+        if (region != null) {
+            order.add(region);
+            orderBufs.add(null);
+            return;
+        }
+        region = regions.remove(buf);
+        if (region == null) {
+            region = new BufRegion(opaque);
+        }
+        drawn.put(buf, region);
+        order.add(region);
+        orderBufs.add(buf);
+    }
+
+    /**
+     * Each region only writes its own grid, so the ones that changed are drawn side by side on the common
+     * pool. They can all flag the same dirty row, but only ever to true, and the rows are read after the join.
+     */
+    private void rasterizeAll() {
+        int stale = 0;
+        for (int i = 0; i < order.size(); i++) {
+            Buf buf = orderBufs.get(i);
+            if (buf != null && order.get(i).isStale(buf)) {
+                stale++;
+            }
+        }
+        if (stale < PARALLEL_MIN_REGIONS) {
+            for (int i = 0; i < order.size(); i++) {
+                rasterize(i);
+            }
+            return;
+        }
+        IntStream.range(0, order.size()).parallel().forEach(this::rasterize);
+    }
+
+    private void rasterize(int i) {
+        Buf buf = orderBufs.get(i);
+        if (buf != null) {
+            order.get(i).rasterize(buf, syntaxHighlighter, columns, rows, dirtyRows);
+        }
+    }
+
+    private void drawError(String errorMessage) {
+        String error = errorOrNull(errorMessage);
+        if (Objects.equals(error, shownError)) {
+            return;
+        }
+        if (errorGrid != null) {
+            dirtyRows[errorGrid.getRow()] = true;
+        }
+        errorGrid = null;
+        if (error != null && rows > 0 && columns > ERROR_COL) {
+            errorGrid = new CellGrid(ERROR_COL, 0, columns - ERROR_COL, 1);
+            syntaxHighlighter.drawHighlightedCode(errorGrid, error, 0, ERROR_COL);
+            dirtyRows[0] = true;
+        }
+        shownError = error;
+    }
+
+    private int writeChanged(int row, char[] rowChars, TextColor[] rowColors) {
+        int written = 0;
+        for (int col = 0; col < columns; col++) {
+            int index = row * columns + col;
+            if (shownChars[index] == rowChars[col] && Objects.equals(shownColors[index], rowColors[col])) {
+                continue;
+            }
+            shownChars[index] = rowChars[col];
+            shownColors[index] = rowColors[col];
+            TextColor color = (rowColors[col] != null) ? rowColors[col] : TextColor.ANSI.DEFAULT;
+            screen.setCharacter(col, row, character(rowChars[col], color));
+            written++;
+        }
+        return written;
+    }
+
+    private TextCharacter character(char c, TextColor color) {
+        if (c >= ASCII) {
+            return TextCharacter.fromCharacter(c, color, TextColor.ANSI.DEFAULT)[0];
+        }
+        TextCharacter[] chars = asciiChars.computeIfAbsent(color, k -> new TextCharacter[ASCII]);
+        TextCharacter character = chars[c];
+        if (character == null) {
+            character = TextCharacter.fromCharacter(c, color, TextColor.ANSI.DEFAULT)[0];
+            chars[c] = character;
+        }
+        return character;
+    }
+}
@@ -5,6 +5,7 @@ import com.dksd.dvim.buffer.Buf;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ScrollView {
     private int rowStart = -1;
@@ -17,6 +18,7 @@ public class ScrollView {
     private final Set<Buf> botBufs = new HashSet<>();
     private final Set<Buf> leftBufs = new HashSet<>();
     private final Set<Buf> rightBufs = new HashSet<>();
+    private final AtomicLong version = new AtomicLong();
 
     public ScrollView(int percentOfScreenHeight,
                       int percentOfScreenWidth) {
@@ -33,11 +35,17 @@ public class ScrollView {
     }
 
     public void setRowStart(int rowStart) {
-        this.rowStart = rowStart;
+        if (this.rowStart != rowStart) {
+            this.rowStart = rowStart;
+            version.incrementAndGet();
+        }
     }
 
     public void setColStart(int colStart) {
-        this.colStart = colStart;
+        if (this.colStart != colStart) {
+            this.colStart = colStart;
+            version.incrementAndGet();
+        }
     }
 
     public int getRowEnd() {
@@ -45,7 +53,10 @@ public class ScrollView {
     }
 
     public void setRowEnd(int rowEnd) {
-        this.rowEnd = rowEnd;
+        if (this.rowEnd != rowEnd) {
+            this.rowEnd = rowEnd;
+            version.incrementAndGet();
+        }
     }
 
     public int getColEnd() {
@@ -53,7 +64,10 @@ public class ScrollView {
     }
 
     public void setColEnd(int colEnd) {
-        this.colEnd = colEnd;
+        if (this.colEnd != colEnd) {
+            this.colEnd = colEnd;
+            version.incrementAndGet();
+        }
     }
 
     public Set<Buf> getTopBufs() {
@@ -93,7 +107,10 @@ public class ScrollView {
     }
 
     public void setPercentOfScreenHeight(int percentOfScreenHeight) {
-        this.percentOfScreenHeight = percentOfScreenHeight;
+        if (this.percentOfScreenHeight != percentOfScreenHeight) {
+            this.percentOfScreenHeight = percentOfScreenHeight;
+            version.incrementAndGet();
+        }
     }
 
     public int getPercentOfScreenWidth() {
@@ -101,7 +118,10 @@ public class ScrollView {
     }
 
     public void setPercentOfScreenWidth(int percentOfScreenWidth) {
-        this.percentOfScreenWidth = percentOfScreenWidth;
+        if (this.percentOfScreenWidth != percentOfScreenWidth) {
+            this.percentOfScreenWidth = percentOfScreenWidth;
+            version.incrementAndGet();
+        }
     }
 
     @Override
@@ -114,6 +134,13 @@ public class ScrollView {
                 '}';
     }
 
+    /**
+     * Goes up whenever the bounds or sizing change.
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
     public int getHeight() {
         return rowEnd - rowStart;
     }
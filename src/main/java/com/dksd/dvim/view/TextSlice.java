@@ -0,0 +1,70 @@
+package com.dksd.dvim.view;
+
+/**
+ * A window onto part of a String or char[] that can be pointed somewhere else, so a row can be put on
+ * screen without copying it out of its line.
+ */
+public final class TextSlice implements CharSequence {
+
+    private String source = "";
+    private char[] chars;
+    private int start;
+    private int end;
+
+    public TextSlice set(String source, int start, int end) {
+        this.source = source;
+        this.chars = null;
+        this.start = start;
+        this.end = end;
+        return this;
+    }
+
+    /**
+     * Points at chars the caller owns, they have to stay as they are for as long as the slice is read.
+     */
+    public TextSlice set(char[] chars, int start, int end) {
+        this.source = null;
+        this.chars = chars;
+        this.start = start;
+        this.end = end;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (chars != null) ? chars[start + index] : source.charAt(start + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+        return toString().substring(from, to);
+    }
+
+    /**
+     * Compares without copying, null never matches.
+     */
+    public boolean contentEquals(String other) {
+        if (other == null || other.length() != length()) {
+            return false;
+        }
+        if (chars == null) {
+            return source.regionMatches(start, other, 0, length());
+        }
+        for (int i = 0; i < length(); i++) {
+            if (chars[start + i] != other.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return (chars != null) ? new String(chars, start, end - start) : source.substring(start, end);
+    }
+}
@@ -8,8 +8,6 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -18,10 +16,9 @@ import java.util.concurrent.atomic.AtomicLong;
 import com.catppuccin.Palette;
 import com.dksd.dvim.buffer.Buf;
 import com.dksd.dvim.buffer.BufferMode;
-import com.dksd.dvim.higlight.JavaSyntaxHighlighter;
-import com.googlecode.lanterna.Symbols;
-import com.googlecode.lanterna.TerminalPosition;
-import com.googlecode.lanterna.TerminalSize;
+import com.dksd.dvim.engine.VimEng;
+import com.dksd.dvim.event.EventType;
+import com.dksd.dvim.event.VimEvent;
 import com.googlecode.lanterna.TextCharacter;
 import com.googlecode.lanterna.TextColor;
 import com.googlecode.lanterna.graphics.TextGraphics;
@@ -51,11 +48,10 @@ public class View {
     private Buf mainBuf = null;
     private int sideBufNo = -1;
     private int tabBufNo = -1;
-    private JavaSyntaxHighlighter syntaxHighlighter = new JavaSyntaxHighlighter();
-    private final LinkedBlockingQueue<Future<?>> futures = new LinkedBlockingQueue<>();
     private Line tabComplete;
     private AtomicLong lastDrawn = new AtomicLong();
-    private AtomicInteger lastHashDrawn = new AtomicInteger();
+    //Active buffer and popovers, the buffers count their own changes.
+    private final AtomicLong modCount = new AtomicLong();
     private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
 
     public View(String viewName, TerminalScreen screen) {
@@ -190,173 +186,41 @@ public class View {
         return buffers.get(bufNo);
     }
 
-    public void draw(TerminalScreen screen) {
-        long st = System.currentTimeMillis();
-
-        int viewHash = hashCode();
-        if (lastHashDrawn.get() == viewHash) {//we're good
-            //return;
-        }
-
-        futures.clear();
-
-        screen.doResizeIfNecessary();
-        TextGraphics textGraphics = screen.newTextGraphics();
-
+    /**
+     * Hands the buffers to the renderer in the order they stack, it works out what actually needs repainting.
+     */
+    public void draw(Renderer renderer, TerminalScreen screen) {
         try {
-            screen.clear();
-            Buf stBuf = buffers.get(statusBufNo);
-            Buf hBuf = buffers.get(headerBufNo);
-            Buf sideBuf = buffers.get(sideBufNo);
-
-            for (Buf buf : List.of(stBuf, hBuf, mainBuf, sideBuf)) {
-                drawBuffer(screen, textGraphics, buf, futures);
-            }
-
+            Buf popover = null;
             if (tabComplete != null) {
-                Buf tabBuf = buffers.get(tabBufNo);
-                tabBuf.calcPopoverScrollView(getActiveBuf().getRow(),
+                popover = buffers.get(tabBufNo);
+                popover.calcPopoverScrollView(getActiveBuf().getRow(),
                         screen.getTerminalSize().getColumns(), screen.getTerminalSize().getRows());
-                textGraphics.fillRectangle(new TerminalPosition(tabBuf.getScrollView().getColStart(), tabBuf.getScrollView().getRowStart()),
-                        new TerminalSize(tabBuf.getScrollView().getHeight(), tabBuf.getScrollView().getWidth()), ' ');
-
-                drawBuffer(screen, textGraphics, tabBuf, futures);
-            }
-
-            //Draw error messages if any.
-            String errMsg = errorMsg.get();
-            if (errMsg != null && !errMsg.isEmpty()) {
-                drawString(textGraphics,
-                        new Line(0, errorMsg.get(), null),
-                        50,
-                        0,
-                        futures);
             }
-
-            for (Future<?> future : futures) {
-                future.get();
-            }
-            long ed = System.currentTimeMillis();
-            //System.out.println("Time taken to render in parallel: " + (ed - st) + " screen size: " + screenWidth + ", " + screenHeight);
-            //Draw popover buffer now. It should be below the current row unless no space then above.
-            //drawPopoverBuf(screen, rowOffset, colOffset, screenWidth, screenHeight);
-            //May be too hard...
-            //What about another view but the buffer is editable? and we copy over some of the other buffer as ghost text?
-            //Or what about splitting the text horizontally, I mean I like vertically personally...
-
-            //terminal.setForegroundColor(new TextColor.RGB(mochaBaseRGB[0], mochaBaseRGB[1], mochaBaseRGB[2]));
-            screen.refresh();
+            renderer.render(getVersion(),
+                    List.of(buffers.get(statusBufNo), buffers.get(headerBufNo), mainBuf, buffers.get(sideBufNo)),
+                    popover,
+                    getActiveBuf(),
+                    errorMsg.get());
             lastDrawn.set(System.currentTimeMillis());
-            lastHashDrawn.set(viewHash);
         } catch (Exception ep) {
             ep.printStackTrace();
         }
     }
 
-    private void drawBuffer(TerminalScreen screen,
-                            TextGraphics textGraphics,
-                            Buf buf,
-                            LinkedBlockingQueue<Future<?>> futures) {
-
-        List<DispObj> dispLineInclGutters = buf.getLinesToDisplay();
-
-        drawBorders(textGraphics, buf);
-
-        for (int i = 0; i < dispLineInclGutters.size(); i++) {
-            DispObj dispObj = dispLineInclGutters.get(i);
-            Line gutter = genGutter(buf, dispObj.getLineContent());
-            //System.out.println("Draw gutter: " + gutter.getIndicatorStr());
-            if (!dispObj.isFolded()) {
-                drawString(textGraphics,
-                        gutter,
-                        dispObj.getScreenCol() - 6,
-                        dispObj.getScreenRow(),
-                        futures);
-                drawString(textGraphics,
-                        dispObj.getLineContent(),
-                        dispObj.getScreenCol(),
-                        dispObj.getScreenRow(),
-                        futures);
-            }
-        }
-        if (activeBufNo.get() == buf.getBufNo()) {
-            DispObj cursor = buf.getDisplayCursor();
-            placeCursor(screen, cursor.getScreenCol(), cursor.getScreenRow());
-            /*try {
-                logger.info("Char at cursor is: " + buf.getLine(buf.getRow()).getContent().charAt(buf.getCol()));
-                System.out.println("Char at cursor is: " + buf.getLine(buf.getRow()).getContent().charAt(buf.getCol()));
-            } catch (Exception ep) {
-                //NOOP
-            }*/
-        }
-    }
-
-    private void drawBorders(TextGraphics textGraphics, Buf buf) {
-        int gutterSize = buf.getGutterSize();
-        int colst = buf.getScrollView().getColStart();
-        int rowst = buf.getScrollView().getRowStart();
-        int coled = buf.getScrollView().getColEnd();
-        int rowed = buf.getScrollView().getRowEnd();
-
-        if (buf.containsBufferMode(BufferMode.LEFT_BORDER)) {
-            drawVertical(colst + gutterSize, rowst, rowed, textGraphics);
-        }
-        if (buf.containsBufferMode(BufferMode.RIGHT_BORDER)) {
-            drawVertical(coled, rowst, rowed, textGraphics);
-        }
-        if (buf.containsBufferMode(BufferMode.TOP_BORDER)) {
-            drawHorizontal(colst, coled, rowst, textGraphics);
-        }
-    }
-
     private int getGutterSize(Buf buf) {
         return buf.getGutterSize();
     }
 
-    private void drawString(TextGraphics tg, Line line, int colOffset, int rowOffset, LinkedBlockingQueue<Future<?>> futures) {
-        syntaxHighlighter.drawHighlightedCode(tg, line.getContent(), rowOffset, colOffset, futures);
-//xxx
-        //tg.putString(colOffset, rowOffset, line.getContent());
-    }
-
     private void generateColors(TextGraphics textGraphics, Buf buf) {
         int[] mochaBaseRGB = Palette.MOCHA.getBase().getRGBComponents(); // [30, 30, 46]
         textGraphics.setForegroundColor(new TextColor.RGB(mochaBaseRGB[0], mochaBaseRGB[1], mochaBaseRGB[2]));
     }
 
-    private Line genGutter(Buf buf,
-                           Line line) {
-
-        StringBuilder gutter = new StringBuilder();
-        if (line.getIndicatorStr() != null) {
-            gutter.append(line.getIndicatorStr());
-        }
-        if (!buf.containsBufferMode(BufferMode.NO_LINE_NUMBERS)) {
-            String numStr = Integer.toString(line.getLineNumber());
-            gutter.append(" ".repeat(Math.max(0, 5 - numStr.length() - gutter.length())));
-            gutter.append(numStr);
-        }
-        return new Line(line.getLineNumber(), gutter.toString(), line.getIndicatorStr());
-    }
-
-    private static void placeCursor(TerminalScreen screen, int x, int y) {
-        screen.setCursorPosition(new TerminalPosition(x, y));
-    }
-
     private boolean isCursorRow(Buf buf, int row) {
         return buf.getRow() == row;
     }
 
-    private static void drawVertical(int col, int rowStart, int rowEnd,
-                                     TextGraphics textGraphics) {
-        textGraphics.drawLine(col, rowStart, col, rowEnd, Symbols.SINGLE_LINE_VERTICAL);
-    }
-
-    private static void drawHorizontal(int colStart, int colEnd, int row,
-                                     TextGraphics textGraphics) {
-        textGraphics.drawLine(colStart, row, colEnd, row, Symbols.SINGLE_LINE_HORIZONTAL);
-    }
-
     public static void putStr(TerminalScreen screen, String str, int x, int y) {
         if (str == null) {
             return;
@@ -475,14 +339,28 @@ public class View {
 
     public void setTabComplete(Line cLine) {
         this.tabComplete = cLine;
+        popupChanged((cLine != null) ? cLine.getContent() : "");
     }
 
     public void setActiveBuf(int bufNo) {
         activeBufNo.set(bufNo);
+        modCount.incrementAndGet();
     }
 
     public void setActiveBufByName(String bufName) {
-        activeBufNo.set(getBufNoByName(bufName));
+        setActiveBuf(getBufNoByName(bufName));
+    }
+
+    /**
+     * Goes up whenever anything drawn in the view changes, the sum of what each buffer counts and the
+     * view's own changes. Costs one read per buffer however much text they hold.
+     */
+    public long getVersion() {
+        long version = modCount.get();
+        for (Buf buf : buffers.values()) {
+            version += buf.getVersion();
+        }
+        return version;
     }
 
     public Buf getMainBuffer() {
@@ -491,8 +369,18 @@ public class View {
 
     public void popupErrorMessage(String error, int seconds, TimeUnit timeUnit) {
         errorMsg.set(error);
+        popupChanged(error);
         scheduler.schedule(() -> {
             errorMsg.set("");
+            popupChanged("");
         }, seconds, timeUnit);
     }
+
+    /**
+     * Popups aren't in any buffer, so this is how the next frame hears about them.
+     */
+    private void popupChanged(String value) {
+        modCount.incrementAndGet();
+        VimEng.events.add(new VimEvent(name, activeBufNo.get(), EventType.POPUP, value));
+    }
 }
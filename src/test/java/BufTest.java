@@ -1,28 +1,18 @@
 import java.io.IOException;
-import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedDeque;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import com.dksd.dvim.buffer.Buf;
-import com.dksd.dvim.event.VimEvent;
-import com.dksd.dvim.view.DispObj;
-import com.dksd.dvim.view.Line;
 import com.dksd.dvim.view.ScrollView;
-import com.dksd.dvim.view.VimMode;
 import org.junit.jupiter.api.BeforeEach;
-import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 
-@Nested
 class BufTest {
 
     private Buf buf;
 
     @BeforeEach
     void setUp() {
-        Queue<VimEvent> queue = new ConcurrentLinkedDeque<>();
-        buf = new Buf("test","filename", 0,  new ScrollView(0, 0), queue, true);
+        buf = new Buf("test","filename", 0,  new ScrollView(0, 0));
         buf.getScrollView().setRowStart(0);
         buf.getScrollView().setColStart(0);
         buf.getScrollView().setRowEnd(1);
@@ -35,7 +25,7 @@ class BufTest {
         //verify position
         assertEquals(0, buf.getCol());
         assertEquals(0, buf.getRow());
-        assertEquals("", buf.getLine(0));
+        assertEquals("", buf.getLine(0).getContent());
     }
     
     @Test
@@ -44,19 +34,18 @@ class BufTest {
         //verify position.
         assertEquals(4, buf.getCol());
         assertEquals(0, buf.getRow());
-        assertEquals("abcd", buf.getLine(0));
+        assertEquals("abcd", buf.getLine(0).getContent());
     }
 
     @Test
     void insertIntoExistingLine() {
         buf.insertIntoLine("abjk");
-        //buf.setCol(2);
-        //buf.setRow(0);
+        buf.addToCol(-2);
         buf.insertIntoLine("cdefghi");
         //verify position.
         assertEquals(9, buf.getCol());
         assertEquals(0, buf.getRow());
-        assertEquals("abcdefghijk", buf.getLine(0));
+        assertEquals("abcdefghijk", buf.getLine(0).getContent());
     }
 
     @Test
@@ -74,12 +63,12 @@ class BufTest {
     @Test
     void croppedLinesTenHeightTest() {
 //        buf.
-//        buf.setLines(List.of(new Line(0, "Line 1"),
-//                new Line(1, "Line 2"),
-//                new Line(2, "Line 2"),
-//                new Line(3, "Line 2"),
-//                new Line(4, "Line 2"),
-//                new Line(5, "Line 2")));
+//        buf.setLines(List.of(new Line("Line 1"),
+//                new Line("Line 2"),
+//                new Line("Line 2"),
+//                new Line("Line 2"),
+//                new Line("Line 2"),
+//                new Line("Line 2")));
         //List<Line> lines = buf.getCroppedLines();
         //assertEquals(lines.size(), 3);
     }
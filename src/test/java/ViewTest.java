@@ -33,7 +33,7 @@ class ViewTest {
         Mockito.when(terminalScreenMock.newTextGraphics()).thenReturn(textGraphicsMock);
         Mockito.when(terminalSizeMock.getRows()).thenReturn(80);
         Mockito.when(terminalSizeMock.getColumns()).thenReturn(100);
-        //view = new View("testView", terminalScreenMock, Executors.newVirtualThreadPerTaskExecutor());
+        view = new View("testView", terminalScreenMock);
     }
 
     @Test
@@ -45,12 +45,12 @@ class ViewTest {
 
         assertEquals(view.getBufferByName(STATUS_BUFFER).getScrollView().getRowStart(), 0);
         assertEquals(view.getBufferByName(HEADER_BUFFER).getScrollView().getRowStart(), 1);
-        assertEquals(view.getBufferByName(MAIN_BUFFER).getScrollView().getRowStart(), 2);
+        assertEquals(view.getMainBuffer().getScrollView().getRowStart(), 2);
         assertEquals(view.getBufferByName(SIDE_BUFFER).getScrollView().getRowStart(), 2);
 
-        assertEquals(view.getBufferByName(MAIN_BUFFER).getScrollView().getColStart(), 0);
-        assertEquals(view.getBufferByName(MAIN_BUFFER).getScrollView().getRowEnd(), 80);
-        assertEquals(view.getBufferByName(MAIN_BUFFER).getScrollView().getColEnd(), 50);
+        assertEquals(view.getMainBuffer().getScrollView().getColStart(), 0);
+        assertEquals(view.getMainBuffer().getScrollView().getRowEnd(), 80);
+        assertEquals(view.getMainBuffer().getScrollView().getColEnd(), 50);
 
     }
 
@@ -58,8 +58,8 @@ class ViewTest {
     void testCursorMainView() {
         //Setup the scrollview,
         //Setup the lines.
-        Buf mainBuf = view.getBufferByName(MAIN_BUFFER);
-        mainBuf.getLinesDangerous().clear();
+        Buf mainBuf = view.getMainBuffer();
+        mainBuf.reset();
         mainBuf.addRow("Line 1 of the main buffer");
         mainBuf.addRow("for (int i = 0; i < 10; i++) { System.out.println('Yoyo');}");
         mainBuf.addRow("Line 3 of the main buffer");
@@ -73,8 +73,8 @@ class ViewTest {
 
     @Test
     void testCursorMovesToEndOfLongestLineAndScrolls() {
-        Buf mainBuf = view.getBufferByName(MAIN_BUFFER);
-        mainBuf.getLinesDangerous().clear();
+        Buf mainBuf = view.getMainBuffer();
+        mainBuf.reset();
 
         // Add lines, one deliberately very long
         mainBuf.addRow("Short line");
@@ -98,7 +98,7 @@ class ViewTest {
         // Assert that the cursor is positioned at the last character of the line
         assertEquals(3 + mainBuf.getScrollView().getRowStart(), dispObj.getScreenRow(),
                 "Cursor should be on the longest line");
-        assertEquals(64,
+        assertEquals(mainBuf.getScrollView().getWidth() + mainBuf.getScrollView().getColStart() - 1,
                 dispObj.getScreenCol(),
                 "Cursor should be at the end of the longest line within the scroll view");
 
@@ -0,0 +1,124 @@
+package com.dksd.dvim.buffer;
+
+import com.dksd.dvim.internalbuf.EditOp;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BufManagerTest {
+
+    @Test
+    void testOnlyRecentlyUsedBuffersStayResident() throws Exception {
+        Path dir = Files.createTempDirectory("buf-manager");
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Path file = dir.resolve("todo" + i + ".txt");
+            Files.write(file, List.of("todo " + i, "- [ ] item"));
+            files.add(file);
+        }
+        //Room for about two of the files.
+        BufManager manager = new BufManager(300, dir.resolve("cache"));
+        files.forEach(manager::register);
+        assertEquals(5, manager.size());
+        assertEquals(0, manager.getResidentBytes());
+        assertFalse(manager.isResident(files.get(0)));
+
+        manager.get(files.get(0)).setLine(1, "- [x] item");
+        manager.release(files.get(0));
+        manager.get(files.get(1));
+        manager.release(files.get(1));
+        manager.get(files.get(2));
+        manager.release(files.get(2));
+        assertFalse(manager.isResident(files.get(0)));
+        assertTrue(manager.isResident(files.get(2)));
+        assertTrue(manager.getResidentBytes() <= 300);
+
+        //The change was kept in the cache, the file itself was left alone.
+        assertEquals(List.of("todo 0", "- [x] item"), EditOp.contents(manager.get(files.get(0)).getLinesDangerous()));
+        manager.release(files.get(0));
+        assertEquals(List.of("todo 0", "- [ ] item"), Files.readAllLines(files.get(0)));
+        //Unchanged buffers are read from the file again.
+        Files.write(files.get(1), List.of("edited elsewhere"));
+        assertEquals(List.of("edited elsewhere"), EditOp.contents(manager.get(files.get(1)).getLinesDangerous()));
+        assertNull(manager.get(dir.resolve("missing.txt")));
+    }
+
+    @Test
+    void testNextAndPrevWrapAround() throws Exception {
+        Path dir = Files.createTempDirectory("buf-manager");
+        BufManager manager = new BufManager(1024, dir.resolve("cache"));
+        for (int i = 0; i < 3; i++) {
+            Path file = dir.resolve("todo" + i + ".txt");
+            Files.write(file, List.of("todo " + i));
+            manager.register(file);
+        }
+        assertNull(manager.getCurrentPath());
+        assertEquals("todo 0", manager.current().getLine(0).getContent());
+        assertEquals("todo 1", manager.next().getLine(0).getContent());
+        assertEquals(dir.resolve("todo1.txt").toAbsolutePath().normalize(), manager.getCurrentPath());
+        assertEquals("todo 0", manager.prev().getLine(0).getContent());
+        assertEquals("todo 2", manager.prev().getLine(0).getContent());
+        assertEquals("todo 0", manager.next().getLine(0).getContent());
+    }
+
+    @Test
+    void testHandedOutBuffersAreNotEvicted() throws Exception {
+        Path dir = Files.createTempDirectory("buf-manager");
+        BufManager manager = new BufManager(100, dir.resolve("cache"));
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Path file = dir.resolve("todo" + i + ".txt");
+            Files.write(file, List.of("todo " + i));
+            manager.register(file);
+            files.add(file);
+        }
+        Buf held = manager.get(files.get(0));
+        manager.current();
+        manager.next();
+        manager.next();
+        assertTrue(manager.isResident(files.get(0)));
+        assertTrue(manager.isResident(files.get(2)));
+        assertFalse(manager.isResident(files.get(1)));
+        held.setLine(0, "still attached");
+        assertEquals("still attached", manager.get(files.get(0)).getLine(0).getContent());
+    }
+
+    @Test
+    void testSaveAllWritesCachedChangesBackAndCleansUp() throws Exception {
+        Path dir = Files.createTempDirectory("buf-manager");
+        Path cacheDir = dir.resolve("cache");
+        //left behind by a session that isn't running any more
+        Path stale = Files.createDirectories(cacheDir.resolve(Long.toString(Long.MAX_VALUE)));
+        Files.write(stale.resolve("old.buf"), List.of("old"));
+        BufManager manager = new BufManager(50, cacheDir);
+        assertFalse(Files.exists(stale));
+
+        Path first = dir.resolve("first.txt");
+        Path second = dir.resolve("second.txt");
+        Files.write(first, List.of("first"));
+        Files.write(second, List.of("second"));
+        manager.register(first);
+        manager.register(second);
+        manager.get(first).setLine(0, "first changed");
+        manager.release(first);
+        manager.get(second);
+        manager.release(second);
+        assertFalse(manager.isResident(first));
+
+        manager.saveAll();
+        assertEquals(List.of("first changed"), Files.readAllLines(first));
+        assertEquals(List.of("second"), Files.readAllLines(second));
+        manager.close();
+        try (var cached = Files.list(cacheDir)) {
+            assertEquals(0, cached.count());
+        }
+    }
+}
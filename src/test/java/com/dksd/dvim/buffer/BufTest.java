@@ -1,15 +1,91 @@
 package com.dksd.dvim.buffer;
 
+import com.dksd.dvim.engine.VimEng;
+import com.dksd.dvim.event.EventType;
+import com.dksd.dvim.event.VimEvent;
+import com.dksd.dvim.internalbuf.LineChange;
+import com.dksd.dvim.search.BufSearch;
+import com.dksd.dvim.view.DispObj;
+import com.dksd.dvim.view.ScrollView;
 import org.junit.jupiter.api.Test;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Function;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
 public class BufTest {
     @Test
     public void testInsertIntoLine() {
-        // Test insertIntoLine method
+        Buf buf = new Buf("test", null, 99, null);
+        buf.addRows(List.of("hello", "world"));
+        VimEng.events.clear();
+        buf.addToRow(1);
+        buf.addToCol(-10);
+        for (char c : "say ".toCharArray()) {
+            buf.insertIntoLine(String.valueOf(c));
+        }
+        //one event for the run of typing, the line only goes back into the buffer when read
+        assertEquals(1, VimEng.events.size());
+        assertEquals("say world", buf.getLine(1).getContent());
+        assertEquals(4, buf.getCol());
+        buf.insertIntoLine("!");
+        buf.addToRow(-1);
+        assertEquals("say !world", buf.getLine(1).getContent());
+        assertEquals("hello", buf.getLine(0).getContent());
+    }
+
+    @Test
+    public void testDrawingShowsTypingWithoutCommittingIt() {
+        Buf buf = new Buf("test", null, 99, new ScrollView(100, 100), new HashSet<>(Set.of(BufferMode.ALLOW_UNDO)));
+        buf.addRows(List.of("hello", "world"));
+        buf.setScrollView(0, 10, 0, 40);
+        buf.addToRow(1);
+        buf.addToCol(-10);
+        for (char c : "say ".toCharArray()) {
+            buf.insertIntoLine(String.valueOf(c));
+            List<DispObj> rows = buf.getLinesToDisplay();
+            buf.getDisplayCursor();
+            assertEquals("hello", rows.get(0).getText().toString());
+        }
+        assertEquals("say world", buf.getLinesToDisplay().get(1).getText().toString());
+        //the frames didn't put the line back, so the whole run of typing is a single undo step
+        buf.undo();
+        assertEquals("world", buf.getLine(1).getContent());
+    }
+
+    @Test
+    public void testOnlyTheUndoStoreHasUndo() {
+        assertTrue(new Buf("test", null, 99, null, new HashSet<>(Set.of(BufferMode.ALLOW_UNDO))).hasUndo());
+        assertFalse(new Buf("test", null, 99, null, new HashSet<>(Set.of(BufferMode.COMPACT))).hasUndo());
+    }
+
+    @Test
+    public void testBigFilesAreIndexedForSearch() throws Exception {
+        Path file = Files.createTempFile("buf-index", ".txt");
+        List<String> contents = new ArrayList<>();
+        for (int i = 0; i < BufSearch.INDEX_MIN_LINES; i++) {
+            contents.add("line " + i);
+        }
+        Files.write(file, contents);
+        Buf buf = new Buf("test", null, 99, null);
+        buf.loadFile(file);
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (buf.getSearch().getIndex() == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNotNull(buf.getSearch().getIndex());
+        buf.reset();
+        Files.delete(file);
     }
 
     @Test
@@ -29,7 +105,16 @@ public class BufTest {
 
     @Test
     public void testDeleteInLine() {
-        // Test deleteInLine method
+        Buf buf = new Buf("test", null, 99, null);
+        buf.addRows(List.of("hello"));
+        buf.insertIntoLine("xyz");
+        buf.addToCol(-2);
+        buf.deleteInLine(1);
+        buf.addToCol(-1);
+        buf.deleteInLine(1);
+        assertEquals("helloz", buf.getLine(0).getContent());
+        buf.deleteInLine(5);
+        assertEquals("helloz", buf.getLine(0).getContent());
     }
 
     @Test
@@ -82,4 +167,57 @@ public class BufTest {
         // Test addIndicator method
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testEditIsOneEventAndOneUndo() {
+        Buf buf = new Buf("test", null, 99, null, new HashSet<>(Set.of(BufferMode.ALLOW_UNDO)));
+        buf.addRows(List.of("a", "b", "c"));
+        VimEng.events.clear();
+        buf.edit(tx -> {
+            tx.set(1, "changed");
+            tx.insert(3, "d");
+            tx.remove(0);
+        });
+        assertEquals(1, VimEng.events.size());
+        VimEvent event = VimEng.events.poll();
+        assertEquals(EventType.BUF_CHANGE, event.getEventType());
+        assertEquals("0:3", event.getValue());
+        assertEquals(3, buf.size());
+        buf.undo();
+        assertEquals("a", buf.getLine(0).getContent());
+        assertEquals("b", buf.getLine(1).getContent());
+        assertEquals(3, buf.size());
+    }
+
+    @Test
+    public void testShiftRowFollowsTheLinesAroundIt() {
+        List<LineChange> changes = List.of(
+                new LineChange(1, 0, List.of("new", "lines")),
+                new LineChange(6, 3, List.of("one")));
+        assertEquals(0, Buf.shiftRow(0, changes));
+        assertEquals(4, Buf.shiftRow(2, changes));
+        assertEquals(6, Buf.shiftRow(5, changes));
+        assertEquals(8, Buf.shiftRow(8, changes));
+    }
+
+    @Test
+    public void testVersionOnlyMovesOnChange() {
+        Buf buf = new Buf("test", null, 99, null);
+        buf.addRows(List.of("hello", "world"));
+        long version = buf.getVersion();
+        buf.getLine(0);
+        buf.addToRow(-5);
+        assertEquals(version, buf.getVersion());
+
+        buf.addToRow(1);
+        assertTrue(buf.getVersion() > version);
+        version = buf.getVersion();
+        buf.insertIntoLine("x");
+        assertTrue(buf.getVersion() > version);
+        version = buf.getVersion();
+        buf.getLine(1);
+        assertTrue(buf.getVersion() >= version);
+        version = buf.getVersion();
+        buf.reset();
+        assertTrue(buf.getVersion() > version);
+    }
+}
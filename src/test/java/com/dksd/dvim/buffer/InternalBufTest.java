@@ -2,56 +2,119 @@ package com.dksd.dvim.buffer;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import com.dksd.dvim.internalbuf.CompactInternalBuf;
 import com.dksd.dvim.internalbuf.InternalBuf;
+import com.dksd.dvim.internalbuf.InternalBufFactory;
+import com.dksd.dvim.internalbuf.MultiLineInternalBuf;
+import com.dksd.dvim.internalbuf.MultiUndoInternalBuf;
 import com.dksd.dvim.view.Line;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
 class InternalBufTest {
 
-    private InternalBuf buf;
+    //Each kind of line store the factory hands out for a multi line buf.
+    private static final List<Set<BufferMode>> MODES = List.of(
+            Set.of(),
+            Set.of(BufferMode.ALLOW_UNDO),
+            Set.of(BufferMode.PIECE_TABLE),
+            Set.of(BufferMode.PIECE_TABLE, BufferMode.ALLOW_UNDO),
+            Set.of(BufferMode.COMPACT));
     private Line line1, line2, line3;
 
     @BeforeEach
     void setUp() {
-        buf = new InternalBuf(true);
-        line1 = new Line(0, "line1", null);
-        line2 = new Line(1, "line2", null);
-        line3 = new Line(2, "line3", null);
+        line1 = new Line("line1", null);
+        line2 = new Line("line2", null);
+        line3 = new Line("line3", null);
     }
 
     @Test
     void testGetOutOfBoundsReturnsNull() {
-        assertNull(buf.getCurrBuf(5));
+        for (Set<BufferMode> modes : MODES) {
+            InternalBuf buf = InternalBufFactory.create(modes);
+            buf.insert(0, line1);
+            assertNull(buf.get(5), modes.toString());
+            assertNull(buf.get(-1), modes.toString());
+        }
+    }
+
+    @Test
+    void testSetAppendsAtTheEnd() {
+        for (Set<BufferMode> modes : MODES) {
+            InternalBuf buf = InternalBufFactory.create(modes);
+            buf.set(0, line1);
+            buf.set(1, line2);
+            buf.set(0, line3);
+            assertEquals(2, buf.size(), modes.toString());
+            assertEquals("line3", buf.get(0).getContent(), modes.toString());
+            assertEquals("line2", buf.get(1).getContent(), modes.toString());
+        }
     }
 
     @Test
-    void testSetOutOfBoundsDoesNothing() {
-        buf.add(line1);
-        buf.set(5, line2); // no effect
-        assertEquals(1, buf.size());
-        //assertEquals("line1", buf.getCurrBuf(0).getText());
+    void testInsertAndRemove() {
+        for (Set<BufferMode> modes : MODES) {
+            InternalBuf buf = InternalBufFactory.create(modes);
+            buf.insertAll(0, List.of(line1, line3));
+            buf.insert(1, line2);
+            assertEquals(List.of("line1", "line2", "line3"), Line.convertLines(buf.getAll()), modes.toString());
+            buf.remove(0);
+            buf.removeRange(1, 2);
+            assertEquals(List.of("line2"), Line.convertLines(buf.getAll()), modes.toString());
+        }
     }
 
     @Test
-    void testRemoveOutOfBoundsDoesNothing() {
-        buf.add(line1);
-        buf.remove(5); // no effect
-        assertEquals(1, buf.size());
+    void testVersionGoesUpOnEveryChange() {
+        for (Set<BufferMode> modes : MODES) {
+            InternalBuf buf = InternalBufFactory.create(modes);
+            long version = buf.getVersion();
+            buf.insert(0, line1);
+            assertTrue(buf.getVersion() > version, modes.toString());
+            version = buf.getVersion();
+            buf.get(0);
+            assertEquals(version, buf.getVersion(), modes.toString());
+        }
     }
 
     @Test
-    void testAddNegativeIndexInsertsAtStart() {
-        buf.add(line1);
-        buf.add(-1, line2);
-        //assertEquals("line2", buf.getCurrBuf(0).getText());
+    void testEditableModesAreNotMappedWhateverTheSize() throws Exception {
+        Path big = Files.createTempFile("internal-buf", ".log");
+        try (RandomAccessFile file = new RandomAccessFile(big.toFile(), "rw")) {
+            file.setLength(InternalBufFactory.LARGE_FILE_THRESHOLD + 1);//sparse, nothing is written
+        }
+        assertTrue(InternalBufFactory.isMapped(Set.of(BufferMode.ALLOW_UNDO), big));
+        assertFalse(InternalBufFactory.isMapped(Set.of(BufferMode.PIECE_TABLE), big));
+        assertFalse(InternalBufFactory.isMapped(Set.of(BufferMode.COMPACT), big));
+        assertTrue(InternalBufFactory.isMapped(Set.of(BufferMode.READ_ONLY, BufferMode.PIECE_TABLE), big));
+        Files.delete(big);
     }
 
     @Test
-    void testAddTooLargeIndexAppendsAtEnd() {
-        buf.add(line1);
-        buf.add(10, line2);
-        //assertEquals("line2", buf.getCurrBuf(1).getText());
+    void testBigFilesThatKeepUndoGetAPieceTableWithUndo() {
+        InternalBuf buf = InternalBufFactory.create(Set.of(BufferMode.ALLOW_UNDO), InternalBufFactory.PIECE_TABLE_THRESHOLD + 1);
+        assertInstanceOf(MultiUndoInternalBuf.class, buf);
+        buf.setAll(List.of(line1, line2));
+        buf.clearUndo();
+        buf.set(1, line3);
+        buf.undo();
+        assertEquals("line2", buf.get(1).getContent());
+        buf.redo();
+        assertEquals("line3", buf.get(1).getContent());
     }
 
+    @Test
+    void testBigFilesWithoutUndoArePackedCompact() {
+        assertInstanceOf(CompactInternalBuf.class, InternalBufFactory.create(Set.of(), InternalBufFactory.COMPACT_THRESHOLD + 1));
+        assertInstanceOf(MultiLineInternalBuf.class, InternalBufFactory.create(Set.of(), InternalBufFactory.COMPACT_THRESHOLD));
+        assertInstanceOf(MultiUndoInternalBuf.class,
+                InternalBufFactory.create(Set.of(BufferMode.ALLOW_UNDO), InternalBufFactory.COMPACT_THRESHOLD + 1));
+    }
 }
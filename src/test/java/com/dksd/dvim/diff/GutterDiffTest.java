@@ -0,0 +1,46 @@
+package com.dksd.dvim.diff;
+
+import com.dksd.dvim.internalbuf.LineRope;
+import com.dksd.dvim.internalbuf.MultiLineInternalBuf;
+import com.dksd.dvim.view.Line;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class GutterDiffTest {
+
+    @Test
+    void testMarksFollowTheEdits() {
+        MultiLineInternalBuf buf = new MultiLineInternalBuf();
+        List<Line> lines = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            lines.add(Line.of("line" + i, null));
+        }
+        buf.insertAll(0, lines);
+        GutterDiff gutterDiff = new GutterDiff(buf::snapshot);
+        gutterDiff.setBase((LineRope) buf.snapshot().lines());
+
+        buf.set(10, Line.of("changed", null));
+        buf.insert(500, Line.of("added", null));
+        buf.remove(1500);
+        //Same text as before, so no marker even though it is a new Line.
+        buf.set(1800, Line.of("line1800", null));
+        gutterDiff.update();
+
+        assertNull(gutterDiff.markAt(9));
+        assertEquals(GutterDiff.Mark.CHANGED, gutterDiff.markAt(10));
+        assertNull(gutterDiff.markAt(11));
+        assertEquals(GutterDiff.Mark.ADDED, gutterDiff.markAt(500));
+        assertNull(gutterDiff.markAt(501));
+        assertEquals(GutterDiff.Mark.DELETED, gutterDiff.markAt(1500));
+        assertNull(gutterDiff.markAt(1800));
+
+        gutterDiff.setBase((LineRope) buf.snapshot().lines());
+        gutterDiff.update();
+        assertNull(gutterDiff.markAt(10));
+    }
+}
@@ -0,0 +1,79 @@
+package com.dksd.dvim.diff;
+
+import com.dksd.dvim.internalbuf.LineChange;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LineDiffTest {
+
+    private static List<String> apply(List<String> before, List<LineChange> changes) {
+        List<String> applied = new ArrayList<>(before);
+        for (LineChange change : changes) {
+            applied.subList(change.row(), change.row() + change.removed()).clear();
+            applied.addAll(change.row(), change.inserted());
+        }
+        return applied;
+    }
+
+    @Test
+    void testOnlyChangedHunksAreReported() {
+        List<String> before = List.of("a", "b", "c", "d", "e", "f");
+        List<String> after = List.of("a", "x", "c", "d", "f", "g");
+        List<LineChange> changes = LineDiff.diff(before, after);
+        assertEquals(List.of(
+                new LineChange(1, 1, List.of("x")),
+                new LineChange(4, 1, List.of()),
+                new LineChange(5, 0, List.of("g"))), changes);
+        assertEquals(List.of(), LineDiff.diff(before, before));
+    }
+
+    @Test
+    void testRandomEditsApplyBack() {
+        Random random = new Random(3);
+        for (int round = 0; round < 200; round++) {
+            List<String> before = new ArrayList<>();
+            for (int i = random.nextInt(60); i > 0; i--) {
+                before.add("l" + random.nextInt(8));
+            }
+            List<String> after = new ArrayList<>(before);
+            for (int edits = random.nextInt(6); edits > 0; edits--) {
+                int row = random.nextInt(after.size() + 1);
+                if (random.nextBoolean() && row < after.size()) {
+                    after.remove(row);
+                } else {
+                    after.add(row, "n" + random.nextInt(8));
+                }
+            }
+            assertEquals(after, apply(before, LineDiff.diff(before, after)));
+            assertEquals(after, apply(before, LineDiff.histogram(before, after)));
+        }
+    }
+
+    @Test
+    void testRewriteBeyondTheEditLimitIsOneHunk() {
+        List<String> before = new ArrayList<>();
+        List<String> after = new ArrayList<>();
+        before.add("head");
+        after.add("head");
+        for (int i = 0; i < LineDiff.MAX_EDIT_DISTANCE; i++) {
+            before.add("old" + i);
+            after.add("new" + i);
+        }
+        List<LineChange> changes = LineDiff.diff(before, after);
+        assertEquals(1, changes.size());
+        assertEquals(1, changes.getFirst().row());
+        assertEquals(after, apply(before, changes));
+    }
+
+    @Test
+    void testHistogramMatchesUpTheUniqueLines() {
+        List<String> before = List.of("void a() {", "}", "void b() {", "}");
+        List<String> after = List.of("void a() {", "}", "void c() {", "}", "void b() {", "}");
+        assertEquals(List.of(new LineChange(2, 0, List.of("void c() {", "}"))), LineDiff.histogram(before, after));
+    }
+}
@@ -0,0 +1,43 @@
+package com.dksd.dvim.engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrameSchedulerTest {
+
+    //1 ms a frame, the clock only moves when the test moves it. Each frame drawn leaves a permit.
+    private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private final AtomicLong now = new AtomicLong();
+    private final Semaphore drawn = new Semaphore(0);
+    private final FrameScheduler scheduler = new FrameScheduler(drawn::release, 1000, now::get);
+
+    @Test
+    void testFirstRequestIsDrawnWithoutWaitingForTheClock() throws Exception {
+        scheduler.requestFrame();
+        assertTrue(drawn.tryAcquire(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testRequestsWithinAFrameFoldIntoOneMore() throws Exception {
+        scheduler.requestFrame();
+        assertTrue(drawn.tryAcquire(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            scheduler.requestFrame();
+        }
+        //However long this takes, the clock hasn't moved so the next frame can't be drawn yet.
+        Thread.sleep(50);
+        assertEquals(0, drawn.availablePermits());
+
+        now.addAndGet(FRAME_NANOS);
+        assertTrue(drawn.tryAcquire(5, TimeUnit.SECONDS));
+        now.addAndGet(10 * FRAME_NANOS);
+        Thread.sleep(50);
+        assertEquals(0, drawn.availablePermits());
+    }
+}
@@ -0,0 +1,76 @@
+package com.dksd.dvim.internalbuf;
+
+import com.dksd.dvim.view.Line;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompactInternalBufTest {
+
+    private CompactInternalBuf buf;
+
+    @BeforeEach
+    void setUp() {
+        buf = new CompactInternalBuf();
+        buf.setAll(List.of(Line.of("plain ascii", null), Line.of("café latin1", null), Line.of("日本 utf8", null)));
+    }
+
+    @Test
+    void testRoundTripsEachEncoding() {
+        assertEquals(List.of("plain ascii", "café latin1", "日本 utf8"), EditOp.contents(buf.getAll()));
+        assertEquals("café latin1", buf.getChars(1).toString());
+        assertEquals('é', buf.getChars(1).charAt(3));
+        assertEquals("日本 utf8", buf.getChars(2).toString());
+    }
+
+    @Test
+    void testDecorationsFollowTheirRow() {
+        Line indicated = Line.of("indicated", ">");
+        indicated.setGhostContent("ghost");
+        buf.set(2, indicated);
+        buf.insert(0, Line.of("top", null));
+        assertEquals(">", buf.get(3).getIndicatorStr());
+        assertEquals("ghost", buf.get(3).getGhostContent());
+        buf.remove(1);
+        assertEquals(">", buf.get(2).getIndicatorStr());
+        assertNull(buf.get(1).getIndicatorStr());
+    }
+
+    @Test
+    void testRandomEditsMatchArrayListAndCompact() {
+        Random random = new Random(7);
+        List<String> expected = new ArrayList<>(EditOp.contents(buf.getAll()));
+        String longLine = "x".repeat(CompactInternalBuf.CHUNK_SIZE / 3);
+        for (int i = 0; i < 2000; i++) {
+            int op = random.nextInt(4);
+            String content = (random.nextInt(20) == 0) ? longLine + i : "r" + random.nextInt(1000) + "é";
+            if (op == 0 || expected.isEmpty()) {
+                int row = random.nextInt(expected.size() + 1);
+                expected.add(row, content);
+                buf.insert(row, Line.of(content, null));
+            } else if (op == 1 || op == 2) {
+                int row = random.nextInt(expected.size());
+                expected.set(row, content);
+                buf.set(row, Line.of(content, null));
+            } else {
+                int from = random.nextInt(expected.size());
+                int to = Math.min(expected.size(), from + random.nextInt(3));
+                expected.subList(from, to).clear();
+                buf.removeRange(from, to);
+            }
+        }
+        assertEquals(expected, EditOp.contents(buf.getAll()));
+        long live = 0;
+        for (String str : expected) {
+            live += str.length();
+        }
+        assertTrue(buf.getArenaBytes() <= 2 * live + CompactInternalBuf.CHUNK_SIZE);
+    }
+}
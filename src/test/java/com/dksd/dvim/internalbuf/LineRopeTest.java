@@ -0,0 +1,82 @@
+package com.dksd.dvim.internalbuf;
+
+import com.dksd.dvim.view.Line;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LineRopeTest {
+
+    @Test
+    void testRandomEditsMatchArrayListAndLeaveOldRopesAlone() {
+        Random random = new Random(7);
+        List<String> expected = new ArrayList<>();
+        LineRope rope = LineRope.EMPTY;
+        for (int i = 0; i < 3000; i++) {
+            int from = random.nextInt(expected.size() + 1);
+            int to = from + random.nextInt(Math.min(600, expected.size() - from) + 1);
+            List<Line> replacement = new ArrayList<>();
+            for (int j = random.nextInt(random.nextBoolean() ? 4 : 700); j > 0; j--) {
+                replacement.add(Line.of("r" + i + "." + j, null));
+            }
+            List<String> before = new ArrayList<>(expected);
+            LineRope old = rope;
+            expected.subList(from, to).clear();
+            expected.addAll(from, EditOp.contents(replacement));
+            rope = rope.replaceRange(from, to, replacement);
+            assertEquals(expected, EditOp.contents(rope));
+            assertEquals(before, EditOp.contents(old));
+            assertEquals(old.getVersion() + 1, rope.getVersion());
+        }
+    }
+
+    @Test
+    void testSnapshotOnlyMovesWhenTheEditEnds() {
+        MultiLineInternalBuf buf = new MultiLineInternalBuf();
+        buf.insert(0, Line.of("line1", null));
+        BufSnapshot start = buf.snapshot();
+        buf.beginEdit();
+        buf.insert(1, Line.of("line2", null));
+        buf.set(0, Line.of("changed", null));
+        assertEquals(List.of("line1"), EditOp.contents(buf.snapshot().lines()));
+        assertEquals(List.of("changed", "line2"), EditOp.contents(buf.getAll()));
+        buf.endEdit();
+        assertEquals(List.of("changed", "line2"), EditOp.contents(buf.snapshot().lines()));
+        assertEquals(List.of("line1"), EditOp.contents(start.lines()));
+        assertEquals(start.version() + 2, buf.snapshot().version());
+    }
+
+    @Test
+    void testChangesSinceReplayOntoTheOlderRope() {
+        Random random = new Random(11);
+        List<Line> lines = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            lines.add(Line.of("line" + i, null));
+        }
+        LineRope rope = LineRope.EMPTY.with(lines);
+        for (int round = 0; round < 50; round++) {
+            LineRope older = rope;
+            for (int edits = random.nextInt(5); edits >= 0; edits--) {
+                int from = random.nextInt(rope.size() + 1);
+                int to = from + random.nextInt(Math.min(20, rope.size() - from) + 1);
+                rope = rope.replaceRange(from, to, List.of(Line.of("r" + round + "." + edits, null)));
+            }
+            List<String> replayed = new ArrayList<>(EditOp.contents(older));
+            List<LineChange> changes = rope.changesSince(older);
+            for (LineChange change : changes) {
+                replayed.subList(change.row(), change.row() + change.removed()).clear();
+                replayed.addAll(change.row(), change.inserted());
+            }
+            assertEquals(EditOp.contents(rope), replayed);
+            assertTrue(changes.size() <= 6);
+        }
+        LineRope edited = rope.replaceRange(100, 101, List.of(Line.of("one line", null)));
+        assertEquals(List.of(new LineChange(100, 1, List.of("one line"))), edited.changesSince(rope));
+        assertEquals(List.of(), rope.changesSince(rope));
+    }
+}
@@ -0,0 +1,90 @@
+package com.dksd.dvim.internalbuf;
+
+import com.dksd.dvim.view.Line;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class MultiUndoInternalBufTest {
+
+    private MultiUndoInternalBuf buf;
+
+    @BeforeEach
+    void setUp() {
+        buf = new MultiUndoInternalBuf();
+        buf.setAll(List.of(Line.of("line1", null), Line.of("line2", null), Line.of("line3", null)));
+        buf.clearUndo();
+    }
+
+    @Test
+    void testUndoEachKindOfEdit() {
+        buf.set(1, Line.of("changed", null));
+        buf.insert(0, Line.of("inserted", null));
+        buf.remove(3);
+        assertEquals(List.of("inserted", "line1", "changed"), EditOp.contents(buf.getAll()));
+        buf.undo();
+        assertEquals(List.of("inserted", "line1", "changed", "line3"), EditOp.contents(buf.getAll()));
+        buf.undo();
+        buf.undo();
+        assertEquals(List.of("line1", "line2", "line3"), EditOp.contents(buf.getAll()));
+        buf.undo();
+        assertEquals(List.of("line1", "line2", "line3"), EditOp.contents(buf.getAll()));
+    }
+
+    @Test
+    void testLoadedLinesAreNotUndoneButEditsBetweenThemAre() {
+        buf.set(0, Line.of("typed while loading", null));
+        buf.appendLoaded(List.of(Line.of("line4", null), Line.of("line5", null)));
+        buf.undo();
+        assertEquals(List.of("line1", "line2", "line3", "line4", "line5"), EditOp.contents(buf.getAll()));
+        buf.undo();
+        assertEquals(5, buf.size());
+    }
+
+    @Test
+    void testUndoSetAllAndClear() {
+        buf.setAll(List.of(Line.of("other", null)));
+        buf.clear();
+        assertEquals(0, buf.size());
+        buf.undo();
+        assertEquals(List.of("other"), EditOp.contents(buf.getAll()));
+        buf.undo();
+        assertEquals(List.of("line1", "line2", "line3"), EditOp.contents(buf.getAll()));
+    }
+
+    @Test
+    void testBudgetTrimsOldestHistory() {
+        buf = new MultiUndoInternalBuf(1024);
+        buf.insert(0, Line.of("keep", null));
+        for (int i = 0; i < 100; i++) {
+            buf.set(0, Line.of("edit" + i, null));
+        }
+        for (int i = 0; i < 100; i++) {
+            buf.undo();
+        }
+        //the oldest edits were trimmed so undo stops short of the first one
+        assertEquals(1, buf.size());
+        assertFalse("keep".equals(buf.get(0).getContent()));
+    }
+
+    @Test
+    void testRemoveRangeIsOneUndo() {
+        List<Line> lines = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            lines.add(Line.of("line" + i, null));
+        }
+        buf.insertAll(1, lines);
+        buf.removeRange(1, 100_001);
+        assertEquals(List.of("line1", "line2", "line3"), EditOp.contents(buf.getAll()));
+        buf.undo();
+        assertEquals(100_003, buf.size());
+        assertEquals("line99999", buf.get(100_000).getContent());
+        buf.undo();
+        assertEquals(3, buf.size());
+    }
+}
@@ -0,0 +1,100 @@
+package com.dksd.dvim.internalbuf;
+
+import com.dksd.dvim.view.Line;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class PieceTableInternalBufTest {
+
+    private PieceTableInternalBuf buf;
+
+    @BeforeEach
+    void setUp() {
+        buf = new PieceTableInternalBuf("line1\nline2\nline3");
+    }
+
+    @Test
+    void testLoadAddsMissingTrailingNewLine() {
+        assertEquals(3, buf.size());
+        assertEquals("line3", buf.get(2).getContent());
+        assertNull(buf.get(3));
+    }
+
+    @Test
+    void testSetOnlySplicesChangedChars() {
+        buf.set(1, Line.of("liXne2", null));
+        assertEquals("liXne2", buf.get(1).getContent());
+        assertEquals("line1", buf.get(0).getContent());
+        assertEquals("line3", buf.get(2).getContent());
+    }
+
+    @Test
+    void testInsertAndRemove() {
+        buf.insert(0, Line.of("first", null));
+        buf.insert(4, Line.of("last", null));
+        buf.remove(2);
+        assertEquals(List.of("first", "line1", "line3", "last"), contents(buf.getAll()));
+    }
+
+    @Test
+    void testSetAtSizeAppends() {
+        buf.clear();
+        assertEquals(0, buf.size());
+        buf.set(0, Line.of("a", null));
+        buf.set(1, Line.of("b", null));
+        assertEquals(List.of("a", "b"), contents(buf.getAll()));
+    }
+
+    @Test
+    void testRandomEditsMatchArrayList() {
+        Random random = new Random(42);
+        List<String> expected = new ArrayList<>(List.of("line1", "line2", "line3"));
+        for (int i = 0; i < 5000; i++) {
+            int op = random.nextInt(4);
+            String content = "r" + random.nextInt(1000) + (random.nextBoolean() ? "" : " tail");
+            if (op == 0 || expected.isEmpty()) {
+                int row = random.nextInt(expected.size() + 1);
+                expected.add(row, content);
+                buf.insert(row, Line.of(content, null));
+            } else if (op == 1) {
+                int row = random.nextInt(expected.size());
+                expected.set(row, content);
+                buf.set(row, Line.of(content, null));
+            } else if (op == 2) {
+                int row = random.nextInt(expected.size());
+                expected.remove(row);
+                buf.remove(row);
+            } else {
+                int from = random.nextInt(expected.size() + 1);
+                int to = from + random.nextInt(Math.min(3, expected.size() - from + 1));
+                List<String> replacement = new ArrayList<>();
+                for (int j = random.nextInt(3); j > 0; j--) {
+                    replacement.add(content + j);
+                }
+                expected.subList(from, to).clear();
+                expected.addAll(from, replacement);
+                List<Line> lines = new ArrayList<>();
+                for (String str : replacement) {
+                    lines.add(Line.of(str, null));
+                }
+                buf.replaceRange(from, to, lines);
+            }
+        }
+        assertEquals(expected, contents(buf.getAll()));
+    }
+
+    private static List<String> contents(List<Line> lines) {
+        List<String> strs = new ArrayList<>();
+        for (Line line : lines) {
+            strs.add(line.getContent());
+        }
+        return strs;
+    }
+}
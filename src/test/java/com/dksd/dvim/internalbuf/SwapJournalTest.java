@@ -0,0 +1,150 @@
+package com.dksd.dvim.internalbuf;
+
+import com.dksd.dvim.utils.ContentHash;
+import com.dksd.dvim.view.Line;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SwapJournalTest {
+
+    private Path dir;
+    private final Path file = Path.of("Test.java");
+
+    @BeforeEach
+    void setUp() throws Exception {
+        dir = Files.createTempDirectory("swap-journal");
+    }
+
+    private MultiLineInternalBuf load(String... contents) {
+        MultiLineInternalBuf buf = new MultiLineInternalBuf();
+        buf.insertAll(0, Line.convert(List.of(contents)));
+        return buf;
+    }
+
+    private SwapJournal open(MultiLineInternalBuf buf) throws Exception {
+        LineRope saved = (LineRope) buf.snapshot().lines();
+        return SwapJournal.open(dir, file, saved, ContentHash.of(saved), buf::snapshot);
+    }
+
+    private List<String> replay(List<String> contents, List<LineChange> changes) {
+        List<String> replayed = new ArrayList<>(contents);
+        for (LineChange change : changes) {
+            replayed.subList(change.row(), change.row() + change.removed()).clear();
+            replayed.addAll(change.row(), change.inserted());
+        }
+        return replayed;
+    }
+
+    @Test
+    void testUnsavedChangesAreRecovered() throws Exception {
+        MultiLineInternalBuf buf = load("a", "b", "c");
+        SwapJournal swap = open(buf);
+        buf.set(1, Line.of("changed", null));
+        swap.flush();
+        buf.insert(3, Line.of("d", null));
+        buf.remove(0);
+        swap.close();
+        assertTrue(Files.exists(swap.getSwapPath()));
+
+        long diskHash = ContentHash.of(Line.convert(List.of("a", "b", "c")));
+        SwapJournal.Recovery recovery = SwapJournal.recover(dir, file, diskHash);
+        assertEquals(swap.getSwapPath(), recovery.swapPath());
+        assertEquals(List.of("changed", "c", "d"), replay(List.of("a", "b", "c"), recovery.changes()));
+        //left in place until recovered or discarded
+        assertEquals(recovery.changes(), SwapJournal.recover(dir, file, diskHash).changes());
+    }
+
+    @Test
+    void testCrashedChangesSurviveTheNextSession() throws Exception {
+        MultiLineInternalBuf buf = load("a", "b");
+        SwapJournal crashed = open(buf);
+        buf.set(0, Line.of("lost?", null));
+        crashed.close();
+        long diskHash = ContentHash.of(Line.convert(List.of("a", "b")));
+
+        //the next session doesn't recover and crashes too, then one exits cleanly
+        SwapJournal.Recovery recovery = SwapJournal.recover(dir, file, diskHash);
+        MultiLineInternalBuf second = load("a", "b");
+        SwapJournal swap = open(second);
+        assertNotEquals(recovery.swapPath(), swap.getSwapPath());
+        second.set(1, Line.of("second", null));
+        swap.close();
+        SwapJournal.Recovery newest = SwapJournal.recover(dir, file, diskHash);
+        assertEquals(List.of("a", "second"), replay(List.of("a", "b"), newest.changes()));
+        MultiLineInternalBuf third = load("a", "b");
+        swap = open(third);
+        swap.retire(newest);
+        swap.close();
+        assertFalse(Files.exists(newest.swapPath()));
+
+        recovery = SwapJournal.recover(dir, file, diskHash);
+        assertEquals(List.of("lost?", "b"), replay(List.of("a", "b"), recovery.changes()));
+        swap = open(load("a", "b"));
+        swap.retire(recovery);
+        swap.close();
+        assertNull(SwapJournal.recover(dir, file, diskHash));
+    }
+
+    @Test
+    void testLiveSessionsSwapIsLeftAlone() throws Exception {
+        MultiLineInternalBuf buf = load("a", "b");
+        SwapJournal live = open(buf);
+        long diskHash = ContentHash.of(Line.convert(List.of("a", "b")));
+        //no changes yet and written against other contents, a crashed swap would be deleted or moved aside
+        assertNull(SwapJournal.recover(dir, file, diskHash));
+        assertNull(SwapJournal.recover(dir, file, ContentHash.of(Line.convert(List.of("other")))));
+        buf.set(0, Line.of("changed", null));
+        live.flush();
+        assertNull(SwapJournal.recover(dir, file, diskHash));
+        assertTrue(Files.exists(live.getSwapPath()));
+
+        //once that session is gone its changes can be recovered
+        live.close();
+        assertEquals(List.of("changed", "b"), replay(List.of("a", "b"), SwapJournal.recover(dir, file, diskHash).changes()));
+    }
+
+    @Test
+    void testSavingStartsTheSwapOver() throws Exception {
+        MultiLineInternalBuf buf = load("a", "b");
+        SwapJournal swap = open(buf);
+        buf.set(0, Line.of("saved", null));
+        LineRope saved = (LineRope) buf.snapshot().lines();
+        swap.markSaved(saved, ContentHash.of(saved));
+        buf.set(1, Line.of("unsaved", null));
+        swap.flush();
+        //as if the process died here
+        Path crashed = dir.resolve("crashed.swp");
+        Files.copy(swap.getSwapPath(), crashed);
+        swap.close();
+        assertTrue(Files.exists(swap.getSwapPath()));
+        Files.move(crashed, swap.getSwapPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+
+        assertNull(SwapJournal.recover(dir, file, ContentHash.of(Line.convert(List.of("a", "b")))));
+        Files.move(swap.getSwapPath().resolveSibling(swap.getSwapPath().getFileName() + ".stale"), swap.getSwapPath());
+        SwapJournal.Recovery recovery = SwapJournal.recover(dir, file, ContentHash.of(saved));
+        assertEquals(List.of("saved", "unsaved"), replay(List.of("saved", "b"), recovery.changes()));
+    }
+
+    @Test
+    void testCleanCloseRemovesTheSwapFile() throws Exception {
+        MultiLineInternalBuf buf = load("a");
+        SwapJournal swap = open(buf);
+        buf.set(0, Line.of("b", null));
+        buf.set(0, Line.of("a", null));
+        LineRope saved = (LineRope) buf.snapshot().lines();
+        swap.markSaved(saved, ContentHash.of(saved));
+        swap.close();
+        assertFalse(Files.exists(swap.getSwapPath()));
+    }
+}
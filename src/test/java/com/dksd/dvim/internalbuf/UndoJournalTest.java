@@ -0,0 +1,158 @@
+package com.dksd.dvim.internalbuf;
+
+import com.dksd.dvim.utils.ContentHash;
+import com.dksd.dvim.view.Line;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UndoJournalTest {
+
+    private Path dir;
+    private final Path file = Path.of("Test.java");
+
+    @BeforeEach
+    void setUp() throws Exception {
+        dir = Files.createTempDirectory("undo-journal");
+    }
+
+    private MultiUndoInternalBuf open(List<Line> lines) throws Exception {
+        MultiUndoInternalBuf buf = new MultiUndoInternalBuf();
+        buf.setAll(lines);
+        buf.clearUndo();
+        buf.setJournal(UndoJournal.open(dir, file, ContentHash.of(buf.getAll())));
+        return buf;
+    }
+
+    @Test
+    void testHistoryOfEarlierSessionIsUndoable() throws Exception {
+        MultiUndoInternalBuf buf = open(List.of(Line.of("a", null)));
+        buf.set(0, Line.of("b", null));
+        buf.insert(1, Line.of("c", null));
+        buf.checkpoint();
+        buf.set(0, Line.of("unsaved", null));
+        buf.setJournal(null);
+
+        //reopened with the saved contents, the unsaved edit is dropped from the journal
+        buf = open(List.of(Line.of("b", null), Line.of("c", null)));
+        buf.undo();
+        assertEquals(List.of("b"), EditOp.contents(buf.getAll()));
+        buf.undo();
+        assertEquals(List.of("a"), EditOp.contents(buf.getAll()));
+        buf.undo();
+        assertEquals(List.of("a"), EditOp.contents(buf.getAll()));
+        buf.redo();
+        assertEquals(List.of("b"), EditOp.contents(buf.getAll()));
+        buf.setJournal(null);
+    }
+
+    @Test
+    void testRedoComesBackThroughTheJournalBeforeTheTree() throws Exception {
+        MultiUndoInternalBuf buf = open(List.of(Line.of("a", null)));
+        buf.insert(1, Line.of("b", null));
+        buf.insert(2, Line.of("c", null));
+        buf.checkpoint();
+        buf.setJournal(null);
+
+        buf = open(List.of(Line.of("a", null), Line.of("b", null), Line.of("c", null)));
+        buf.insert(3, Line.of("d", null));
+        for (int i = 0; i < 3; i++) {
+            buf.undo();
+        }
+        assertEquals(List.of("a"), EditOp.contents(buf.getAll()));
+        for (int i = 0; i < 3; i++) {
+            buf.redo();
+        }
+        assertEquals(List.of("a", "b", "c", "d"), EditOp.contents(buf.getAll()));
+
+        buf.travel(-3);
+        assertEquals(List.of("a"), EditOp.contents(buf.getAll()));
+        buf.travel(2);
+        assertEquals(List.of("a", "b", "c"), EditOp.contents(buf.getAll()));
+        buf.travel(5);
+        assertEquals(List.of("a", "b", "c", "d"), EditOp.contents(buf.getAll()));
+
+        //an edit made back in the journal's history starts the tree over from there
+        buf.travel(-2);
+        buf.set(0, Line.of("x", null));
+        buf.undo();
+        assertEquals(List.of("a", "b"), EditOp.contents(buf.getAll()));
+        buf.undo();
+        assertEquals(List.of("a"), EditOp.contents(buf.getAll()));
+        buf.setJournal(null);
+    }
+
+    @Test
+    void testJournalOpenInAnotherSessionIsLeftAlone() throws Exception {
+        MultiUndoInternalBuf buf = open(List.of(Line.of("a", null)));
+        buf.set(0, Line.of("b", null));
+        buf.checkpoint();
+
+        assertThrows(IOException.class,
+                () -> UndoJournal.open(dir, file, ContentHash.of(List.of(Line.of("other", null)))));
+        buf.setJournal(null);
+        buf = open(List.of(Line.of("b", null)));
+        buf.undo();
+        assertEquals(List.of("a"), EditOp.contents(buf.getAll()));
+        buf.setJournal(null);
+    }
+
+    @Test
+    void testChangedFileStartsJournalOver() throws Exception {
+        MultiUndoInternalBuf buf = open(List.of(Line.of("a", null)));
+        buf.set(0, Line.of("b", null));
+        buf.setJournal(null);
+
+        UndoJournal journal = UndoJournal.open(dir, file, ContentHash.of(List.of(Line.of("other", null))));
+        assertNull(journal.previous());
+        journal.close();
+    }
+
+    @Test
+    void testTornLastRecordKeepsTheHistoryBeforeIt() throws Exception {
+        MultiUndoInternalBuf buf = open(List.of(Line.of("a", null)));
+        buf.set(0, Line.of("b", null));
+        buf.checkpoint();
+        buf.setJournal(null);
+        Path journalPath;
+        try (Stream<Path> files = Files.list(dir)) {
+            journalPath = files.findFirst().orElseThrow();
+        }
+        //a crash part way through the next record
+        Files.write(journalPath, new byte[]{0, 0, 0, 40, EditOpCodec.OP, 1, 2}, StandardOpenOption.APPEND);
+
+        buf = open(List.of(Line.of("b", null)));
+        buf.undo();
+        assertEquals(List.of("a"), EditOp.contents(buf.getAll()));
+        buf.setJournal(null);
+    }
+
+    @Test
+    void testJournalIsCompactedOnceOverTheLimit() throws Exception {
+        long hash = ContentHash.of(List.of(Line.of("a", null)));
+        UndoJournal journal = UndoJournal.open(dir, file, hash, 4096);
+        for (int i = 0; i < 200; i++) {
+            journal.append(new EditOp(0, List.of("a"), List.of("line " + i)));
+        }
+        journal.checkpoint(hash);
+        journal.close();
+        long size = Files.size(journal.getJournalPath());
+        assertTrue(size > 0 && size <= 4096, "size " + size);
+
+        //the newest history is what survives
+        journal = UndoJournal.open(dir, file, hash, 4096);
+        assertEquals(List.of("line 199"), journal.previous().getInserted());
+        journal.close();
+    }
+}
@@ -0,0 +1,97 @@
+package com.dksd.dvim.internalbuf;
+
+import com.dksd.dvim.view.Line;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UndoTreeTest {
+
+    private MultiLineInternalBuf buf;
+    private UndoTree tree;
+    private final Consumer<EditOp> apply = op -> op.apply(buf);
+
+    @BeforeEach
+    void setUp() {
+        buf = new MultiLineInternalBuf();
+        buf.setAll(List.of(Line.of("a", null)));
+        tree = new UndoTree(Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    private void set(int row, String content) {
+        EditOp op = EditOp.set(row, buf.get(row).getContent(), content);
+        tree.record(op);
+        op.apply(buf);
+    }
+
+    private String content() {
+        return String.join(",", EditOp.contents(buf.getAll()));
+    }
+
+    @Test
+    void testUndoThenEditKeepsOldBranch() {
+        set(0, "b");
+        set(0, "c");
+        tree.undo(apply);
+        set(0, "d");
+        assertEquals("d", content());
+        tree.undo(apply);
+        tree.undo(apply);
+        assertEquals("a", content());
+        tree.redo(apply);
+        tree.redo(apply);
+        assertEquals("d", content());
+        //g- walks back through c, which is on the abandoned branch
+        tree.travel(apply, -1);
+        assertEquals("c", content());
+        tree.travel(apply, -1);
+        assertEquals("b", content());
+        tree.travel(apply, 2);
+        assertEquals("d", content());
+    }
+
+    @Test
+    void testTravelToBeforeFirstEditRestoresOriginal() {
+        set(0, "b");
+        buf.insert(1, Line.of("x", null));
+        tree.record(EditOp.insert(1, "x"));
+        tree.travelTo(apply, 0);
+        assertEquals("a", content());
+        tree.travelTo(apply, Long.MAX_VALUE);
+        assertEquals("b,x", content());
+    }
+
+    @Test
+    void testCompressColdCoalescesEditsToTheSameLine() {
+        for (int i = 0; i < 100; i++) {
+            set(0, "edit" + i);
+        }
+        set(0, "last");
+        long before = tree.getUsedBytes();
+        tree.compressCold(Long.MAX_VALUE);
+        assertEquals(2, tree.getStateCount());
+        assertTrue(tree.getUsedBytes() < before);
+        tree.undo(apply);
+        assertEquals("a", content());
+        tree.redo(apply);
+        assertEquals("last", content());
+    }
+
+    @Test
+    void testBudgetKeepsCurrentBranch() {
+        tree = new UndoTree(2048, Long.MAX_VALUE);
+        for (int i = 0; i < 200; i++) {
+            set(0, "edit" + i);
+        }
+        assertTrue(tree.getUsedBytes() <= 2048);
+        for (int i = 0; i < 200; i++) {
+            tree.undo(apply);
+        }
+        assertTrue(content().startsWith("edit"));
+    }
+}
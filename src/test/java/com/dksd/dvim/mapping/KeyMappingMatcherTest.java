@@ -1,15 +1,17 @@
 package com.dksd.dvim.mapping;
 
-import com.dksd.dvim.buffer.Buf;
 import com.dksd.dvim.mapping.trie.TrieMapManager;
 import com.dksd.dvim.mapping.trie.TrieNode;
+import com.dksd.dvim.view.View;
 import com.dksd.dvim.view.VimMode;
 import com.googlecode.lanterna.input.KeyStroke;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
 
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -17,20 +19,26 @@ import static org.junit.jupiter.api.Assertions.*;
 class KeyMappingMatcherTest {
 
     private KeyMappingMatcher matcher;
+    private final List<String> ran = new CopyOnWriteArrayList<>();
 
     @BeforeEach
     void setUp() {
         TrieMapManager trieMapManager = new TrieMapManager();
         matcher = new KeyMappingMatcher(trieMapManager);
-        trieMapManager.putKeyMap(VimMode.COMMAND, "a", "first", s -> "first");
-        trieMapManager.putKeyMap(VimMode.COMMAND, "<leader>b", "second", s -> "second");
-        trieMapManager.putKeyMap(VimMode.COMMAND, "<leader>bc", "third", s -> "third");
+        trieMapManager.putKeyMap(VimMode.COMMAND, "a", "first", s -> ran("first"));
+        trieMapManager.putKeyMap(VimMode.COMMAND, "<leader>b", "second", s -> ran("second"));
+        trieMapManager.putKeyMap(VimMode.COMMAND, "<leader>bc", "third", s -> ran("third"));
 
     }
 
+    private String ran(String name) {
+        ran.add(name);
+        return null;
+    }
+
     @Test
     void matchExactMapping() throws ExecutionException, InterruptedException {
-        Buf statusBuf = new Buf(null, null, -1, null, null, false);
+        View view = Mockito.mock(View.class);
         KeyStroke aStroke = new KeyStroke('a', false, false, false);
         KeyStroke leader = new KeyStroke(' ', false, false, false);
         KeyStroke bStroke = new KeyStroke('b', false, false, false);
@@ -39,12 +47,13 @@ class KeyMappingMatcherTest {
         matcher.getTrieMapManager().addStrokeMapping(leader, "<leader>");
         matcher.getTrieMapManager().addStrokeMapping(bStroke, "b");
         matcher.getTrieMapManager().addStrokeMapping(cStroke, "c");
-        CompletableFuture<TrieNode> future = matcher.match(statusBuf, VimMode.COMMAND, aStroke);
-        future = matcher.match(statusBuf, VimMode.COMMAND, leader);
-        future = matcher.match(statusBuf, VimMode.COMMAND, bStroke);
-        future = matcher.match(statusBuf, VimMode.COMMAND, cStroke);
-        TrieNode result = future.get();
-        assertEquals("<leader>bc", result.getLeft(), "Should match the '<leader>bc' mapping");
+        CompletableFuture<TrieNode> future = matcher.match(view, VimMode.COMMAND, aStroke);
+        future = matcher.match(view, VimMode.COMMAND, leader);
+        future = matcher.match(view, VimMode.COMMAND, bStroke);
+        future = matcher.match(view, VimMode.COMMAND, cStroke);
+        //A leader sequence waits for the keys after it and runs the longest mapping once.
+        future.get();
+        assertEquals(List.of("first", "third"), ran, "Should run 'a' then the '<leader>bc' mapping");
 
         //fnodes = matcher.match(VimMode.COMMAND, new KeyStroke('a', false, false, false));
         //assertEquals("action1", result, "Should match the 'abc' mapping");
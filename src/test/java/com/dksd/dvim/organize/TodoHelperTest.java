@@ -1,5 +1,6 @@
 package com.dksd.dvim.organize;
 
+import com.dksd.dvim.buffer.Buf;
 import com.dksd.dvim.utils.LinesHelper;
 import com.dksd.dvim.view.Line;
 import org.junit.jupiter.api.Test;
@@ -11,8 +12,6 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 
 class TodoHelperTest {
 
-    private final TodoHelper helper = new TodoHelper();
-
     @Test
     void moveTodoUpVim_simpleTopLevel() {
         List<String> bufferStr = Arrays.asList(
@@ -23,15 +22,19 @@ class TodoHelperTest {
                 "  Task 2",
                 "    Task 3"
         );
-        List<Line> buffer = LinesHelper.convertToLines(bufferStr);
-        helper.moveTodoDownVim(1, buffer);
-        for (Line line : buffer) {
+        Buf buffer = new Buf("todo", null, 0, null);
+        buffer.setLines(LinesHelper.convertToLines(bufferStr), 0);
+        TodoHelper.moveTodoDownVim(1, buffer);
+        for (Line line : buffer.getLinesDangerous()) {
             System.out.println(line);
         }
-        helper.moveTodoUpVim(3, buffer);
-        for (Line line : buffer) {
+        assertEquals(List.of("Task 1", "  Task 2", "    Task 3", "Task A", "  Task B", "    Task C"),
+                Line.convertLines(buffer.getLinesDangerous()));
+        TodoHelper.moveTodoUpVim(3, buffer);
+        for (Line line : buffer.getLinesDangerous()) {
             System.out.println(line);
         }
+        assertEquals(bufferStr, Line.convertLines(buffer.getLinesDangerous()));
     }
 
 }
@@ -0,0 +1,81 @@
+package com.dksd.dvim.search;
+
+import com.dksd.dvim.internalbuf.MultiLineInternalBuf;
+import com.dksd.dvim.view.Line;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class BufSearchTest {
+
+    private MultiLineInternalBuf buf;
+    private BufSearch search;
+    //onCounted runs after countAll's future completes, so the test waits on it here.
+    private final BlockingQueue<Integer> counted = new LinkedBlockingQueue<>();
+
+    @BeforeEach
+    void setUp() {
+        buf = new MultiLineInternalBuf();
+        List<Line> lines = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            lines.add(Line.of((i % 100 == 7) ? "a needle and a needle" : "hay " + i, null));
+        }
+        buf.insertAll(0, lines);
+        search = new BufSearch(() -> buf.snapshot(), results -> counted.add(results.count()));
+    }
+
+    @Test
+    void testNextAndPreviousWrapAround() throws InterruptedException {
+        search.setPattern("needle");
+        assertEquals(new Match(7, 2, 8), search.next(0, 0));
+        assertEquals(new Match(7, 15, 21), search.next(7, 2));
+        assertEquals(new Match(107, 2, 8), search.next(7, 15));
+        assertEquals(new Match(7, 2, 8), search.next(907, 15));
+        assertEquals(new Match(907, 15, 21), search.previous(7, 2));
+        assertEquals(20, search.countAll().join().count());
+        //once counted the same answers come from the sorted results
+        assertEquals(new Match(107, 2, 8), search.next(7, 15));
+        assertEquals(new Match(907, 15, 21), search.previous(7, 2));
+        assertEquals(Integer.valueOf(20), counted.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testRegexAndEdits() {
+        search.setPattern("hay 9+$");
+        assertEquals(new Match(9, 0, 5), search.next(0, 0));
+        assertEquals(3, search.countAll().join().count());
+        buf.set(500, Line.of("hay 99", null));
+        buf.remove(9);
+        assertEquals(new Match(98, 0, 6), search.next(0, 0));
+        assertEquals(3, search.countAll().join().count());
+        search.setPattern("nothing here");
+        assertNull(search.next(0, 0));
+    }
+
+    @Test
+    void testNewLinesAtTheSameVersionAreSearchedAgain() {
+        search.setPattern("needle");
+        search.countAll().join();
+        assertEquals(new Match(7, 2, 8), search.next(0, 0));
+        //A fresh InternalBuf counts versions from the start again, so it can land on the old one's.
+        MultiLineInternalBuf next = new MultiLineInternalBuf();
+        List<Line> lines = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            lines.add(Line.of((i == 500) ? "one needle" : "hay " + i, null));
+        }
+        next.insertAll(0, lines);
+        assertEquals(buf.getVersion(), next.getVersion());
+        buf = next;
+        search.linesReplaced();
+        assertEquals(new Match(500, 4, 10), search.next(0, 0));
+        assertEquals(1, search.countAll().join().count());
+    }
+}
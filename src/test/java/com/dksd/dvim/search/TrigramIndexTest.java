@@ -0,0 +1,85 @@
+package com.dksd.dvim.search;
+
+import com.dksd.dvim.internalbuf.BufSnapshot;
+import com.dksd.dvim.internalbuf.MultiLineInternalBuf;
+import com.dksd.dvim.view.Line;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TrigramIndexTest {
+
+    @Test
+    void testRequiredLiterals() {
+        assertEquals(List.of("a.b"), SearchPattern.compile("a\\.b").requiredLiterals());
+        assertEquals(List.of("req", "est ", " took ", "ms"), SearchPattern.compile("^requ?est \\d+ took [0-9]+ms").requiredLiterals());
+        assertEquals(List.of("start", "end"), SearchPattern.compile("start(optional)?end").requiredLiterals());
+        assertEquals(List.of(), SearchPattern.compile("this|that").requiredLiterals());
+        assertEquals(List.of(), SearchPattern.compile("\\x41bc").requiredLiterals());
+        assertEquals(List.of("plain text"), SearchPattern.compile("plain text").requiredLiterals());
+    }
+
+    @Test
+    void testIndexedSearchFindsTheSameMatches() {
+        MultiLineInternalBuf buf = new MultiLineInternalBuf();
+        List<Line> lines = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            lines.add(Line.of("INFO request " + i + " took " + (i % 997) + "ms", null));
+        }
+        buf.insertAll(0, lines);
+        BufSearch plain = new BufSearch(buf::snapshot, results -> { });
+        BufSearch indexed = new BufSearch(buf::snapshot, results -> { });
+        indexed.enableIndex();
+        indexed.getIndex().update(buf.snapshot());
+        for (String query : List.of("request 1999", "took 996ms", "request 1[0-9]+5 took", "nowhere")) {
+            plain.setPattern(query);
+            indexed.setPattern(query);
+            assertEquals(plain.countAll().join().count(), indexed.countAll().join().count(), query);
+        }
+        buf.set(100, Line.of("ERROR nowhere to be found", null));
+        indexed.getIndex().update(buf.snapshot());
+        indexed.setPattern("nowhere");
+        assertEquals(new Match(100, 6, 13), indexed.next(0, 0));
+    }
+
+    @Test
+    void testSignatureOnlyRulesOutMissingTrigrams() {
+        long[] signature = TrigramIndex.sign(List.of(Line.of("the quick brown fox", null)));
+        TrigramIndex index = new TrigramIndex();
+        MultiLineInternalBuf buf = new MultiLineInternalBuf();
+        buf.insert(0, Line.of("the quick brown fox", null));
+        index.update(buf.snapshot());
+        Object key = ((com.dksd.dvim.internalbuf.LineRope) buf.snapshot().lines()).chunkKey(0);
+        assertTrue(index.mayContain(key, TrigramIndex.trigrams(List.of("quick"))));
+        assertTrue(index.mayContain(key, TrigramIndex.trigrams(List.of("brown fox"))));
+        assertFalse(index.mayContain(key, TrigramIndex.trigrams(List.of("lazy dog"))));
+        assertTrue(signature.length > 0);
+    }
+
+    @Test
+    void testReplacedLinesAreNotCheckedAgainstOldSignatures() {
+        List<Line> first = new ArrayList<>();
+        List<Line> second = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            first.add(Line.of("INFO nothing to see " + i, null));
+            second.add(Line.of((i == 10) ? "ERROR disk full" : "INFO all good " + i, null));
+        }
+        //Read only buffers are windows keyed by number and every one of them is at version 0.
+        AtomicReference<BufSnapshot> current = new AtomicReference<>(new BufSnapshot(0, first));
+        BufSearch search = new BufSearch(current::get, results -> { });
+        search.enableIndex();
+        search.getIndex().update(current.get());
+        current.set(new BufSnapshot(0, second));
+        search.linesReplaced();
+        search.setPattern("disk full");
+        assertEquals(new Match(10, 6, 15), search.next(0, 0));
+        search.getIndex().update(current.get());
+        assertEquals(1, search.countAll().join().count());
+    }
+}
@@ -0,0 +1,20 @@
+package com.dksd.dvim.utils;
+
+import com.dksd.dvim.view.Line;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class ContentHashTest {
+
+    @Test
+    void testSeesEditsStringHashCodeMisses() {
+        //"Aa" and "BB" share a String.hashCode and a length
+        assertNotEquals(ContentHash.of(Line.convert(List.of("Aa"))), ContentHash.of(Line.convert(List.of("BB"))));
+        assertNotEquals(ContentHash.of(Line.convert(List.of("ab", "c"))), ContentHash.of(Line.convert(List.of("a", "bc"))));
+        assertEquals(ContentHash.of(Line.convert(List.of("a", "b"))), ContentHash.of(Line.convert(List.of("a", "b"))));
+    }
+}
@@ -0,0 +1,82 @@
+package com.dksd.dvim.utils;
+
+import com.dksd.dvim.view.Line;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileSaverTest {
+
+    @Test
+    void testSaveSkipsUnchangedContents() throws Exception {
+        Path dir = Files.createTempDirectory("file-saver");
+        Path file = dir.resolve("notes.txt");
+        List<Line> lines = Line.convert(List.of("first", "sécond"));
+        FileSaver saver = new FileSaver();
+
+        FileSaver.SaveResult result = saver.save(file, lines).join();
+        assertTrue(result.written());
+        assertEquals(FileSaver.Stamp.of(file), result.stamp());
+        assertEquals(List.of("first", "sécond"), Files.readAllLines(file));
+        assertFalse(saver.save(file, lines).join().written());
+        //equal contents from another snapshot are written, only the same snapshot is trusted
+        assertTrue(saver.save(file, Line.convert(List.of("first", "sécond"))).join().written());
+
+        //changed on disk behind our back, so the same contents are written again
+        Files.writeString(file, "other");
+        assertTrue(saver.save(file, lines).join().written());
+        assertEquals(List.of("first", "sécond"), Files.readAllLines(file));
+        try (var files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void testWriteKeepsPermissions() throws Exception {
+        Path dir = Files.createTempDirectory("file-saver");
+        Path file = dir.resolve("run.sh");
+        Files.writeString(file, "old");
+        Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rwxr-x---"));
+        FileSaver.write(file, Line.convert(List.of("echo hi")));
+        assertEquals("rwxr-x---", PosixFilePermissions.toString(Files.getPosixFilePermissions(file)));
+        assertEquals(List.of("echo hi"), Files.readAllLines(file));
+    }
+
+    @Test
+    void testWriteGoesThroughSymlinks() throws Exception {
+        Path dir = Files.createTempDirectory("file-saver");
+        Path file = dir.resolve("real.txt");
+        Files.writeString(file, "old");
+        Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-------"));
+        Path link = Files.createSymbolicLink(dir.resolve("link.txt"), Path.of("real.txt"));
+        FileSaver.write(link, Line.convert(List.of("new")));
+        assertTrue(Files.isSymbolicLink(link));
+        assertEquals(List.of("new"), Files.readAllLines(file));
+        assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(file)));
+
+        //a link to a file that isn't there yet creates it
+        Path dangling = Files.createSymbolicLink(dir.resolve("dangling.txt"), Path.of("later.txt"));
+        FileSaver.write(dangling, Line.convert(List.of("made")));
+        assertTrue(Files.isSymbolicLink(dangling));
+        assertEquals(List.of("made"), Files.readAllLines(dir.resolve("later.txt")));
+    }
+
+    @Test
+    void testNewFilesGetTheDefaultPermissions() throws Exception {
+        Path dir = Files.createTempDirectory("file-saver");
+        Path probe = Files.createFile(dir.resolve("probe.txt"));
+        Path file = dir.resolve("new.txt");
+        FileSaver.write(file, Line.convert(List.of("hello")));
+        assertEquals(Files.getPosixFilePermissions(probe), Files.getPosixFilePermissions(file));
+        try (var files = Files.list(dir)) {
+            assertEquals(2, files.count());
+        }
+    }
+}
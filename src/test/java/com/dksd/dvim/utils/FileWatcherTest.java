@@ -0,0 +1,45 @@
+package com.dksd.dvim.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileWatcherTest {
+
+    @Test
+    void testOnlyWatchedFilesAreReported() throws Exception {
+        Path dir = Files.createTempDirectory("file-watcher");
+        Path watched = Files.writeString(dir.resolve("watched.txt"), "a");
+        Path other = Files.writeString(dir.resolve("other.txt"), "a");
+        LinkedBlockingQueue<Path> changed = new LinkedBlockingQueue<>();
+        FileWatcher watcher = new FileWatcher(changed::add);
+        watcher.watch(watched);
+        Files.writeString(other, "b");
+        Files.writeString(watched, "b");
+        Files.writeString(watched, "c");
+        assertEquals(watched.toAbsolutePath().normalize(), changed.poll(10, TimeUnit.SECONDS));
+        watcher.close();
+    }
+
+    @Test
+    void testFileIsWatchedUntilEveryWatchIsUndone() throws Exception {
+        Path dir = Files.createTempDirectory("file-watcher");
+        Path file = Files.writeString(dir.resolve("open-twice.txt"), "a");
+        FileWatcher watcher = new FileWatcher(path -> {
+        });
+        watcher.watch(file);
+        watcher.watch(file);
+        watcher.unwatch(file);
+        assertTrue(watcher.isWatching(file));
+        watcher.unwatch(file);
+        assertFalse(watcher.isWatching(file));
+        watcher.close();
+    }
+}
@@ -0,0 +1,78 @@
+package com.dksd.dvim.utils;
+
+import com.sun.management.ThreadMXBean;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LineIndexerTest {
+
+    @Test
+    void testIndexUnterminatedLastLine() {
+        byte[] bytes = "a\nbb\n\nccc".getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(new long[]{1, 4, 5, 9}, LineIndexer.index(bytes));
+    }
+
+    @Test
+    void testIndexEmpty() {
+        assertArrayEquals(new long[0], LineIndexer.index(new byte[0]));
+    }
+
+    @Test
+    void testIndexAcrossRegions() {
+        ByteBuffer first = ByteBuffer.wrap("a\nb".getBytes(StandardCharsets.UTF_8));
+        ByteBuffer second = ByteBuffer.wrap("c\n".getBytes(StandardCharsets.UTF_8));
+        assertArrayEquals(new long[]{1, 4}, LineIndexer.index(List.of(first, second), ForkJoinPool.commonPool()));
+        ByteBuffer unterminated = ByteBuffer.wrap("a".getBytes(StandardCharsets.UTF_8));
+        ByteBuffer empty = ByteBuffer.wrap(new byte[0]);
+        assertArrayEquals(new long[]{1}, LineIndexer.index(List.of(unterminated, empty), ForkJoinPool.commonPool()));
+    }
+
+    @Test
+    void testIndexAllocatesLittleMoreThanTheTable() {
+        int lines = LineIndexer.CHUNK_SIZE;
+        byte[] bytes = new byte[lines * 2];
+        for (int i = 1; i < bytes.length; i += 2) {
+            bytes[i] = '\n';
+        }
+        List<Thread> workers = new CopyOnWriteArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(2, p -> {
+            ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            workers.add(worker);
+            return worker;
+        }, null, false);
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long before = threads.getCurrentThreadAllocatedBytes();
+        long[] ends = LineIndexer.index(List.of(ByteBuffer.wrap(bytes)), pool);
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        for (Thread worker : workers) {
+            allocated += threads.getThreadAllocatedBytes(worker.threadId());
+        }
+        pool.shutdown();
+        assertEquals(lines, ends.length);
+        long table = (long) lines * Long.BYTES;
+        assertTrue(allocated < table + table / 4, "allocated " + allocated + " bytes for a " + table + " byte table");
+    }
+
+    @Test
+    void testIndexAcrossChunks() {
+        byte[] bytes = new byte[LineIndexer.CHUNK_SIZE * 3 + 10];
+        Arrays.fill(bytes, (byte) 'x');
+        long[] expected = new long[]{0, LineIndexer.CHUNK_SIZE - 1, LineIndexer.CHUNK_SIZE, 2L * LineIndexer.CHUNK_SIZE + 5, bytes.length - 1};
+        for (long pos : expected) {
+            bytes[(int) pos] = '\n';
+        }
+        assertArrayEquals(expected, LineIndexer.index(bytes));
+    }
+}
@@ -0,0 +1,91 @@
+package com.dksd.dvim.view;
+
+import com.dksd.dvim.buffer.Buf;
+import com.dksd.dvim.buffer.BufferMode;
+import com.dksd.dvim.higlight.JavaSyntaxHighlighter;
+import com.googlecode.lanterna.Symbols;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BufRegionTest {
+
+    private final JavaSyntaxHighlighter syntaxHighlighter = new JavaSyntaxHighlighter();
+
+    @Test
+    void testOnlyChangedRowsAreRedrawn() {
+        Buf buf = new Buf("main", null, 0, new ScrollView(100, 100),
+                Set.of(BufferMode.ALLOW_UNDO, BufferMode.LEFT_BORDER, BufferMode.TOP_BORDER));
+        for (int i = 0; i < 30; i++) {
+            buf.addRow("line" + i);
+        }
+        buf.setScrollView(2, 12, 0, 40);
+        BufRegion region = new BufRegion(false);
+
+        boolean[] dirtyRows = new boolean[24];
+        assertEquals(11, region.rasterize(buf, syntaxHighlighter, 80, 24, dirtyRows));
+        assertEquals(Symbols.SINGLE_LINE_HORIZONTAL, region.getGrid().charAt(3, 2));
+        assertEquals('l', region.getGrid().charAt(6, 3));
+        assertEquals('0', region.getGrid().charAt(4, 3));
+        assertEquals('8', region.getGrid().charAt(4, 11));
+        assertEquals(CellGrid.EMPTY, region.getGrid().charAt(20, 3));
+
+        //Nothing changed, and moving the cursor without scrolling doesn't change any cells either.
+        assertEquals(0, region.rasterize(buf, syntaxHighlighter, 80, 24, new boolean[24]));
+        buf.moveTo(2, 0);
+        assertEquals(0, region.rasterize(buf, syntaxHighlighter, 80, 24, new boolean[24]));
+
+        buf.insertIntoLine("x");
+        dirtyRows = new boolean[24];
+        assertEquals(1, region.rasterize(buf, syntaxHighlighter, 80, 24, dirtyRows));
+        assertTrue(dirtyRows[5]);
+        assertFalse(dirtyRows[4]);
+        assertEquals('x', region.getGrid().charAt(6, 5));
+
+        //Moving the region redraws it all and flags where it used to be.
+        buf.setScrollView(4, 14, 0, 40);
+        dirtyRows = new boolean[24];
+        assertEquals(11, region.rasterize(buf, syntaxHighlighter, 80, 24, dirtyRows));
+        assertTrue(dirtyRows[2]);
+    }
+
+    @Test
+    void testUnversionedBuffersAreComparedByRow() {
+        Buf status = new Buf("status", null, 1, new ScrollView(-1, 100),
+                Set.of(BufferMode.SINGLE_LINE, BufferMode.NO_LINE_NUMBERS, BufferMode.NO_GUTTER));
+        status.setScrollView(0, 1, 0, 79);
+        status.setLine(0, "ready");
+        BufRegion region = new BufRegion(false);
+        assertEquals(2, region.rasterize(status, syntaxHighlighter, 80, 24, new boolean[24]));
+        assertEquals(0, region.rasterize(status, syntaxHighlighter, 80, 24, new boolean[24]));
+        status.setLine(0, "saved");
+        assertEquals(1, region.rasterize(status, syntaxHighlighter, 80, 24, new boolean[24]));
+        assertEquals('s', region.getGrid().charAt(0, 0));
+    }
+
+    @Test
+    void testDisplayRowsAreReusedSlices() {
+        Buf buf = new Buf("main", null, 0, new ScrollView(100, 100), Set.of(BufferMode.ALLOW_UNDO));
+        buf.addRow("public class Main {");
+        buf.addRow("}");
+        buf.setScrollView(0, 10, 0, 40);
+        List<DispObj> first = buf.getLinesToDisplay();
+        DispObj row = first.get(0);
+        assertEquals(2, first.size());
+        assertTrue(row.getText().contentEquals("public class Main {"));
+        assertEquals(1, first.get(1).getDataRow());
+
+        buf.setLine(1, "  }");
+        List<DispObj> second = buf.getLinesToDisplay();
+        assertSame(row, second.get(0));
+        assertEquals("  }", second.get(1).getText().toString());
+        assertEquals(1, BufRegion.digits(0));
+        assertEquals(8, BufRegion.digits(50_000_000));
+    }
+}
@@ -2,10 +2,27 @@ package com.dksd.dvim.view;
 
 import org.junit.jupiter.api.Test;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
 public class LineTest {
     @Test
     public void testSetContent() {
         // Test setContent method
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testGhostAndIndicatorAreKeptApart() {
+        Line line = Line.of("text", null);
+        assertNull(line.getGhostContent());
+        assertNull(line.getIndicatorStr());
+        line.setIndicatorStr(">");
+        line.setGhostContent("ghost");
+        assertEquals(">", line.getIndicatorStr());
+        assertEquals("ghost", line.getGhostContent());
+        line.setIndicatorStr(null);
+        assertNull(line.getIndicatorStr());
+        assertEquals("ghost", line.getGhostContent());
+    }
+
+}